@@ -0,0 +1,121 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/** Restarts the journal on a real database, as a killed process would. */
+@RunWith(AndroidJUnit4.class)
+public class OutboundJournalRecoveryTest {
+    private static final long TIMEOUT_SEC = 5;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(OutboundJournal.DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(OutboundJournal.DB_NAME);
+    }
+
+    @Test
+    public void restartResumesQueuedAndFailsInterruptedSends() throws Exception {
+        long now = System.currentTimeMillis();
+        OutboundJournal before = new OutboundJournal(context);
+        assertTrue(before.append(message("queued", now, 0)).get(TIMEOUT_SEC, TimeUnit.SECONDS));
+        assertTrue(before.append(message("deferred", now + 1, now + 60_000L)).get(TIMEOUT_SEC, TimeUnit.SECONDS));
+        assertTrue(before.append(message("sending", now + 2, 0)).get(TIMEOUT_SEC, TimeUnit.SECONDS));
+        assertTrue(before.append(message("sent", now + 3, 0)).get(TIMEOUT_SEC, TimeUnit.SECONDS));
+        assertTrue(before.markSending("sending", 1).get(TIMEOUT_SEC, TimeUnit.SECONDS));
+        assertTrue(before.updateState("sent", "sent", now, 0).get(TIMEOUT_SEC, TimeUnit.SECONDS));
+        before.close();
+
+        OutboundJournal after = new OutboundJournal(context);
+        OutboundJournal.Unfinished unfinished = after.loadUnfinished().get(TIMEOUT_SEC, TimeUnit.SECONDS);
+        after.close();
+
+        assertEquals(2, unfinished.queued.size());
+        assertEquals("queued", unfinished.queued.get(0).getId());
+        assertEquals("deferred", unfinished.queued.get(1).getId());
+        assertEquals(now + 60_000L, unfinished.queued.get(1).getNotBefore());
+        assertEquals(1, unfinished.interrupted.size());
+        assertEquals("sending", unfinished.interrupted.get(0).getId());
+        assertEquals(1, unfinished.interrupted.get(0).getAttempts());
+    }
+
+    @Test
+    public void recoveryDoesNotSeeMessagesAppendedAfterIt() throws Exception {
+        long now = System.currentTimeMillis();
+        OutboundJournal before = new OutboundJournal(context);
+        assertTrue(before.append(message("old", now, 0)).get(TIMEOUT_SEC, TimeUnit.SECONDS));
+        before.close();
+
+        OutboundJournal after = new OutboundJournal(context);
+        // Submitted back to back, as the dispatcher does when a request arrives during startup
+        CompletableFuture<OutboundJournal.Unfinished> loading = after.loadUnfinished();
+        CompletableFuture<Boolean> appended = after.append(message("new", now + 1, 0));
+        OutboundJournal.Unfinished unfinished = loading.get(TIMEOUT_SEC, TimeUnit.SECONDS);
+        assertTrue(appended.get(TIMEOUT_SEC, TimeUnit.SECONDS));
+        after.close();
+
+        assertEquals(1, unfinished.queued.size());
+        assertEquals("old", unfinished.queued.get(0).getId());
+    }
+
+    @Test
+    public void retryTimeSurvivesRestart() throws Exception {
+        long now = System.currentTimeMillis();
+        OutboundJournal before = new OutboundJournal(context);
+        assertTrue(before.append(message("retried", now, 0)).get(TIMEOUT_SEC, TimeUnit.SECONDS));
+        assertTrue(before.markSending("retried", 1).get(TIMEOUT_SEC, TimeUnit.SECONDS));
+        assertTrue(before.requeue("retried", now + 30_000L).get(TIMEOUT_SEC, TimeUnit.SECONDS));
+        before.close();
+
+        OutboundJournal after = new OutboundJournal(context);
+        OutboundJournal.Unfinished unfinished = after.loadUnfinished().get(TIMEOUT_SEC, TimeUnit.SECONDS);
+        after.close();
+
+        assertEquals(1, unfinished.queued.size());
+        assertEquals(now + 30_000L, unfinished.queued.get(0).getNotBefore());
+        assertEquals(1, unfinished.queued.get(0).getAttempts());
+    }
+
+    @Test
+    public void deadLettersSurviveRestartNewestFirst() throws Exception {
+        long now = System.currentTimeMillis();
+        OutboundJournal before = new OutboundJournal(context);
+        assertTrue(before.deadLetter(message("older", now, 0), now + 1_000L).get(TIMEOUT_SEC, TimeUnit.SECONDS));
+        assertTrue(before.deadLetter(message("newer", now, 0), now + 2_000L).get(TIMEOUT_SEC, TimeUnit.SECONDS));
+        before.close();
+
+        OutboundJournal after = new OutboundJournal(context);
+        List<OutboundJournal.DeadLetter> letters = after.loadDeadLetters(1).get(TIMEOUT_SEC, TimeUnit.SECONDS);
+        after.close();
+
+        assertEquals(1, letters.size());
+        assertEquals("newer", letters.get(0).id);
+        assertEquals(now + 2_000L, letters.get(0).failedAt);
+    }
+
+    private static OutboundMessage message(String id, long createdAt, long notBefore) {
+        return new OutboundMessage(id, "+923001234567", "Your code is 123456", null, OutboundMessage.Lane.OTP, true, 1,
+                createdAt, notBefore, 0);
+    }
+}
@@ -17,6 +17,9 @@ public class BootReceiver extends BroadcastReceiver {
     public void onReceive(Context context, Intent intent) {
         if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
             Log.i(TAG, "Boot completed - starting SignalR service");
+
+            // Resumes OTPs accepted before the reboot from the outbound journal
+            OutboundDispatcher.getInstance(context);
             
             // Check if backend URL is configured before starting service
             ConfigurationManager config = new ConfigurationManager(context);
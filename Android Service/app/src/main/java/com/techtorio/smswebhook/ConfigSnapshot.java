@@ -0,0 +1,261 @@
+package com.techtorio.smswebhook;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable, process-wide view of the settings used on hot paths (incoming SMS,
+ * webhook posts, LAN requests, SignalR messages). Lists are split and the OTP
+ * templates compiled once per settings change; readers pay a single volatile load.
+ *
+ * A {@link SharedPreferences.OnSharedPreferenceChangeListener} swaps in a fresh
+ * snapshot whenever any preference changes. Settings screens keep using
+ * {@link ConfigurationManager} for reading and writing.
+ */
+public final class ConfigSnapshot {
+    private static volatile ConfigSnapshot current;
+    // SharedPreferences holds listeners weakly, so keep a strong reference here
+    private static SharedPreferences.OnSharedPreferenceChangeListener listener;
+
+    private final String phoneNumber;
+    private final List<String> phoneNumbers;
+    private final List<String> keywords;
+    private final String webhookUrl;
+    private final String secretKey;
+    private final TemplateRegistry templates;
+    private final String defaultCountryCode;
+    private final Integer preferredSimSlot;
+    private final boolean lanEndpointEnabled;
+    private final boolean hmacRequired;
+    private final boolean replayProtectionRequired;
+    private final int rateLimitPerNumber;
+    private final int rateLimitPerNumberWindowSeconds;
+    private final int rateLimitPerDevice;
+    private final int rateLimitPerDeviceWindowSeconds;
+    private final boolean gsmTransliterationEnabled;
+    private final int maxSegmentsPerMessage;
+    private final boolean rejectOverMaxSegments;
+    private final boolean simLoadBalancing;
+    private final int[] simWeights;
+    private final int simRatePerMinute;
+    private final int simDailyCap;
+    private final PrefixRouter simRoutes;
+    private final int maxSendAttempts;
+    private final boolean otpCoalescingEnabled;
+    private final int[] laneWeights;
+    private final boolean adaptivePacingEnabled;
+    private final int pacingMinPerMinute;
+    private final int pacingMaxPerMinute;
+    private final String otpDevicePhone;
+    private final String signalRHubUrl;
+    private final boolean configured;
+
+    private ConfigSnapshot(ConfigurationManager cfg) {
+        phoneNumber = cfg.getPhoneNumber();
+        phoneNumbers = Collections.unmodifiableList(cfg.getPhoneNumbers());
+        keywords = Collections.unmodifiableList(cfg.getKeywords());
+        webhookUrl = cfg.getWebhookUrl();
+        secretKey = cfg.getSecretKey();
+        templates = TemplateRegistry.parse(cfg.getOtpTemplatesJson(), cfg.getOtpTemplateVariablesJson(), cfg.getOtpTemplate());
+        defaultCountryCode = cfg.getDefaultCountryCode();
+        preferredSimSlot = cfg.getPreferredSimSlot();
+        lanEndpointEnabled = cfg.isLanEndpointEnabled();
+        hmacRequired = cfg.isHmacRequired();
+        replayProtectionRequired = cfg.isReplayProtectionRequired();
+        rateLimitPerNumber = cfg.getRateLimitPerNumber();
+        rateLimitPerNumberWindowSeconds = cfg.getRateLimitPerNumberWindowSeconds();
+        rateLimitPerDevice = cfg.getRateLimitPerDevice();
+        rateLimitPerDeviceWindowSeconds = cfg.getRateLimitPerDeviceWindowSeconds();
+        gsmTransliterationEnabled = cfg.isGsmTransliterationEnabled();
+        maxSegmentsPerMessage = cfg.getMaxSegmentsPerMessage();
+        rejectOverMaxSegments = cfg.isRejectOverMaxSegments();
+        simLoadBalancing = cfg.isSimLoadBalancingEnabled();
+        simWeights = parseWeights(cfg.getSimWeights(), 0);
+        simRatePerMinute = cfg.getSimRatePerMinute();
+        simDailyCap = cfg.getSimDailyCap();
+        simRoutes = PrefixRouter.parse(cfg.getSimRoutes(), defaultCountryCode);
+        maxSendAttempts = cfg.getMaxSendAttempts();
+        otpCoalescingEnabled = cfg.isOtpCoalescingEnabled();
+        // A lane weighted 0 could be starved for good, so every lane gets at least 1
+        laneWeights = parseWeights(cfg.getOutboundLaneWeights(), 1);
+        adaptivePacingEnabled = cfg.isAdaptivePacingEnabled();
+        pacingMinPerMinute = cfg.getPacingMinPerMinute();
+        pacingMaxPerMinute = cfg.getPacingMaxPerMinute();
+        otpDevicePhone = cfg.getOtpDevicePhone();
+        signalRHubUrl = cfg.getSignalRHubUrl();
+        configured = cfg.isConfigured();
+    }
+
+    public static ConfigSnapshot get(Context context) {
+        ConfigSnapshot s = current;
+        return s != null ? s : load(context);
+    }
+
+    /** A snapshot of {@code prefs} that is not installed as the current one; for tests. */
+    static ConfigSnapshot of(SharedPreferences prefs) {
+        return new ConfigSnapshot(new ConfigurationManager(prefs));
+    }
+
+    private static synchronized ConfigSnapshot load(Context context) {
+        if (current == null) {
+            SharedPreferences prefs = ConfigurationManager.preferences(context.getApplicationContext());
+            // Registered before the first read so no change can slip in between
+            listener = (p, key) -> current = new ConfigSnapshot(new ConfigurationManager(p));
+            prefs.registerOnSharedPreferenceChangeListener(listener);
+            current = new ConfigSnapshot(new ConfigurationManager(prefs));
+        }
+        return current;
+    }
+
+    public String getPhoneNumber() {
+        return phoneNumber;
+    }
+
+    public List<String> getPhoneNumbers() {
+        return phoneNumbers;
+    }
+
+    public List<String> getKeywords() {
+        return keywords;
+    }
+
+    public String getWebhookUrl() {
+        return webhookUrl;
+    }
+
+    public String getSecretKey() {
+        return secretKey;
+    }
+
+    public MessageTemplate getOtpTemplate() {
+        return templates.getDefault();
+    }
+
+    public TemplateRegistry getTemplates() {
+        return templates;
+    }
+
+    public String getDefaultCountryCode() {
+        return defaultCountryCode;
+    }
+
+    public Integer getPreferredSimSlot() {
+        return preferredSimSlot;
+    }
+
+    public boolean isLanEndpointEnabled() {
+        return lanEndpointEnabled;
+    }
+
+    public boolean isHmacRequired() {
+        return hmacRequired;
+    }
+
+    public boolean isReplayProtectionRequired() {
+        return replayProtectionRequired;
+    }
+
+    public int getRateLimitPerNumber() {
+        return rateLimitPerNumber;
+    }
+
+    public int getRateLimitPerNumberWindowSeconds() {
+        return rateLimitPerNumberWindowSeconds;
+    }
+
+    public int getRateLimitPerDevice() {
+        return rateLimitPerDevice;
+    }
+
+    public int getRateLimitPerDeviceWindowSeconds() {
+        return rateLimitPerDeviceWindowSeconds;
+    }
+
+    public boolean isGsmTransliterationEnabled() {
+        return gsmTransliterationEnabled;
+    }
+
+    public int getMaxSegmentsPerMessage() {
+        return maxSegmentsPerMessage;
+    }
+
+    public boolean isRejectOverMaxSegments() {
+        return rejectOverMaxSegments;
+    }
+
+    public boolean isSimLoadBalancing() {
+        return simLoadBalancing;
+    }
+
+    /** Round-robin weight of {@code slot}; 1 unless configured. */
+    public int getSimWeight(int slot) {
+        return slot >= 0 && slot < simWeights.length ? simWeights[slot] : 1;
+    }
+
+    public int getSimRatePerMinute() {
+        return simRatePerMinute;
+    }
+
+    public int getSimDailyCap() {
+        return simDailyCap;
+    }
+
+    public int getMaxSendAttempts() {
+        return maxSendAttempts;
+    }
+
+    public boolean isOtpCoalescingEnabled() {
+        return otpCoalescingEnabled;
+    }
+
+    /** Dequeue weight of {@code lane}, at least 1; 1 unless configured. */
+    public int getLaneWeight(OutboundMessage.Lane lane) {
+        return lane.ordinal() < laneWeights.length ? laneWeights[lane.ordinal()] : 1;
+    }
+
+    /** Compiled operator prefix routes; empty when none are configured. */
+    public PrefixRouter getSimRoutes() {
+        return simRoutes;
+    }
+
+    public boolean isAdaptivePacingEnabled() {
+        return adaptivePacingEnabled;
+    }
+
+    public int getPacingMinPerMinute() {
+        return pacingMinPerMinute;
+    }
+
+    public int getPacingMaxPerMinute() {
+        return pacingMaxPerMinute;
+    }
+
+    public String getOtpDevicePhone() {
+        return otpDevicePhone;
+    }
+
+    public String getSignalRHubUrl() {
+        return signalRHubUrl;
+    }
+
+    public boolean isConfigured() {
+        return configured;
+    }
+
+    private static int[] parseWeights(String csv, int min) {
+        if (csv == null || csv.trim().isEmpty()) return new int[0];
+        String[] parts = csv.split(",");
+        int[] weights = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                weights[i] = Math.max(min, Integer.parseInt(parts[i].trim()));
+            } catch (NumberFormatException e) {
+                weights[i] = 1;
+            }
+        }
+        return weights;
+    }
+}
@@ -5,7 +5,16 @@ import android.content.SharedPreferences;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * Reads and writes the app's settings. Hot paths read {@link ConfigSnapshot}
+ * instead. Saves are committed on a single background writer, in call order,
+ * so the settings screens never wait on disk; the returned future completes
+ * once the values are visible to readers.
+ */
 public class ConfigurationManager {
     private static final String PREFS_NAME = "SMSWebhookPrefs";
     private static final String KEY_PHONE_NUMBER = "phone_number";
@@ -15,30 +24,76 @@ public class ConfigurationManager {
 
     // OTP sender settings
     private static final String KEY_OTP_TEMPLATE = "otp_template";
+    private static final String KEY_OTP_TEMPLATES = "otp_templates";
+    private static final String KEY_OTP_TEMPLATE_VARIABLES = "otp_template_variables";
     private static final String KEY_DEFAULT_COUNTRY_CODE = "default_country_code";
     private static final String KEY_PREFERRED_SIM_SLOT = "preferred_sim_slot";
     private static final String KEY_ENABLE_LAN_ENDPOINT = "enable_lan_endpoint";
     private static final String KEY_REQUIRE_HMAC = "require_hmac";
+    private static final String KEY_REQUIRE_REPLAY_PROTECTION = "require_replay_protection";
+    private static final String KEY_LAN_NIO_SERVER = "lan_nio_server";
+    private static final String KEY_RATE_LIMIT_PER_NUMBER = "rate_limit_per_number";
+    private static final String KEY_RATE_LIMIT_PER_NUMBER_WINDOW = "rate_limit_per_number_window_sec";
+    private static final String KEY_RATE_LIMIT_PER_DEVICE = "rate_limit_per_device";
+    private static final String KEY_RATE_LIMIT_PER_DEVICE_WINDOW = "rate_limit_per_device_window_sec";
+    private static final String KEY_LAN_WORKER_THREADS = "lan_worker_threads";
+    private static final String KEY_LAN_WORKER_QUEUE = "lan_worker_queue";
+    private static final String KEY_OUTBOUND_QUEUE_CAPACITY = "outbound_queue_capacity";
+    private static final String KEY_WEBHOOK_CONCURRENCY = "webhook_concurrency";
+    private static final String KEY_WEBHOOK_QUEUE_CAPACITY = "webhook_queue_capacity";
+    private static final String KEY_LAN_MAX_CONNECTIONS_PER_IP = "lan_max_connections_per_ip";
+    private static final String KEY_SMS_TRANSLITERATE_GSM7 = "sms_transliterate_gsm7";
+    private static final String KEY_SMS_MAX_SEGMENTS = "sms_max_segments";
+    private static final String KEY_SMS_REJECT_OVER_MAX_SEGMENTS = "sms_reject_over_max_segments";
+    private static final String KEY_SIM_LOAD_BALANCING = "sim_load_balancing";
+    private static final String KEY_SIM_WEIGHTS = "sim_weights";
+    private static final String KEY_SIM_RATE_PER_MINUTE = "sim_rate_per_minute";
+    private static final String KEY_SIM_DAILY_CAP = "sim_daily_cap";
+    private static final String KEY_SIM_ROUTES = "sim_routes";
+    private static final String KEY_SMS_MAX_SEND_ATTEMPTS = "sms_max_send_attempts";
+    private static final String KEY_SMS_COALESCE_OTPS = "sms_coalesce_otps";
+    private static final String KEY_OUTBOUND_LANE_WEIGHTS = "outbound_lane_weights";
+    private static final String KEY_SMS_ADAPTIVE_PACING = "sms_adaptive_pacing";
+    private static final String KEY_SMS_PACING_MIN_PER_MINUTE = "sms_pacing_min_per_minute";
+    private static final String KEY_SMS_PACING_MAX_PER_MINUTE = "sms_pacing_max_per_minute";
     private static final String KEY_OTP_TEST_RECEIVER = "otp_test_receiver";
     private static final String KEY_BACKEND_URL = "backend_url";
     private static final String KEY_OTP_DEVICE_PHONE = "otp_device_phone";
 
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "config-writer");
+        t.setDaemon(true);
+        return t;
+    });
+
     private SharedPreferences prefs;
 
     public ConfigurationManager(Context context) {
-        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs = preferences(context);
+    }
+
+    ConfigurationManager(SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    static SharedPreferences preferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
     }
 
-    public void saveConfiguration(String phoneNumber, String keyword, String webhookUrl, String secretKey) {
+    private static CompletableFuture<Void> commitAsync(SharedPreferences.Editor editor) {
+        return CompletableFuture.runAsync(editor::commit, WRITER);
+    }
+
+    public CompletableFuture<Void> saveConfiguration(String phoneNumber, String keyword, String webhookUrl, String secretKey) {
         SharedPreferences.Editor editor = prefs.edit();
         editor.putString(KEY_PHONE_NUMBER, phoneNumber);
         editor.putString(KEY_KEYWORD, keyword);
         editor.putString(KEY_WEBHOOK_URL, webhookUrl);
         editor.putString(KEY_SECRET_KEY, secretKey);
-        editor.apply();
+        return commitAsync(editor);
     }
 
-    public void saveOtpConfiguration(String backendUrl, String otpTemplate, String defaultCountryCode, String otpTestReceiver, Integer preferredSimSlot, boolean enableLanEndpoint, boolean requireHmac) {
+    public CompletableFuture<Void> saveOtpConfiguration(String backendUrl, String otpTemplate, String defaultCountryCode, String otpTestReceiver, Integer preferredSimSlot, boolean enableLanEndpoint, boolean requireHmac) {
         SharedPreferences.Editor editor = prefs.edit();
         editor.putString(KEY_BACKEND_URL, backendUrl == null ? "" : backendUrl);
         // keep device phone if caller included it in newer overloads
@@ -52,13 +107,21 @@ public class ConfigurationManager {
         }
         editor.putBoolean(KEY_ENABLE_LAN_ENDPOINT, enableLanEndpoint);
         editor.putBoolean(KEY_REQUIRE_HMAC, requireHmac);
-        editor.apply();
+        return commitAsync(editor);
+    }
+
+    /** Saves the named template JSON and shared variables JSON read by {@link TemplateRegistry}. */
+    public CompletableFuture<Void> saveOtpTemplates(String templatesJson, String variablesJson) {
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putString(KEY_OTP_TEMPLATES, templatesJson);
+        editor.putString(KEY_OTP_TEMPLATE_VARIABLES, variablesJson);
+        return commitAsync(editor);
     }
 
-    public void saveOtpDevicePhone(String devicePhone) {
+    public CompletableFuture<Void> saveOtpDevicePhone(String devicePhone) {
         SharedPreferences.Editor editor = prefs.edit();
         editor.putString(KEY_OTP_DEVICE_PHONE, devicePhone == null ? "" : devicePhone);
-        editor.apply();
+        return commitAsync(editor);
     }
 
     public String getPhoneNumber() {
@@ -82,6 +145,14 @@ public class ConfigurationManager {
         return template == null || template.isEmpty() ? "Your OTP is {varOTP}" : template;
     }
 
+    public String getOtpTemplatesJson() {
+        return prefs.getString(KEY_OTP_TEMPLATES, "");
+    }
+
+    public String getOtpTemplateVariablesJson() {
+        return prefs.getString(KEY_OTP_TEMPLATE_VARIABLES, "");
+    }
+
     public String getDefaultCountryCode() {
         return prefs.getString(KEY_DEFAULT_COUNTRY_CODE, "");
     }
@@ -99,6 +170,140 @@ public class ConfigurationManager {
         return prefs.getBoolean(KEY_REQUIRE_HMAC, false);
     }
 
+    /**
+     * When set (and HMAC is required), signed requests must also carry
+     * X-Timestamp and X-Nonce. Otherwise those headers are checked only if sent.
+     */
+    public boolean isReplayProtectionRequired() {
+        return prefs.getBoolean(KEY_REQUIRE_REPLAY_PROTECTION, false);
+    }
+
+    /**
+     * Whether the LAN endpoint runs on the selector-based server (default) or on
+     * the legacy thread-per-connection server.
+     */
+    public boolean isNioServerEnabled() {
+        return prefs.getBoolean(KEY_LAN_NIO_SERVER, true);
+    }
+
+    /** Max OTPs per recipient within the per-number window; 0 disables the limit. */
+    public int getRateLimitPerNumber() {
+        return prefs.getInt(KEY_RATE_LIMIT_PER_NUMBER, 5);
+    }
+
+    public int getRateLimitPerNumberWindowSeconds() {
+        return prefs.getInt(KEY_RATE_LIMIT_PER_NUMBER_WINDOW, 5 * 60);
+    }
+
+    /** Max OTPs sent by this device within the per-device window; 0 disables the limit. */
+    public int getRateLimitPerDevice() {
+        return prefs.getInt(KEY_RATE_LIMIT_PER_DEVICE, 60);
+    }
+
+    public int getRateLimitPerDeviceWindowSeconds() {
+        return prefs.getInt(KEY_RATE_LIMIT_PER_DEVICE_WINDOW, 60 * 60);
+    }
+
+    /** Connection threads of the thread-per-connection LAN server. */
+    public int getLanWorkerThreads() {
+        return prefs.getInt(KEY_LAN_WORKER_THREADS, 8);
+    }
+
+    /** Accepted connections allowed to wait for a worker before new ones get 503. */
+    public int getLanWorkerQueueSize() {
+        return prefs.getInt(KEY_LAN_WORKER_QUEUE, 32);
+    }
+
+    /** Concurrent LAN connections allowed from one address; 0 disables the cap. */
+    public int getLanMaxConnectionsPerIp() {
+        return prefs.getInt(KEY_LAN_MAX_CONNECTIONS_PER_IP, 16);
+    }
+
+    /** OTPs admitted but not yet sent before new ones get 503. */
+    public int getOutboundQueueCapacity() {
+        return prefs.getInt(KEY_OUTBOUND_QUEUE_CAPACITY, 500);
+    }
+
+    /** Webhook POSTs of received SMS in flight at once. */
+    public int getWebhookConcurrency() {
+        return prefs.getInt(KEY_WEBHOOK_CONCURRENCY, 4);
+    }
+
+    /** Webhook POSTs allowed to wait for a worker before new ones are dropped and logged. */
+    public int getWebhookQueueCapacity() {
+        return prefs.getInt(KEY_WEBHOOK_QUEUE_CAPACITY, 200);
+    }
+
+    /** Rewrite curly quotes, dashes, odd spaces and accents so messages stay GSM-7. */
+    public boolean isGsmTransliterationEnabled() {
+        return prefs.getBoolean(KEY_SMS_TRANSLITERATE_GSM7, false);
+    }
+
+    /** Segments one OTP may take before it is logged (or rejected); 0 disables the check. */
+    public int getMaxSegmentsPerMessage() {
+        return prefs.getInt(KEY_SMS_MAX_SEGMENTS, 1);
+    }
+
+    /** Whether messages over {@link #getMaxSegmentsPerMessage()} are refused rather than only logged. */
+    public boolean isRejectOverMaxSegments() {
+        return prefs.getBoolean(KEY_SMS_REJECT_OVER_MAX_SEGMENTS, false);
+    }
+
+    /** Spread OTPs over all active SIMs instead of the preferred slot. */
+    public boolean isSimLoadBalancingEnabled() {
+        return prefs.getBoolean(KEY_SIM_LOAD_BALANCING, false);
+    }
+
+    /** Comma-separated round-robin weights by slot, e.g. "2,1"; missing slots weigh 1, 0 means failover only. */
+    public String getSimWeights() {
+        return prefs.getString(KEY_SIM_WEIGHTS, "");
+    }
+
+    /** SMS parts one SIM may send per minute when balancing; 0 disables the limit. */
+    public int getSimRatePerMinute() {
+        return prefs.getInt(KEY_SIM_RATE_PER_MINUTE, 0);
+    }
+
+    /** SMS parts one SIM may send per day when balancing; 0 disables the cap. */
+    public int getSimDailyCap() {
+        return prefs.getInt(KEY_SIM_DAILY_CAP, 0);
+    }
+
+    /** Sends tried per message, counting the first, before a retryable failure is final. */
+    public int getMaxSendAttempts() {
+        return Math.max(1, prefs.getInt(KEY_SMS_MAX_SEND_ATTEMPTS, 3));
+    }
+
+    /** Replace a still-queued OTP with a newer one to the same number instead of sending both. */
+    public boolean isOtpCoalescingEnabled() {
+        return prefs.getBoolean(KEY_SMS_COALESCE_OTPS, true);
+    }
+
+    /** Comma-separated dequeue weights of the otp, transactional and bulk lanes; values below 1 count as 1. */
+    public String getOutboundLaneWeights() {
+        return prefs.getString(KEY_OUTBOUND_LANE_WEIGHTS, "8,3,1");
+    }
+
+    /** Slow each SIM's sends down on carrier pushback and speed them back up while sends succeed. */
+    public boolean isAdaptivePacingEnabled() {
+        return prefs.getBoolean(KEY_SMS_ADAPTIVE_PACING, true);
+    }
+
+    /** Lowest adaptive send rate per SIM, in SMS parts per minute. */
+    public int getPacingMinPerMinute() {
+        return Math.max(1, prefs.getInt(KEY_SMS_PACING_MIN_PER_MINUTE, 2));
+    }
+
+    /** Highest adaptive send rate per SIM, and the starting rate, in SMS parts per minute. */
+    public int getPacingMaxPerMinute() {
+        return Math.max(getPacingMinPerMinute(), prefs.getInt(KEY_SMS_PACING_MAX_PER_MINUTE, 60));
+    }
+
+    /** Comma-separated "prefix:slot" operator routes, e.g. "+92300:0,+92333:1"; the longest prefix wins. */
+    public String getSimRoutes() {
+        return prefs.getString(KEY_SIM_ROUTES, "");
+    }
+
     public String getOtpTestReceiver() {
         return prefs.getString(KEY_OTP_TEST_RECEIVER, "");
     }
@@ -0,0 +1,37 @@
+package com.techtorio.smswebhook;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counts open LAN connections per remote address so one host cannot hold every
+ * connection slot. Addresses are dropped from the map when their last
+ * connection closes, so memory follows the number of connected hosts.
+ */
+public class ConnectionLimiter {
+    private final int maxPerAddress;
+    private final ConcurrentHashMap<InetAddress, Integer> open = new ConcurrentHashMap<>();
+
+    /** A limit of 0 or less admits every connection. */
+    public ConnectionLimiter(int maxPerAddress) {
+        this.maxPerAddress = maxPerAddress;
+    }
+
+    /** Reserves a slot for {@code address}; every true result needs a matching {@link #release}. */
+    public boolean tryAcquire(InetAddress address) {
+        if (maxPerAddress <= 0 || address == null) return true;
+        boolean[] admitted = new boolean[1];
+        open.compute(address, (k, n) -> {
+            int count = n == null ? 0 : n;
+            if (count >= maxPerAddress) return n;
+            admitted[0] = true;
+            return count + 1;
+        });
+        return admitted[0];
+    }
+
+    public void release(InetAddress address) {
+        if (maxPerAddress <= 0 || address == null) return;
+        open.computeIfPresent(address, (k, n) -> n <= 1 ? null : n - 1);
+    }
+}
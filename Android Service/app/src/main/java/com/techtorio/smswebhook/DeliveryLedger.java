@@ -0,0 +1,153 @@
+package com.techtorio.smswebhook;
+
+import android.app.Activity;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The bookkeeping half of {@link DeliveryTracker}: counts each tracked
+ * message's sent and delivery reports, completes its outcomes, times out
+ * messages the radio never answered and holds at most {@code maxTracked},
+ * oldest dropped first. It never touches a PendingIntent; {@code onForget} is
+ * called for every message that leaves, after the ledger lock is released.
+ */
+final class DeliveryLedger {
+    private static final String TAG = "DeliveryLedger";
+
+    private final int maxTracked;
+    private final long sentTimeoutMs;
+    private final long deliveryTimeoutMs;
+    private final Consumer<DeliveryTracker.Tracked> onForget;
+    // Insertion order is submission order, so the eldest entry is evicted first
+    private final LinkedHashMap<String, DeliveryTracker.Tracked> tracked = new LinkedHashMap<>();
+
+    DeliveryLedger(int maxTracked, long sentTimeoutMs, long deliveryTimeoutMs, Consumer<DeliveryTracker.Tracked> onForget) {
+        this.maxTracked = maxTracked;
+        this.sentTimeoutMs = sentTimeoutMs;
+        this.deliveryTimeoutMs = deliveryTimeoutMs;
+        this.onForget = onForget;
+    }
+
+    /** Starts tracking {@code t}, timing out the eldest message when the ledger is full. */
+    void add(DeliveryTracker.Tracked t) {
+        DeliveryTracker.Tracked evicted = null;
+        synchronized (tracked) {
+            if (tracked.size() >= maxTracked) {
+                Iterator<DeliveryTracker.Tracked> it = tracked.values().iterator();
+                evicted = it.next();
+                it.remove();
+            }
+            tracked.put(t.id, t);
+        }
+        if (evicted != null) {
+            onForget.accept(evicted);
+            finishTimedOut(evicted);
+        }
+    }
+
+    /** Completes {@code t} as failed when SmsManager refused the submission outright. */
+    void fail(DeliveryTracker.Tracked t, int resultCode) {
+        synchronized (tracked) {
+            tracked.remove(t.id);
+        }
+        onForget.accept(t);
+        finishSent(t, SmsOutcome.Status.FAILED, resultCode);
+        finishDelivery(t, SmsOutcome.Status.UNDELIVERED, resultCode);
+    }
+
+    int size() {
+        synchronized (tracked) {
+            return tracked.size();
+        }
+    }
+
+    /** One part's sent result: the message is sent once every part is, and fails on the first that is not. */
+    void onSent(String id, int resultCode) {
+        DeliveryTracker.Tracked t;
+        boolean allSent = false;
+        synchronized (tracked) {
+            t = tracked.get(id);
+            if (t == null || t.sent.isDone()) return;
+            if (resultCode == Activity.RESULT_OK) {
+                allSent = --t.sentPending == 0;
+            } else {
+                tracked.remove(id);
+            }
+        }
+        if (resultCode != Activity.RESULT_OK) {
+            Log.w(TAG, "Send failed for " + id + ", result code " + resultCode);
+            onForget.accept(t);
+            finishSent(t, SmsOutcome.Status.FAILED, resultCode);
+            finishDelivery(t, SmsOutcome.Status.UNDELIVERED, resultCode);
+        } else if (allSent) {
+            finishSent(t, SmsOutcome.Status.SENT, Activity.RESULT_OK);
+        }
+    }
+
+    /** One part's delivery report; null while the network is still retrying. */
+    void onDelivered(String id, SmsOutcome.Status status) {
+        if (status == null) return;
+        DeliveryTracker.Tracked t;
+        boolean done;
+        synchronized (tracked) {
+            t = tracked.get(id);
+            if (t == null) return;
+            done = status == SmsOutcome.Status.UNDELIVERED || --t.deliveryPending == 0;
+            if (done) tracked.remove(id);
+        }
+        if (!done) return;
+        onForget.accept(t);
+        // A delivery report implies the part was sent even if that broadcast was lost
+        finishSent(t, SmsOutcome.Status.SENT, Activity.RESULT_OK);
+        finishDelivery(t, status, Activity.RESULT_OK);
+    }
+
+    /** Times out messages without a sent result or delivery reports in time, as of {@code nowNanos}. */
+    void sweep(long nowNanos) {
+        List<DeliveryTracker.Tracked> expired = new ArrayList<>();
+        synchronized (tracked) {
+            Iterator<DeliveryTracker.Tracked> it = tracked.values().iterator();
+            while (it.hasNext()) {
+                DeliveryTracker.Tracked t = it.next();
+                long age = TimeUnit.NANOSECONDS.toMillis(nowNanos - t.submittedNanos);
+                if (age > deliveryTimeoutMs || (age > sentTimeoutMs && !t.sent.isDone())) {
+                    it.remove();
+                    expired.add(t);
+                }
+            }
+        }
+        for (DeliveryTracker.Tracked t : expired) {
+            onForget.accept(t);
+            finishTimedOut(t);
+        }
+    }
+
+    private void finishTimedOut(DeliveryTracker.Tracked t) {
+        finishSent(t, SmsOutcome.Status.TIMED_OUT, Activity.RESULT_CANCELED);
+        finishDelivery(t, SmsOutcome.Status.TIMED_OUT, Activity.RESULT_CANCELED);
+    }
+
+    private static void finishSent(DeliveryTracker.Tracked t, SmsOutcome.Status status, int resultCode) {
+        if (t.sent.isDone()) return;
+        long elapsed = System.nanoTime() - t.submittedNanos;
+        if (t.sent.complete(new SmsOutcome(t.id, status, resultCode, t.parts,
+                TimeUnit.NANOSECONDS.toMillis(elapsed), t.delivery))) {
+            GatewayMetrics.get().recordSmsSentOutcome(status, elapsed);
+        }
+    }
+
+    private static void finishDelivery(DeliveryTracker.Tracked t, SmsOutcome.Status status, int resultCode) {
+        if (t.delivery.isDone()) return;
+        long elapsed = System.nanoTime() - t.submittedNanos;
+        if (t.delivery.complete(new SmsOutcome(t.id, status, resultCode, t.parts,
+                TimeUnit.NANOSECONDS.toMillis(elapsed), t.delivery))) {
+            GatewayMetrics.get().recordSmsDeliveryOutcome(status, elapsed);
+        }
+    }
+}
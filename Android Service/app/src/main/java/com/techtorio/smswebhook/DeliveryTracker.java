@@ -0,0 +1,166 @@
+package com.techtorio.smswebhook;
+
+import android.app.Activity;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.telephony.SmsMessage;
+
+import androidx.core.content.ContextCompat;
+
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Correlates SMS sent and delivery broadcasts with the message that caused
+ * them. Every part gets its own one-shot PendingIntents carrying the message's
+ * correlation id; a message counts as sent once every part reported
+ * {@link Activity#RESULT_OK} and fails on the first part that did not.
+ *
+ * Memory is bounded: messages without a sent result within
+ * {@link #SENT_TIMEOUT_MS}, or without delivery reports within
+ * {@link #DELIVERY_TIMEOUT_MS}, are completed as timed out and forgotten, and at
+ * most {@link #MAX_TRACKED} messages are held, oldest dropped first. A
+ * forgotten message's PendingIntents are cancelled. The counting and timing
+ * live in a {@link DeliveryLedger}; this class owns the intents and broadcasts.
+ *
+ * Broadcasts are handed to a tracker thread, so completing outcomes and the
+ * dispatcher work chained on them stay off the main thread.
+ */
+public class DeliveryTracker {
+    private static final String ACTION_SENT = "com.techtorio.smswebhook.SMS_SENT";
+    private static final String ACTION_DELIVERED = "com.techtorio.smswebhook.SMS_DELIVERED";
+    private static final String EXTRA_ID = "correlation_id";
+    private static final long SENT_TIMEOUT_MS = 2 * 60_000L;
+    private static final long DELIVERY_TIMEOUT_MS = 60 * 60_000L;
+    private static final long SWEEP_INTERVAL_MS = 15_000L;
+    private static final int MAX_TRACKED = 10_000;
+
+    private static DeliveryTracker instance;
+
+    private final Context context;
+    private final AtomicInteger requestCodes = new AtomicInteger();
+    private final DeliveryLedger ledger = new DeliveryLedger(MAX_TRACKED, SENT_TIMEOUT_MS, DELIVERY_TIMEOUT_MS,
+            DeliveryTracker::cancelIntents);
+    // Handles broadcasts and the sweep, so dispatcher callbacks never run on the main looper
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "delivery-tracker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private DeliveryTracker(Context context) {
+        this.context = context;
+        IntentFilter filter = new IntentFilter(ACTION_SENT);
+        filter.addAction(ACTION_DELIVERED);
+        // PendingIntents are sent with our identity, so the receiver need not be exported
+        ContextCompat.registerReceiver(context, new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context c, Intent intent) {
+                String id = intent.getStringExtra(EXTRA_ID);
+                if (id == null) return;
+                // The result code is only readable here; completion work runs off the main thread
+                int resultCode = getResultCode();
+                if (ACTION_SENT.equals(intent.getAction())) {
+                    worker.execute(() -> ledger.onSent(id, resultCode));
+                } else {
+                    worker.execute(() -> ledger.onDelivered(id, deliveryStatus(intent, resultCode)));
+                }
+            }
+        }, filter, ContextCompat.RECEIVER_NOT_EXPORTED);
+
+        worker.scheduleWithFixedDelay(() -> ledger.sweep(System.nanoTime()),
+                SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized DeliveryTracker getInstance(Context ctx) {
+        if (instance == null) instance = new DeliveryTracker(ctx.getApplicationContext());
+        return instance;
+    }
+
+    /** Starts tracking a message of {@code parts} parts; pass its intents to SmsManager. */
+    Tracked register(int parts) {
+        Tracked t = new Tracked(UUID.randomUUID().toString(), parts, System.nanoTime());
+        for (int i = 0; i < parts; i++) {
+            t.sentIntents.add(intent(ACTION_SENT, t.id, PendingIntent.FLAG_IMMUTABLE));
+            // The radio fills in the status PDU, which needs a mutable intent
+            t.deliveryIntents.add(intent(ACTION_DELIVERED, t.id, PendingIntent.FLAG_MUTABLE));
+        }
+        ledger.add(t);
+        return t;
+    }
+
+    /** Completes {@code t} as failed when SmsManager refused the submission outright. */
+    void fail(Tracked t, int resultCode) {
+        ledger.fail(t, resultCode);
+    }
+
+    public int size() {
+        return ledger.size();
+    }
+
+    private PendingIntent intent(String action, String id, int mutability) {
+        Intent intent = new Intent(action).setPackage(context.getPackageName()).putExtra(EXTRA_ID, id);
+        return PendingIntent.getBroadcast(context, requestCodes.incrementAndGet(), intent,
+                mutability | PendingIntent.FLAG_ONE_SHOT);
+    }
+
+    /**
+     * Cancels the message's PendingIntents once it is forgotten, so the system
+     * does not keep them registered and a late report has nothing to fire.
+     * Intents that already fired were one-shot, and cancelling them is a no-op.
+     */
+    private static void cancelIntents(Tracked t) {
+        for (PendingIntent pi : t.sentIntents) pi.cancel();
+        for (PendingIntent pi : t.deliveryIntents) pi.cancel();
+    }
+
+    /**
+     * DELIVERED, UNDELIVERED, or null while the network is still retrying. GSM
+     * TP-Status values below 0x20 mean delivered, 0x20-0x3F temporary failure.
+     */
+    private static SmsOutcome.Status deliveryStatus(Intent intent, int resultCode) {
+        byte[] pdu = intent.getByteArrayExtra("pdu");
+        if (pdu == null) {
+            return resultCode == Activity.RESULT_OK ? SmsOutcome.Status.DELIVERED : SmsOutcome.Status.UNDELIVERED;
+        }
+        String format = intent.getStringExtra("format");
+        SmsMessage report = SmsMessage.createFromPdu(pdu, format);
+        if (report == null) return SmsOutcome.Status.DELIVERED;
+        int status = report.getStatus();
+        if ("3gpp2".equals(format)) {
+            return status == 0 ? SmsOutcome.Status.DELIVERED : SmsOutcome.Status.UNDELIVERED;
+        }
+        if (status < 0x20) return SmsOutcome.Status.DELIVERED;
+        if (status < 0x40) return null;
+        return SmsOutcome.Status.UNDELIVERED;
+    }
+
+    /** One tracked message; counters are guarded by the ledger's lock. */
+    static final class Tracked {
+        final String id;
+        final int parts;
+        final long submittedNanos;
+        final ArrayList<PendingIntent> sentIntents = new ArrayList<>();
+        final ArrayList<PendingIntent> deliveryIntents = new ArrayList<>();
+        final CompletableFuture<SmsOutcome> sent = new CompletableFuture<>();
+        final CompletableFuture<SmsOutcome> delivery = new CompletableFuture<>();
+        int sentPending;
+        int deliveryPending;
+
+        Tracked(String id, int parts, long submittedNanos) {
+            this.id = id;
+            this.parts = parts;
+            this.submittedNanos = submittedNanos;
+            this.sentPending = parts;
+            this.deliveryPending = parts;
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package com.techtorio.smswebhook;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide gateway counters, rendered in the Prometheus text format on
+ * {@code GET /metrics}. Every hot-path update is a {@link LongAdder} increment;
+ * the cost of summing and formatting is paid only by the scrape.
+ */
+public class GatewayMetrics {
+    private static final GatewayMetrics INSTANCE = new GatewayMetrics();
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    // Slot index -1 is the default SmsManager, i.e. no preferred SIM
+    private static final int MAX_SLOTS = 4;
+
+    private final ConcurrentHashMap<Integer, LongAdder> httpResponses = new ConcurrentHashMap<>();
+    private final Histogram httpLatency = new Histogram(
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30);
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder idempotentReplays = new LongAdder();
+    private final LongAdder shedWorkerPool = new LongAdder();
+    private final LongAdder shedOutboundQueue = new LongAdder();
+    private final LongAdder shedPerAddress = new LongAdder();
+    private final LongAdder[] evictions = adders(HttpRequest.Phase.values().length);
+    private final LongAdder idleClosed = new LongAdder();
+    private final LongAdder[] smsSent = adders(MAX_SLOTS + 1);
+    private final LongAdder[] smsFailed = adders(MAX_SLOTS + 1);
+    private final LongAdder[] simEjections = adders(MAX_SLOTS + 1);
+    private final LongAdder simRouted = new LongAdder();
+    private final LongAdder simUnrouted = new LongAdder();
+    private final ConcurrentHashMap<Integer, Double> pacingRates = new ConcurrentHashMap<>();
+    private final Histogram[] laneWait = new Histogram[OutboundMessage.Lane.values().length];
+    private final LongAdder[] smsOutcomes = adders(SmsOutcome.Status.values().length);
+    private final LongAdder[] smsDeliveryOutcomes = adders(SmsOutcome.Status.values().length);
+    private final Histogram smsTimeToSent = new Histogram(0.5, 1, 2, 5, 10, 30, 60, 120);
+    private final Histogram smsTimeToDelivered = new Histogram(1, 2, 5, 10, 30, 60, 300, 900, 1800, 3600);
+    private final LongAdder[] smsMessagesByEncoding = adders(2);
+    private final LongAdder[] smsSegmentsByEncoding = adders(2);
+    private final LongAdder smsTransliterated = new LongAdder();
+    private final LongAdder sendRetries = new LongAdder();
+    private final LongAdder deadLettersRetryable = new LongAdder();
+    private final LongAdder deadLettersPermanent = new LongAdder();
+    private final LongAdder expiredMessages = new LongAdder();
+    private final LongAdder expiredParts = new LongAdder();
+    private final LongAdder supersededMessages = new LongAdder();
+    private final LongAdder supersededParts = new LongAdder();
+    private final LongAdder segmentLimitWarned = new LongAdder();
+    private final LongAdder segmentLimitRejected = new LongAdder();
+    private final Histogram webhookLatency = new Histogram(0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30);
+    private final LongAdder webhookErrors = new LongAdder();
+    private final Histogram webhookQueueWait = new Histogram(0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30, 60);
+    private final LongAdder webhookRejected = new LongAdder();
+    private final LongAdder signalRReceived = new LongAdder();
+    private final LongAdder signalRMalformed = new LongAdder();
+    private volatile boolean signalRConnected;
+    private final CopyOnWriteArrayList<Gauge> gauges = new CopyOnWriteArrayList<>();
+
+    public interface LongGauge { long get(); }
+
+    private GatewayMetrics() {
+        for (int i = 0; i < laneWait.length; i++) laneWait[i] = new Histogram(0.1, 0.5, 1, 2, 5, 10, 30, 60, 120, 300, 900);
+    }
+
+    public static GatewayMetrics get() {
+        return INSTANCE;
+    }
+
+    /** One request answered by the LAN server, with its handling time. */
+    public void recordHttpRequest(int status, long elapsedNanos) {
+        countHttpResponse(status);
+        httpLatency.observeNanos(elapsedNanos);
+    }
+
+    /** A response sent without a handled request, e.g. a malformed head. */
+    public void countHttpResponse(int status) {
+        LongAdder adder = httpResponses.get(status);
+        if (adder == null) adder = httpResponses.computeIfAbsent(status, k -> new LongAdder());
+        adder.increment();
+    }
+
+    public void recordRateLimited() {
+        rateLimited.increment();
+    }
+
+    /** A submission answered from the idempotency cache instead of being sent again. */
+    public void recordIdempotentReplay() {
+        idempotentReplays.increment();
+    }
+
+    /** A connection refused with 503 because every worker and queue slot was taken. */
+    public void recordWorkerPoolRejected() {
+        shedWorkerPool.increment();
+    }
+
+    /** An OTP refused with 503 because the outbound queue was full. */
+    public void recordOutboundQueueRejected() {
+        shedOutboundQueue.increment();
+    }
+
+    /** A connection refused because its address already holds its share of connections. */
+    public void recordPerAddressRejected() {
+        shedPerAddress.increment();
+    }
+
+    /**
+     * A connection closed for exceeding the deadline of {@code phase}. A
+     * keep-alive connection left idle is not an eviction; see {@link #recordIdleClose}.
+     */
+    public void recordEviction(HttpRequest.Phase phase) {
+        evictions[phase.ordinal()].increment();
+    }
+
+    /** A keep-alive connection closed after sitting idle between requests. */
+    public void recordIdleClose() {
+        idleClosed.increment();
+    }
+
+    public void recordSmsSend(Integer simSlot, boolean ok) {
+        int i = simSlot == null || simSlot < 0 || simSlot >= MAX_SLOTS ? MAX_SLOTS : simSlot;
+        (ok ? smsSent : smsFailed)[i].increment();
+    }
+
+    /** A message sent on its operator's SIM by prefix route, or left to the default slot. */
+    public void recordSimRoute(boolean matched) {
+        (matched ? simRouted : simUnrouted).increment();
+    }
+
+    /** A SIM taken out of rotation after repeated send failures. */
+    public void recordSimEjected(int simSlot) {
+        simEjections[simSlot < 0 || simSlot >= MAX_SLOTS ? MAX_SLOTS : simSlot].increment();
+    }
+
+    /** A failed send scheduled for another attempt. */
+    public void recordRetry() {
+        sendRetries.increment();
+    }
+
+    /** A message that failed for good, after running out of attempts or with a permanent error. */
+    public void recordDeadLetter(boolean retryable) {
+        (retryable ? deadLettersRetryable : deadLettersPermanent).increment();
+    }
+
+    /** A message of {@code parts} parts dropped because its expiry passed before it was sent. */
+    public void recordExpired(int parts) {
+        expiredMessages.increment();
+        expiredParts.add(parts);
+    }
+
+    /** A queued OTP of {@code parts} parts dropped because a newer one to the same number replaced it. */
+    public void recordSuperseded(int parts) {
+        supersededMessages.increment();
+        supersededParts.add(parts);
+    }
+
+    /** Time one message spent queued in {@code lane} before the sender took it. */
+    public void recordLaneWait(OutboundMessage.Lane lane, long elapsedNanos) {
+        laneWait[lane.ordinal()].observeNanos(elapsedNanos);
+    }
+
+    /** Current adaptive send rate of {@code simSlot} (-1 for the default SIM), in parts per minute. */
+    public void setPacingRate(int simSlot, double perMinute) {
+        pacingRates.put(simSlot, perMinute);
+    }
+
+    /** Radio sent result of one message (SENT, FAILED or TIMED_OUT), timed from submission. */
+    public void recordSmsSentOutcome(SmsOutcome.Status status, long elapsedNanos) {
+        smsOutcomes[status.ordinal()].increment();
+        if (status == SmsOutcome.Status.SENT) smsTimeToSent.observeNanos(elapsedNanos);
+    }
+
+    /** Delivery report result of one message (DELIVERED, UNDELIVERED or TIMED_OUT). */
+    public void recordSmsDeliveryOutcome(SmsOutcome.Status status, long elapsedNanos) {
+        smsDeliveryOutcomes[status.ordinal()].increment();
+        if (status == SmsOutcome.Status.DELIVERED) smsTimeToDelivered.observeNanos(elapsedNanos);
+    }
+
+    /** Encoding and segment count of one submitted message. */
+    public void recordSmsEncoding(boolean gsm7, int segments) {
+        int i = gsm7 ? 0 : 1;
+        smsMessagesByEncoding[i].increment();
+        smsSegmentsByEncoding[i].add(segments);
+    }
+
+    /** A message that would have been UCS-2 but was transliterated to GSM-7. */
+    public void recordTransliterated() {
+        smsTransliterated.increment();
+    }
+
+    /** A message over the configured segment limit, either sent anyway or refused. */
+    public void recordSegmentLimitExceeded(boolean rejected) {
+        (rejected ? segmentLimitRejected : segmentLimitWarned).increment();
+    }
+
+    public void recordWebhookPost(long elapsedNanos, boolean ok) {
+        webhookLatency.observeNanos(elapsedNanos);
+        if (!ok) webhookErrors.increment();
+    }
+
+    /** Time one webhook POST waited for a worker thread. */
+    public void recordWebhookQueueWait(long elapsedNanos) {
+        webhookQueueWait.observeNanos(elapsedNanos);
+    }
+
+    public void recordWebhookRejected() {
+        webhookRejected.increment();
+    }
+
+    public void recordSignalRReceive(boolean wellFormed) {
+        signalRReceived.increment();
+        if (!wellFormed) signalRMalformed.increment();
+    }
+
+    public void setSignalRConnected(boolean connected) {
+        signalRConnected = connected;
+    }
+
+    /**
+     * Registers a value read at scrape time, such as a queue depth. Registering
+     * the same name again replaces the earlier gauge.
+     */
+    public void registerGauge(String name, String help, LongGauge gauge) {
+        gauges.removeIf(g -> g.name.equals(name));
+        gauges.add(new Gauge(name, help, null, gauge));
+    }
+
+    /** As {@link #registerGauge(String, String, LongGauge)}, for one {@code label="value"} series of {@code name}. */
+    public void registerGauge(String name, String help, String label, String value, LongGauge gauge) {
+        String labels = label + "=\"" + value + "\"";
+        gauges.removeIf(g -> g.name.equals(name) && labels.equals(g.labels));
+        gauges.add(new Gauge(name, help, labels, gauge));
+    }
+
+    public String render() {
+        StringBuilder sb = new StringBuilder(4096);
+
+        header(sb, "otp_http_responses_total", "LAN HTTP responses by status code.", "counter");
+        Map<Integer, Long> byStatus = new TreeMap<>();
+        for (Map.Entry<Integer, LongAdder> e : httpResponses.entrySet()) byStatus.put(e.getKey(), e.getValue().sum());
+        for (Map.Entry<Integer, Long> e : byStatus.entrySet()) {
+            sb.append("otp_http_responses_total{code=\"").append(e.getKey()).append("\"} ").append(e.getValue()).append('\n');
+        }
+        httpLatency.render(sb, "otp_http_request_duration_seconds", "Time from parsed request to response ready.");
+
+        header(sb, "otp_rate_limited_total", "OTPs rejected by the per-number or per-device limit.", "counter");
+        sample(sb, "otp_rate_limited_total", rateLimited.sum());
+        header(sb, "otp_idempotent_replays_total", "Submissions answered from the idempotency cache.", "counter");
+        sample(sb, "otp_idempotent_replays_total", idempotentReplays.sum());
+        header(sb, "otp_shed_total", "Requests refused with 503 by admission control.", "counter");
+        sb.append("otp_shed_total{reason=\"worker_pool\"} ").append(shedWorkerPool.sum()).append('\n');
+        sb.append("otp_shed_total{reason=\"outbound_queue\"} ").append(shedOutboundQueue.sum()).append('\n');
+        sb.append("otp_shed_total{reason=\"per_address\"} ").append(shedPerAddress.sum()).append('\n');
+        header(sb, "lan_connections_evicted_total", "LAN connections closed by a phase deadline.", "counter");
+        for (HttpRequest.Phase phase : HttpRequest.Phase.values()) {
+            if (phase == HttpRequest.Phase.IDLE) continue;
+            sb.append("lan_connections_evicted_total{phase=\"").append(phase.name().toLowerCase(Locale.ROOT))
+                    .append("\"} ").append(evictions[phase.ordinal()].sum()).append('\n');
+        }
+        header(sb, "lan_connections_idle_closed_total", "Keep-alive LAN connections closed by the idle timeout.", "counter");
+        sample(sb, "lan_connections_idle_closed_total", idleClosed.sum());
+
+        header(sb, "sms_send_total", "SmsManager submissions by SIM slot and result.", "counter");
+        for (int i = 0; i <= MAX_SLOTS; i++) {
+            String slot = i == MAX_SLOTS ? "default" : Integer.toString(i);
+            long sent = smsSent[i].sum();
+            long failed = smsFailed[i].sum();
+            if (sent == 0 && failed == 0 && i != MAX_SLOTS) continue;
+            sb.append("sms_send_total{slot=\"").append(slot).append("\",result=\"success\"} ").append(sent).append('\n');
+            sb.append("sms_send_total{slot=\"").append(slot).append("\",result=\"failure\"} ").append(failed).append('\n');
+        }
+
+        header(sb, "sim_route_total", "Messages by whether a prefix route chose their SIM.", "counter");
+        sb.append("sim_route_total{result=\"matched\"} ").append(simRouted.sum()).append('\n');
+        sb.append("sim_route_total{result=\"default\"} ").append(simUnrouted.sum()).append('\n');
+
+        header(sb, "sim_ejections_total", "Times a SIM was rested after consecutive send failures.", "counter");
+        for (int i = 0; i < MAX_SLOTS; i++) {
+            sb.append("sim_ejections_total{slot=\"").append(i).append("\"} ").append(simEjections[i].sum()).append('\n');
+        }
+
+        header(sb, "sms_pacing_rate_per_minute", "Adaptive send rate per SIM slot, in SMS parts per minute.", "gauge");
+        for (Map.Entry<Integer, Double> e : new TreeMap<>(pacingRates).entrySet()) {
+            String slot = e.getKey() < 0 ? "default" : Integer.toString(e.getKey());
+            sb.append("sms_pacing_rate_per_minute{slot=\"").append(slot).append("\"} ").append(e.getValue()).append('\n');
+        }
+
+        header(sb, "sms_retries_total", "Failed sends scheduled for another attempt.", "counter");
+        sample(sb, "sms_retries_total", sendRetries.sum());
+        header(sb, "sms_dead_letters_total", "Messages that failed for good.", "counter");
+        sb.append("sms_dead_letters_total{reason=\"attempts_exhausted\"} ").append(deadLettersRetryable.sum()).append('\n');
+        sb.append("sms_dead_letters_total{reason=\"permanent\"} ").append(deadLettersPermanent.sum()).append('\n');
+
+        header(sb, "otp_expired_total", "Messages dropped unsent because their expiry passed.", "counter");
+        sample(sb, "otp_expired_total", expiredMessages.sum());
+        header(sb, "otp_expired_parts_total", "SMS parts not sent because their message expired.", "counter");
+        sample(sb, "otp_expired_parts_total", expiredParts.sum());
+        header(sb, "otp_superseded_total", "Queued OTPs replaced by a newer OTP to the same number before sending.", "counter");
+        sample(sb, "otp_superseded_total", supersededMessages.sum());
+        header(sb, "otp_superseded_parts_total", "SMS parts not sent because their OTP was superseded.", "counter");
+        sample(sb, "otp_superseded_parts_total", supersededParts.sum());
+
+        header(sb, "outbound_lane_wait_seconds", "Time messages waited in their priority lane.", "histogram");
+        for (OutboundMessage.Lane lane : OutboundMessage.Lane.values()) {
+            laneWait[lane.ordinal()].renderSamples(sb, "outbound_lane_wait_seconds", "lane=\"" + lane.getName() + "\"");
+        }
+
+        header(sb, "sms_sent_outcome_total", "Radio sent results per message.", "counter");
+        outcomes(sb, "sms_sent_outcome_total", smsOutcomes, SmsOutcome.Status.SENT, SmsOutcome.Status.FAILED, SmsOutcome.Status.TIMED_OUT);
+        header(sb, "sms_delivery_outcome_total", "Delivery report results per message.", "counter");
+        outcomes(sb, "sms_delivery_outcome_total", smsDeliveryOutcomes,
+                SmsOutcome.Status.DELIVERED, SmsOutcome.Status.UNDELIVERED, SmsOutcome.Status.TIMED_OUT);
+        smsTimeToSent.render(sb, "sms_time_to_sent_seconds", "Submission to the last part's sent result.");
+        smsTimeToDelivered.render(sb, "sms_time_to_delivered_seconds", "Submission to the last part's delivery report.");
+
+        header(sb, "sms_messages_total", "Submitted messages by encoding.", "counter");
+        sb.append("sms_messages_total{encoding=\"gsm7\"} ").append(smsMessagesByEncoding[0].sum()).append('\n');
+        sb.append("sms_messages_total{encoding=\"ucs2\"} ").append(smsMessagesByEncoding[1].sum()).append('\n');
+        header(sb, "sms_segments_total", "Segments of submitted messages by encoding.", "counter");
+        sb.append("sms_segments_total{encoding=\"gsm7\"} ").append(smsSegmentsByEncoding[0].sum()).append('\n');
+        sb.append("sms_segments_total{encoding=\"ucs2\"} ").append(smsSegmentsByEncoding[1].sum()).append('\n');
+        header(sb, "sms_transliterated_total", "Messages kept in GSM-7 by transliteration.", "counter");
+        sample(sb, "sms_transliterated_total", smsTransliterated.sum());
+        header(sb, "sms_segment_limit_exceeded_total", "Messages over the configured segment limit.", "counter");
+        sb.append("sms_segment_limit_exceeded_total{action=\"warn\"} ").append(segmentLimitWarned.sum()).append('\n');
+        sb.append("sms_segment_limit_exceeded_total{action=\"reject\"} ").append(segmentLimitRejected.sum()).append('\n');
+
+        webhookLatency.render(sb, "webhook_post_duration_seconds", "Incoming-SMS webhook POST duration.");
+        header(sb, "webhook_post_errors_total", "Webhook POSTs that failed or returned a non-2xx code.", "counter");
+        sample(sb, "webhook_post_errors_total", webhookErrors.sum());
+        webhookQueueWait.render(sb, "webhook_queue_wait_seconds", "Time webhook POSTs waited for a worker thread.");
+        header(sb, "webhook_rejected_total", "Webhook POSTs dropped because the queue was full.", "counter");
+        sample(sb, "webhook_rejected_total", webhookRejected.sum());
+
+        header(sb, "signalr_connected", "1 while the SignalR hub connection is up.", "gauge");
+        sample(sb, "signalr_connected", signalRConnected ? 1 : 0);
+        header(sb, "signalr_receive_otp_total", "ReceiveOtp messages from the hub.", "counter");
+        sample(sb, "signalr_receive_otp_total", signalRReceived.sum());
+        header(sb, "signalr_receive_otp_malformed_total", "ReceiveOtp messages missing phone or otp.", "counter");
+        sample(sb, "signalr_receive_otp_malformed_total", signalRMalformed.sum());
+
+        // Series of one labeled gauge share a single header
+        String previous = null;
+        for (Gauge g : gauges) {
+            if (!g.name.equals(previous)) header(sb, g.name, g.help, "gauge");
+            previous = g.name;
+            if (g.labels == null) {
+                sample(sb, g.name, g.gauge.get());
+            } else {
+                sb.append(g.name).append('{').append(g.labels).append("} ").append(g.gauge.get()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, long value) {
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void outcomes(StringBuilder sb, String name, LongAdder[] counts, SmsOutcome.Status... statuses) {
+        for (SmsOutcome.Status s : statuses) {
+            sb.append(name).append("{result=\"").append(s.name().toLowerCase(Locale.ROOT)).append("\"} ")
+                    .append(counts[s.ordinal()].sum()).append('\n');
+        }
+    }
+
+    private static LongAdder[] adders(int n) {
+        LongAdder[] a = new LongAdder[n];
+        for (int i = 0; i < n; i++) a[i] = new LongAdder();
+        return a;
+    }
+
+    /** Fixed-bucket histogram; bucket counts are made cumulative only when rendered. */
+    static final class Histogram {
+        private final double[] bounds;
+        private final long[] boundNanos;
+        private final LongAdder[] buckets;
+        private final DoubleAdder sumSeconds = new DoubleAdder();
+
+        Histogram(double... boundsSeconds) {
+            bounds = boundsSeconds;
+            boundNanos = new long[bounds.length];
+            for (int i = 0; i < bounds.length; i++) boundNanos[i] = (long) (bounds[i] * 1e9);
+            buckets = adders(bounds.length + 1);
+        }
+
+        void observeNanos(long nanos) {
+            int i = 0;
+            while (i < boundNanos.length && nanos > boundNanos[i]) i++;
+            buckets[i].increment();
+            sumSeconds.add(nanos / 1e9);
+        }
+
+        void render(StringBuilder sb, String name, String help) {
+            header(sb, name, help, "histogram");
+            renderSamples(sb, name, null);
+        }
+
+        /** Samples only, each tagged with {@code labels} when given, under a header written by the caller. */
+        void renderSamples(StringBuilder sb, String name, String labels) {
+            String prefix = labels == null ? "{" : "{" + labels + ",";
+            String suffix = labels == null ? " " : "{" + labels + "} ";
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += buckets[i].sum();
+                sb.append(name).append("_bucket").append(prefix).append("le=\"").append(bounds[i]).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += buckets[bounds.length].sum();
+            sb.append(name).append("_bucket").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+            sb.append(name).append("_sum").append(suffix).append(sumSeconds.sum()).append('\n');
+            sb.append(name).append("_count").append(suffix).append(cumulative).append('\n');
+        }
+    }
+
+    private static final class Gauge {
+        final String name;
+        final String help;
+        final String labels;
+        final LongGauge gauge;
+
+        Gauge(String name, String help, String labels, LongGauge gauge) {
+            this.name = name;
+            this.help = help;
+            this.labels = labels;
+            this.gauge = gauge;
+        }
+    }
+}
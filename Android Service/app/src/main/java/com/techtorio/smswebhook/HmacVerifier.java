@@ -0,0 +1,166 @@
+package com.techtorio.smswebhook;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HMAC-SHA256 verification for the LAN endpoint.
+ *
+ * Each thread keeps one initialised {@link Mac} that is rebuilt only when the
+ * configured secret changes. Signatures are decoded from hex and compared in
+ * constant time. Optional replay protection checks a request timestamp against
+ * an allowed clock skew and remembers nonces in a bounded, time-expiring cache
+ * that refuses new nonces, rather than evicting live ones, when full.
+ */
+public class HmacVerifier {
+    public enum Freshness { OK, STALE, REPLAYED, FULL }
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int MAC_LENGTH = 32;
+
+    private final long maxSkewMs;
+    private final int maxNonces;
+    private final Set<String> nonces = new HashSet<>();
+    // Ordered by expiry, which follows the client's timestamp rather than arrival
+    private final PriorityQueue<Nonce> expiries = new PriorityQueue<>();
+    private volatile KeyState keyState;
+    private final ThreadLocal<ThreadMac> threadMac = new ThreadLocal<>();
+
+    public HmacVerifier(long maxSkewMs, int maxNonces) {
+        this.maxSkewMs = maxSkewMs;
+        this.maxNonces = maxNonces;
+    }
+
+    /** True if {@code signatureHex} is the HMAC of {@code data} under {@code secret}. */
+    public boolean verify(String secret, byte[] data, String signatureHex) {
+        if (secret == null || secret.isEmpty()) return false;
+        byte[] provided = decodeHex(signatureHex);
+        if (provided == null || provided.length != MAC_LENGTH) return false;
+        Mac mac = macFor(secret);
+        if (mac == null) return false;
+        byte[] expected = mac.doFinal(data);
+        return constantTimeEquals(expected, provided);
+    }
+
+    /**
+     * Checks a signed request's timestamp (epoch seconds or milliseconds)
+     * against the allowed clock skew.
+     */
+    public Freshness checkTimestamp(String timestamp, long now) {
+        long ts = parseTimestamp(timestamp);
+        return ts < 0 || Math.abs(now - ts) > maxSkewMs ? Freshness.STALE : Freshness.OK;
+    }
+
+    /**
+     * Records the nonce of a request whose signature and timestamp already
+     * passed, so unsigned requests cannot fill the cache. A nonce seen before is
+     * REPLAYED; when the cache is full of unexpired nonces the request is
+     * refused as FULL rather than forgetting one that could then be replayed.
+     */
+    public Freshness recordNonce(String timestamp, String nonce, long now) {
+        if (nonce == null || nonce.isEmpty()) return Freshness.REPLAYED;
+        long ts = parseTimestamp(timestamp);
+        if (ts < 0) return Freshness.STALE;
+        synchronized (nonces) {
+            while (!expiries.isEmpty() && expiries.peek().expiresAt < now) nonces.remove(expiries.poll().value);
+            if (nonces.contains(nonce)) return Freshness.REPLAYED;
+            if (nonces.size() >= maxNonces) return Freshness.FULL;
+            // A nonce only needs remembering while its timestamp is still acceptable
+            nonces.add(nonce);
+            expiries.add(new Nonce(nonce, ts + maxSkewMs));
+        }
+        return Freshness.OK;
+    }
+
+    /** Epoch milliseconds, or -1 if unparseable. */
+    private static long parseTimestamp(String timestamp) {
+        long ts;
+        try {
+            ts = Long.parseLong(timestamp.trim());
+        } catch (NumberFormatException | NullPointerException e) {
+            return -1;
+        }
+        if (ts < 0) return -1;
+        return ts < 100_000_000_000L ? ts * 1000L : ts;
+    }
+
+    private Mac macFor(String secret) {
+        KeyState ks = keyState;
+        if (ks == null || !ks.secret.equals(secret)) {
+            ks = new KeyState(secret);
+            keyState = ks;
+        }
+        ThreadMac tm = threadMac.get();
+        if (tm == null || tm.keyState != ks) {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(ks.key);
+                tm = new ThreadMac(ks, mac);
+                threadMac.set(tm);
+            } catch (GeneralSecurityException e) {
+                return null;
+            }
+        }
+        return tm.mac;
+    }
+
+    static byte[] decodeHex(String hex) {
+        if (hex == null || (hex.length() & 1) != 0) return null;
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) return null;
+            out[i] = (byte) ((hi << 4) | lo);
+        }
+        return out;
+    }
+
+    private static boolean constantTimeEquals(byte[] a, byte[] b) {
+        if (a.length != b.length) return false;
+        int diff = 0;
+        for (int i = 0; i < a.length; i++) diff |= a[i] ^ b[i];
+        return diff == 0;
+    }
+
+    private static final class Nonce implements Comparable<Nonce> {
+        final String value;
+        final long expiresAt;
+
+        Nonce(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        @Override
+        public int compareTo(Nonce other) {
+            return Long.compare(expiresAt, other.expiresAt);
+        }
+    }
+
+    private static final class KeyState {
+        final String secret;
+        final SecretKeySpec key;
+
+        KeyState(String secret) {
+            this.secret = secret;
+            this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        }
+    }
+
+    private static final class ThreadMac {
+        final KeyState keyState;
+        final Mac mac;
+
+        ThreadMac(KeyState keyState, Mac mac) {
+            this.keyState = keyState;
+            this.mac = mac;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.techtorio.smswebhook;
+
+/**
+ * Request handler plugged into the LAN endpoint. The same handler instance is
+ * shared by the blocking and the selector-based server, so implementations must
+ * be thread-safe.
+ */
+public interface HttpHandler {
+    HttpResponse handle(HttpRequest request);
+}
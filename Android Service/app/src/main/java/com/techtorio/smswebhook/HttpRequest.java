@@ -0,0 +1,373 @@
+package com.techtorio.smswebhook;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * HTTP request parsed in place from a connection's byte buffer. One instance is
+ * reused for every request on a connection: parsing only records offsets, and
+ * Strings are created solely for the values a handler actually reads. Only the
+ * headers listed in {@link #TRACKED_HEADERS} are retained, the rest are skipped.
+ *
+ * Accessors are valid until the next {@link #parse} on the same instance.
+ */
+public class HttpRequest {
+    static final int MAX_REQUEST_LINE_BYTES = 4 * 1024;
+    static final int MAX_HEADER_LINE_BYTES = 4 * 1024;
+    static final int MAX_HEAD_BYTES = 16 * 1024;
+    static final int MAX_HEADER_COUNT = 64;
+    static final int MAX_BODY_BYTES = 256 * 1024;
+
+    private static final String[] TRACKED_HEADERS = {
+            "content-length", "connection", "x-webhook-secret", "x-signature", "x-timestamp", "x-nonce",
+            "x-idempotency-key"
+    };
+    private static final byte[][] TRACKED_HEADER_BYTES = new byte[TRACKED_HEADERS.length][];
+    private static final int H_CONTENT_LENGTH = 0;
+    private static final int H_CONNECTION = 1;
+
+    static {
+        for (int i = 0; i < TRACKED_HEADERS.length; i++) {
+            TRACKED_HEADER_BYTES[i] = TRACKED_HEADERS[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private byte[] buf = EMPTY;
+    private int methodStart, methodEnd;
+    private int targetStart, pathEnd, targetEnd;
+    private int versionStart, versionEnd;
+    private final int[] headerStart = new int[TRACKED_HEADERS.length];
+    private final int[] headerEnd = new int[TRACKED_HEADERS.length];
+    private final String[] headerValues = new String[TRACKED_HEADERS.length];
+    private int contentLength;
+    private byte[] body = EMPTY;
+
+    // Scratch head buffer for the blocking server, kept for the connection's lifetime
+    private byte[] readBuf;
+
+    /** Where a connection is within a request; each phase has its own deadline. */
+    public enum Phase { IDLE, REQUEST_LINE, HEADERS, BODY }
+
+    /** Told by {@link #readFrom} when reading moves on to the next {@link Phase}. */
+    public interface PhaseListener {
+        void onPhase(Phase phase) throws IOException;
+    }
+
+    /** Rejection raised while reading a request; carries the response to send before closing. */
+    public static class RequestException extends Exception {
+        private final int status;
+        private final String code;
+
+        public RequestException(int status, String code) {
+            super(code);
+            this.status = status;
+            this.code = code;
+        }
+
+        public HttpResponse toResponse() {
+            return HttpResponse.error(status, code);
+        }
+    }
+
+    /**
+     * Parses the request line and tracked headers from {@code buf[offset..limit)}.
+     * Returns the length of the head including the terminating blank line, or 0
+     * when more bytes are needed. Limits on line and head size are enforced even
+     * on incomplete input so a client cannot stream an endless header.
+     */
+    public int parse(byte[] buf, int offset, int limit) throws RequestException {
+        reset();
+        this.buf = buf;
+
+        int eol = findLineEnd(buf, offset, limit, MAX_REQUEST_LINE_BYTES, 414, "uri_too_long");
+        if (eol < 0) return 0;
+        int lineEnd = trimCr(buf, offset, eol);
+        int sp1 = indexOf(buf, (byte) ' ', offset, lineEnd);
+        if (sp1 <= offset) throw new RequestException(400, "invalid_request");
+        methodStart = offset;
+        methodEnd = sp1;
+        targetStart = sp1 + 1;
+        int sp2 = indexOf(buf, (byte) ' ', targetStart, lineEnd);
+        targetEnd = sp2 < 0 ? lineEnd : sp2;
+        if (targetEnd == targetStart) throw new RequestException(400, "invalid_request");
+        versionStart = sp2 < 0 ? lineEnd : sp2 + 1;
+        versionEnd = lineEnd;
+        int q = indexOf(buf, (byte) '?', targetStart, targetEnd);
+        pathEnd = q < 0 ? targetEnd : q;
+
+        int pos = eol + 1;
+        int headers = 0;
+        while (true) {
+            if (pos - offset > MAX_HEAD_BYTES) throw new RequestException(431, "header_too_large");
+            eol = findLineEnd(buf, pos, limit, MAX_HEADER_LINE_BYTES, 431, "header_too_large");
+            if (eol < 0) {
+                if (limit - offset >= MAX_HEAD_BYTES) throw new RequestException(431, "header_too_large");
+                return 0;
+            }
+            lineEnd = trimCr(buf, pos, eol);
+            if (lineEnd == pos) {
+                pos = eol + 1;
+                break;
+            }
+            if (++headers > MAX_HEADER_COUNT) throw new RequestException(431, "too_many_headers");
+            int colon = indexOf(buf, (byte) ':', pos, lineEnd);
+            if (colon > pos) recordHeader(pos, colon, colon + 1, lineEnd);
+            pos = eol + 1;
+        }
+
+        contentLength = parseContentLength();
+        return pos - offset;
+    }
+
+    /**
+     * Blocking-server variant: reads one request (head and Content-Length body)
+     * from the stream. Returns false when the peer closed the connection between
+     * requests. The caller is expected to be in {@link Phase#IDLE} on entry;
+     * {@code phases} hears about every later phase.
+     */
+    public boolean readFrom(InputStream in, PhaseListener phases) throws IOException, RequestException {
+        if (readBuf == null) readBuf = new byte[1024];
+        int len = 0;
+        int lineStart = 0;
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                if (len == 0) return false;
+                throw new EOFException("connection closed mid-request");
+            }
+            if (len == 0) phases.onPhase(Phase.REQUEST_LINE);
+            if (len == readBuf.length) {
+                if (len >= MAX_HEAD_BYTES) throw new RequestException(431, "header_too_large");
+                readBuf = Arrays.copyOf(readBuf, Math.min(len * 2, MAX_HEAD_BYTES));
+            }
+            readBuf[len++] = (byte) b;
+            if (b == '\n') {
+                if (lineStart == 0) phases.onPhase(Phase.HEADERS);
+                int lineLength = len - lineStart;
+                if (lineStart > 0 && (lineLength == 1 || (lineLength == 2 && readBuf[lineStart] == '\r'))) break;
+                lineStart = len;
+            }
+        }
+
+        if (parse(readBuf, 0, len) == 0) throw new RequestException(400, "invalid_request");
+        if (contentLength > 0) {
+            phases.onPhase(Phase.BODY);
+            byte[] data = new byte[contentLength];
+            int read = 0;
+            while (read < contentLength) {
+                int n = in.read(data, read, contentLength - read);
+                if (n < 0) throw new EOFException("connection closed mid-body");
+                read += n;
+            }
+            body = data;
+        }
+        return true;
+    }
+
+    private void reset() {
+        Arrays.fill(headerStart, -1);
+        Arrays.fill(headerEnd, -1);
+        Arrays.fill(headerValues, null);
+        contentLength = 0;
+        body = EMPTY;
+    }
+
+    private void recordHeader(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        while (nameEnd > nameStart && buf[nameEnd - 1] == ' ') nameEnd--;
+        for (int i = 0; i < TRACKED_HEADER_BYTES.length; i++) {
+            if (equalsIgnoreCase(buf, nameStart, nameEnd, TRACKED_HEADER_BYTES[i])) {
+                while (valueStart < valueEnd && (buf[valueStart] == ' ' || buf[valueStart] == '\t')) valueStart++;
+                while (valueEnd > valueStart && (buf[valueEnd - 1] == ' ' || buf[valueEnd - 1] == '\t')) valueEnd--;
+                headerStart[i] = valueStart;
+                headerEnd[i] = valueEnd;
+                return;
+            }
+        }
+    }
+
+    private int parseContentLength() throws RequestException {
+        int s = headerStart[H_CONTENT_LENGTH];
+        if (s < 0) return 0;
+        int e = headerEnd[H_CONTENT_LENGTH];
+        if (s == e) throw new RequestException(400, "invalid_request");
+        long value = 0;
+        for (int i = s; i < e; i++) {
+            int d = buf[i] - '0';
+            if (d < 0 || d > 9) throw new RequestException(400, "invalid_request");
+            value = value * 10 + d;
+            if (value > MAX_BODY_BYTES) throw new RequestException(413, "payload_too_large");
+        }
+        return (int) value;
+    }
+
+    public String getMethod() {
+        if (isMethod("GET")) return "GET";
+        if (isMethod("POST")) return "POST";
+        return new String(buf, methodStart, methodEnd - methodStart, StandardCharsets.US_ASCII);
+    }
+
+    public boolean isMethod(String method) {
+        return equalsIgnoreCase(buf, methodStart, methodEnd, method);
+    }
+
+    public boolean pathEquals(String path) {
+        return pathEnd - targetStart == path.length() && regionMatches(targetStart, path);
+    }
+
+    public boolean pathStartsWith(String prefix) {
+        return pathEnd - targetStart >= prefix.length() && regionMatches(targetStart, prefix);
+    }
+
+    public String getPath() {
+        return new String(buf, targetStart, pathEnd - targetStart, StandardCharsets.UTF_8);
+    }
+
+    /** Returns a tracked header's value, or an empty string when absent or not tracked. */
+    public String getHeader(String name) {
+        for (int i = 0; i < TRACKED_HEADERS.length; i++) {
+            if (TRACKED_HEADERS[i].equalsIgnoreCase(name)) {
+                if (headerStart[i] < 0) return "";
+                if (headerValues[i] == null) {
+                    headerValues[i] = new String(buf, headerStart[i], headerEnd[i] - headerStart[i], StandardCharsets.UTF_8);
+                }
+                return headerValues[i];
+            }
+        }
+        return "";
+    }
+
+    public int getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * HTTP/1.1 connections persist unless the client sends {@code Connection: close};
+     * HTTP/1.0 ones only when it asks for keep-alive.
+     */
+    public boolean isKeepAlive() {
+        int s = headerStart[H_CONNECTION];
+        int e = headerEnd[H_CONNECTION];
+        boolean http11 = equalsIgnoreCase(buf, versionStart, versionEnd, "HTTP/1.1");
+        if (http11) return s < 0 || !containsIgnoreCase(buf, s, e, "close");
+        return s >= 0 && containsIgnoreCase(buf, s, e, "keep-alive");
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    void setBody(byte[] body) {
+        this.body = body == null ? EMPTY : body;
+    }
+
+    /**
+     * Case-insensitive lookup of a query parameter under either of two names,
+     * scanning the raw query bytes. Only the matching value is decoded.
+     */
+    public String getQueryParam(String primary, String alt) {
+        int pos = pathEnd + 1;
+        while (pos < targetEnd) {
+            int amp = indexOf(buf, (byte) '&', pos, targetEnd);
+            int pairEnd = amp < 0 ? targetEnd : amp;
+            int eq = indexOf(buf, (byte) '=', pos, pairEnd);
+            if (eq > pos && (equalsIgnoreCase(buf, pos, eq, primary)
+                    || (alt != null && equalsIgnoreCase(buf, pos, eq, alt)))) {
+                return decodeComponent(buf, eq + 1, pairEnd);
+            }
+            pos = pairEnd + 1;
+        }
+        return null;
+    }
+
+    /** URL-decodes {@code buf[start..end)}; returns null on a malformed escape. */
+    private static String decodeComponent(byte[] buf, int start, int end) {
+        boolean plain = true;
+        for (int i = start; i < end && plain; i++) {
+            if (buf[i] == '%' || buf[i] == '+') plain = false;
+        }
+        if (plain) return new String(buf, start, end - start, StandardCharsets.UTF_8);
+
+        byte[] out = new byte[end - start];
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buf[i];
+            if (b == '+') {
+                out[n++] = ' ';
+            } else if (b == '%') {
+                if (i + 2 >= end) return null;
+                int hi = Character.digit(buf[i + 1], 16);
+                int lo = Character.digit(buf[i + 2], 16);
+                if (hi < 0 || lo < 0) return null;
+                out[n++] = (byte) ((hi << 4) | lo);
+                i += 2;
+            } else {
+                out[n++] = b;
+            }
+        }
+        return new String(out, 0, n, StandardCharsets.UTF_8);
+    }
+
+    private boolean regionMatches(int start, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (buf[start + i] != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Index of the next '\n' in {@code [from, limit)}, or -1 when the line is not
+     * complete yet. Throws once a line grows beyond maxLine.
+     */
+    private static int findLineEnd(byte[] buf, int from, int limit, int maxLine, int status, String code)
+            throws RequestException {
+        int end = Math.min(limit, from + maxLine);
+        for (int i = from; i < end; i++) {
+            if (buf[i] == '\n') return i;
+        }
+        if (limit - from >= maxLine) throw new RequestException(status, code);
+        return -1;
+    }
+
+    private static int trimCr(byte[] buf, int lineStart, int eol) {
+        return eol > lineStart && buf[eol - 1] == '\r' ? eol - 1 : eol;
+    }
+
+    private static int indexOf(byte[] buf, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private static boolean equalsIgnoreCase(byte[] buf, int start, int end, byte[] lower) {
+        if (end - start != lower.length) return false;
+        for (int i = 0; i < lower.length; i++) {
+            if (toLower(buf[start + i]) != lower[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean equalsIgnoreCase(byte[] buf, int start, int end, String s) {
+        if (end - start != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (toLower(buf[start + i]) != toLower((byte) s.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private static boolean containsIgnoreCase(byte[] buf, int start, int end, String s) {
+        for (int i = start; i + s.length() <= end; i++) {
+            if (equalsIgnoreCase(buf, i, i + s.length(), s)) return true;
+        }
+        return false;
+    }
+
+    private static byte toLower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + 32) : b;
+    }
+}
@@ -0,0 +1,111 @@
+package com.techtorio.smswebhook;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Response produced by an {@link HttpHandler}, JSON unless another content type
+ * is given. Serialised once into the
+ * exact bytes written to the socket.
+ *
+ * A handler that has to wait (e.g. a status long-poll) returns a
+ * {@link #deferred} response instead; the server writes the eventual response
+ * in request order without holding a thread for it.
+ */
+public class HttpResponse {
+    private static final String JSON = "application/json; charset=utf-8";
+
+    private final int status;
+    private final String body;
+    private final String contentType;
+    private final String extraHeaders;
+    private final CompletableFuture<HttpResponse> pending;
+
+    public HttpResponse(int status, String body) {
+        this(status, body, JSON);
+    }
+
+    public HttpResponse(int status, String body, String contentType) {
+        this(status, body, contentType, "", null);
+    }
+
+    private HttpResponse(int status, String body, String contentType, String extraHeaders,
+                         CompletableFuture<HttpResponse> pending) {
+        this.status = status;
+        this.body = body == null ? "" : body;
+        this.contentType = contentType;
+        this.extraHeaders = extraHeaders;
+        this.pending = pending;
+    }
+
+    /** A response that becomes available when {@code pending} completes. */
+    public static HttpResponse deferred(CompletableFuture<HttpResponse> pending) {
+        return new HttpResponse(0, "", JSON, "", pending);
+    }
+
+    /** 503 asking the client to come back after {@code retryAfterSeconds}. */
+    public static HttpResponse overloaded(int retryAfterSeconds) {
+        return error(503, "overloaded").withHeader("Retry-After", Integer.toString(retryAfterSeconds));
+    }
+
+    /** Copy of this response with one more header line. */
+    public HttpResponse withHeader(String name, String value) {
+        return new HttpResponse(status, body, contentType, extraHeaders + name + ": " + value + "\r\n", pending);
+    }
+
+    public boolean isDeferred() {
+        return pending != null;
+    }
+
+    public CompletableFuture<HttpResponse> getPending() {
+        return pending;
+    }
+
+    public static HttpResponse json(int status, String body) {
+        return new HttpResponse(status, body);
+    }
+
+    public static HttpResponse error(int status, String code) {
+        return new HttpResponse(status, "{\"error\":\"" + code + "\"}");
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public byte[] toBytes(boolean keepAlive) {
+        byte[] payload = body.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + status + " " + statusText(status) + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + (keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n")
+                + "Content-Length: " + payload.length + "\r\n"
+                + extraHeaders
+                + "\r\n";
+        byte[] headBytes = head.getBytes(StandardCharsets.US_ASCII);
+        byte[] out = new byte[headBytes.length + payload.length];
+        System.arraycopy(headBytes, 0, out, 0, headBytes.length);
+        System.arraycopy(payload, 0, out, headBytes.length, payload.length);
+        return out;
+    }
+
+    static String statusText(int code) {
+        switch (code) {
+            case 200: return "OK";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 413: return "Payload Too Large";
+            case 414: return "URI Too Long";
+            case 429: return "Too Many Requests";
+            case 431: return "Request Header Fields Too Large";
+            case 503: return "Service Unavailable";
+            default: return "Internal Server Error";
+        }
+    }
+}
@@ -8,43 +8,54 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
 import android.os.IBinder;
+import android.util.Log;
 
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.net.URLDecoder;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.HashMap;
-import java.util.Locale;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class HttpServerService extends Service {
+    private static final String TAG = "HttpServerService";
     private static final String CHANNEL_ID = "otp_server_channel";
     private static final int NOTIF_ID = 2001;
     private static final int PORT = 8080;
+    // Persistent connections: idle timeout and requests served before closing
+    private static final long KEEP_ALIVE_TIMEOUT_MS = 15_000L;
+    private static final int MAX_KEEP_ALIVE_REQUESTS = 1000;
+    // Deadlines for the phases of one request, each counted from the phase start
+    private static final long REQUEST_LINE_TIMEOUT_MS = 5_000L;
+    private static final long HEADERS_TIMEOUT_MS = 10_000L;
+    private static final long BODY_TIMEOUT_MS = 15_000L;
+    // Load shedding: a refused connection gets 503 and this back-off hint
+    private static final int RETRY_AFTER_SEC = 2;
+    private static final int REJECT_WRITE_TIMEOUT_MS = 1000;
+    // Deferred responses are long-polls bounded by the handler, so this only catches one that never completes
+    private static final long MAX_DEFERRED_WAIT_MS = (OtpRequestHandler.MAX_STATUS_WAIT_SEC + 5) * 1000L;
 
     private final AtomicBoolean running = new AtomicBoolean(false);
-    private ExecutorService executor;
+    private ThreadPoolExecutor workers;
+    private ServerLimits limits;
+    private ConnectionLimiter perAddress;
     private ServerSocket serverSocket;
-    // Simple in-memory rate limits
-    private final Map<String, Deque<Long>> perNumberTimestamps = new HashMap<>();
-    private final Deque<Long> deviceTimestamps = new ArrayDeque<>();
+    private NioHttpServer nioServer;
+    private HttpHandler handler;
 
     public static void start(Context context) {
         Intent i = new Intent(context, HttpServerService.class);
@@ -62,7 +73,12 @@ public class HttpServerService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
-        executor = Executors.newCachedThreadPool();
+        ConfigurationManager cfg = new ConfigurationManager(this);
+        workers = createWorkerPool(cfg);
+        limits = new ServerLimits(KEEP_ALIVE_TIMEOUT_MS, REQUEST_LINE_TIMEOUT_MS, HEADERS_TIMEOUT_MS, BODY_TIMEOUT_MS,
+                MAX_KEEP_ALIVE_REQUESTS, cfg.getLanMaxConnectionsPerIp());
+        perAddress = new ConnectionLimiter(limits.getMaxConnectionsPerAddress());
+        handler = new OtpRequestHandler(this);
         createNotificationChannel();
         startForeground(NOTIF_ID, buildNotification());
         startServer();
@@ -77,7 +93,7 @@ public class HttpServerService extends Service {
     public void onDestroy() {
         super.onDestroy();
         stopServer();
-        if (executor != null) executor.shutdownNow();
+        if (workers != null) workers.shutdownNow();
     }
 
     @Nullable
@@ -107,205 +123,209 @@ public class HttpServerService extends Service {
     private void startServer() {
         if (running.get()) return;
         running.set(true);
-        executor.execute(() -> {
+        if (new ConfigurationManager(this).isNioServerEnabled()) {
+            startNioServer();
+            return;
+        }
+        Thread acceptor = new Thread(() -> {
             try {
                 serverSocket = new ServerSocket(PORT);
                 while (running.get()) {
                     Socket socket = serverSocket.accept();
-                    executor.execute(() -> handleClient(socket));
+                    if (!perAddress.tryAcquire(socket.getInetAddress())) {
+                        GatewayMetrics.get().recordPerAddressRejected();
+                        reject(socket, HttpResponse.error(429, "too_many_connections"));
+                        continue;
+                    }
+                    try {
+                        workers.execute(() -> handleClient(socket));
+                    } catch (RejectedExecutionException e) {
+                        perAddress.release(socket.getInetAddress());
+                        GatewayMetrics.get().recordWorkerPoolRejected();
+                        reject(socket, HttpResponse.overloaded(RETRY_AFTER_SEC));
+                    }
                 }
             } catch (IOException ignored) {
             } finally {
                 stopSelf();
             }
+        }, "otp-http-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Fixed number of connection threads in front of a bounded queue. Once both
+     * are full, new connections are refused with 503 instead of growing threads.
+     */
+    static ThreadPoolExecutor createWorkerPool(ConfigurationManager cfg) {
+        int threads = Math.max(1, cfg.getLanWorkerThreads());
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, cfg.getLanWorkerQueueSize())),
+                r -> new Thread(r, "otp-http-worker-" + count.incrementAndGet()));
+        pool.allowCoreThreadTimeOut(true);
+        GatewayMetrics metrics = GatewayMetrics.get();
+        metrics.registerGauge("lan_worker_active", "LAN connections being served by a worker thread.",
+                pool::getActiveCount);
+        metrics.registerGauge("lan_worker_queue_depth", "LAN connections waiting for a worker thread.",
+                () -> pool.getQueue().size());
+        return pool;
+    }
+
+    /** Answers on the accept thread and closes; the write is small enough not to block. */
+    private static void reject(Socket socket, HttpResponse response) {
+        GatewayMetrics.get().countHttpResponse(response.getStatus());
+        try {
+            socket.setSoTimeout(REJECT_WRITE_TIMEOUT_MS);
+            sendResponse(socket.getOutputStream(), response, false);
+            socket.shutdownOutput();
+            // Unread request bytes would turn the close into a reset that can drop the 503
+            InputStream in = socket.getInputStream();
+            while (in.available() > 0 && in.skip(in.available()) > 0) { }
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) { }
+        }
+    }
+
+    private void startNioServer() {
+        nioServer = new NioHttpServer(PORT, NioHttpServer.defaultLoopCount(), handler, limits);
+        // Binding is network I/O, so keep it off the main thread
+        workers.execute(() -> {
+            try {
+                nioServer.start();
+                Log.i(TAG, "Selector server listening on " + PORT + " with " + nioServer.getThreadCount() + " loop(s)");
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to start selector server", e);
+                stopSelf();
+            }
         });
     }
 
     private void stopServer() {
         running.set(false);
+        if (nioServer != null) nioServer.stop();
         try {
             if (serverSocket != null) serverSocket.close();
         } catch (IOException ignored) { }
     }
 
     private void handleClient(Socket socket) {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-             PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)))) {
-
-            String requestLine = in.readLine();
-            if (requestLine == null || requestLine.isEmpty()) {
-                sendResponse(out, 400, jsonError("invalid_request"));
-                return;
-            }
-            String method;
-            String pathWithQuery;
-            String[] parts = requestLine.split(" ");
-            method = parts[0];
-            pathWithQuery = parts.length > 1 ? parts[1] : "/";
-
-            Map<String, String> headers = new HashMap<>();
-            String line;
-            while ((line = in.readLine()) != null && !line.isEmpty()) {
-                int idx = line.indexOf(':');
-                if (idx > 0) {
-                    String k = line.substring(0, idx).trim();
-                    String v = line.substring(idx + 1).trim();
-                    headers.put(k.toLowerCase(Locale.ROOT), v);
-                }
-            }
-
-            if (!"GET".equalsIgnoreCase(method)) {
-                sendResponse(out, 405, jsonError("method_not_allowed"));
-                return;
-            }
-
-            if (!pathWithQuery.startsWith("/send-otp")) {
-                sendResponse(out, 404, jsonError("not_found"));
-                return;
-            }
-
-            ConfigurationManager cfg = new ConfigurationManager(this);
-            if (!cfg.isLanEndpointEnabled()) {
-                sendResponse(out, 403, jsonError("forbidden"));
-                return;
-            }
-
-            String secret = cfg.getSecretKey();
-            String headerSecret = headers.getOrDefault("x-webhook-secret", "");
-            if (secret == null || secret.isEmpty() || !secret.equals(headerSecret)) {
-                sendResponse(out, 401, jsonError("unauthorized"));
-                return;
-            }
-
-            Map<String, String> query = parseQuery(pathWithQuery);
-            String otp = getParamCaseInsensitive(query, "varOTP", "otp");
-            String receiver = getParamCaseInsensitive(query, "receiver", "to");
-            if (otp == null || otp.isEmpty() || receiver == null || receiver.isEmpty()) {
-                sendResponse(out, 400, jsonError("invalid_parameter"));
-                return;
-            }
-
-            if (cfg.isHmacRequired()) {
-                String signature = headers.getOrDefault("x-signature", "");
-                String canonical = "otp=" + otp + "&to=" + receiver;
-                String expected = hmacSha256Hex(secret, canonical);
-                if (signature == null || signature.isEmpty() || !signature.equalsIgnoreCase(expected)) {
-                    sendResponse(out, 401, jsonError("unauthorized"));
+        DeadlineInputStream deadlines = null;
+        try {
+            socket.setTcpNoDelay(true);
+            deadlines = new DeadlineInputStream(socket, limits);
+            InputStream in = new BufferedInputStream(deadlines);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+            HttpRequest request = new HttpRequest();
+            for (int served = 1; running.get(); served++) {
+                // A fresh connection owes its request line; only a kept-alive one may sit idle
+                deadlines.onPhase(served == 1 ? HttpRequest.Phase.REQUEST_LINE : HttpRequest.Phase.IDLE);
+                try {
+                    if (!request.readFrom(in, deadlines)) return;
+                } catch (HttpRequest.RequestException e) {
+                    HttpResponse rejected = e.toResponse();
+                    GatewayMetrics.get().countHttpResponse(rejected.getStatus());
+                    sendResponse(out, rejected, false);
                     return;
                 }
-            }
 
-            String normalized = PhoneNormalizer.normalizePhone(receiver, cfg.getDefaultCountryCode());
-            String template = cfg.getOtpTemplate();
-            String message = template.replace("{varOTP}", otp);
-
-            // Rate limits: 5 per 5 minutes per number, 60 per hour per device
-            long now = System.currentTimeMillis();
-            if (isRateLimited(normalized, now)) {
-                sendResponse(out, 429, "{\"error\":\"rate_limited\"}");
-                return;
-            }
-
-            boolean sent = SmsSender.send(this, normalized, message, cfg.getPreferredSimSlot());
-            if (sent) {
-                sendResponse(out, 200, "{\"status\":\"queued\"}");
-            } else {
-                sendResponse(out, 500, jsonError("internal_error"));
+                boolean keepAlive = request.isKeepAlive() && served < limits.getMaxRequestsPerConnection();
+                long started = System.nanoTime();
+                HttpResponse response = handler.handle(request);
+                if (response.isDeferred()) {
+                    out.flush();
+                    response = await(response);
+                }
+                out.write(response.toBytes(keepAlive));
+                GatewayMetrics.get().recordHttpRequest(response.getStatus(), System.nanoTime() - started);
+                // Pipelined requests already buffered are answered before flushing
+                if (!keepAlive || in.available() == 0) out.flush();
+                if (!keepAlive) return;
             }
-
+        } catch (SocketTimeoutException e) {
+            if (deadlines.phase == HttpRequest.Phase.IDLE) GatewayMetrics.get().recordIdleClose();
+            else GatewayMetrics.get().recordEviction(deadlines.phase);
         } catch (Exception ignored) {
         } finally {
+            perAddress.release(socket.getInetAddress());
             try {
                 socket.close();
             } catch (IOException ignored) { }
         }
     }
 
-    private synchronized boolean isRateLimited(String number, long now) {
-        // Per-number
-        Deque<Long> q = perNumberTimestamps.get(number);
-        if (q == null) {
-            q = new ArrayDeque<>();
-            perNumberTimestamps.put(number, q);
+    /**
+     * Blocks this connection's thread until a deferred response is ready, for at
+     * most the longest status long-poll plus a margin; a response that never
+     * completes gets 503 rather than holding the thread forever.
+     */
+    private static HttpResponse await(HttpResponse deferred) throws InterruptedException {
+        try {
+            return deferred.getPending().get(MAX_DEFERRED_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Deferred response failed", e.getCause());
+            return HttpResponse.error(500, "internal_error");
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Deferred response timed out");
+            return HttpResponse.error(503, "timeout");
         }
-        prune(q, now - 5 * 60_000L);
-        if (q.size() >= 5) return true;
-
-        // Per-device
-        prune(deviceTimestamps, now - 60 * 60_000L);
-        if (deviceTimestamps.size() >= 60) return true;
-
-        q.addLast(now);
-        deviceTimestamps.addLast(now);
-        return false;
     }
 
-    private void prune(Deque<Long> q, long threshold) {
-        while (!q.isEmpty() && q.peekFirst() < threshold) q.removeFirst();
+    private static void sendResponse(OutputStream out, HttpResponse response, boolean keepAlive) throws IOException {
+        out.write(response.toBytes(keepAlive));
+        out.flush();
     }
 
-    private static Map<String, String> parseQuery(String pathWithQuery) throws Exception {
-        Map<String, String> map = new HashMap<>();
-        String[] split = pathWithQuery.split("\\?", 2);
-        if (split.length < 2) return map;
-        String qs = split[1];
-        for (String pair : qs.split("&")) {
-            int idx = pair.indexOf('=');
-            if (idx > 0) {
-                String k = URLDecoder.decode(pair.substring(0, idx), "UTF-8");
-                String v = URLDecoder.decode(pair.substring(idx + 1), "UTF-8");
-                map.put(k, v);
-            }
+    /**
+     * Socket stream that enforces the current phase's deadline: before each read
+     * from the socket, SO_TIMEOUT is set to the time left in the phase, so a
+     * client trickling bytes still runs out of time.
+     */
+    private static final class DeadlineInputStream extends FilterInputStream implements HttpRequest.PhaseListener {
+        private final Socket socket;
+        private final ServerLimits limits;
+        HttpRequest.Phase phase = HttpRequest.Phase.IDLE;
+        private long deadline;
+
+        DeadlineInputStream(Socket socket, ServerLimits limits) throws IOException {
+            super(socket.getInputStream());
+            this.socket = socket;
+            this.limits = limits;
         }
-        return map;
-    }
 
-    private static String getParamCaseInsensitive(Map<String, String> q, String primary, String alt) {
-        for (Map.Entry<String, String> e : q.entrySet()) {
-            String k = e.getKey();
-            if (k.equalsIgnoreCase(primary) || k.equalsIgnoreCase(alt)) {
-                return e.getValue();
-            }
+        /** Starts {@code next}'s deadline; re-entering the current phase keeps the one already running. */
+        @Override
+        public void onPhase(HttpRequest.Phase next) {
+            if (next == phase) return;
+            phase = next;
+            deadline = now() + limits.timeoutFor(next);
         }
-        return null;
-    }
 
-    private static String hmacSha256Hex(String secret, String data) {
-        try {
-            javax.crypto.Mac mac = javax.crypto.Mac.getInstance("HmacSHA256");
-            mac.init(new javax.crypto.spec.SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
-            byte[] out = mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder();
-            for (byte b : out) sb.append(String.format("%02x", b));
-            return sb.toString();
-        } catch (Exception e) {
-            return "";
+        @Override
+        public int read() throws IOException {
+            arm();
+            return super.read();
         }
-    }
 
-    private static void sendResponse(PrintWriter out, int code, String body) {
-        String statusText;
-        switch (code) {
-            case 200: statusText = "OK"; break;
-            case 400: statusText = "Bad Request"; break;
-            case 401: statusText = "Unauthorized"; break;
-            case 403: statusText = "Forbidden"; break;
-            case 404: statusText = "Not Found"; break;
-            case 405: statusText = "Method Not Allowed"; break;
-            default: statusText = "Internal Server Error"; break;
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            arm();
+            return super.read(b, off, len);
+        }
+
+        private void arm() throws IOException {
+            long remaining = deadline - now();
+            if (remaining <= 0) throw new SocketTimeoutException(phase + " deadline passed");
+            socket.setSoTimeout((int) Math.min(remaining, Integer.MAX_VALUE));
         }
-        out.print("HTTP/1.1 " + code + " " + statusText + "\r\n");
-        out.print("Content-Type: application/json; charset=utf-8\r\n");
-        out.print("Connection: close\r\n");
-        out.print("Content-Length: " + body.getBytes(StandardCharsets.UTF_8).length + "\r\n");
-        out.print("\r\n");
-        out.print(body);
-        out.flush();
-    }
 
-    private static String jsonError(String code) {
-        return "{\"error\":\"" + code + "\"}";
+        private static long now() {
+            return System.nanoTime() / 1_000_000L;
+        }
     }
 }
-
-
@@ -0,0 +1,81 @@
+package com.techtorio.smswebhook;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Remembers the outcome of recently seen idempotency keys so a retried
+ * submission gets the original result instead of sending again.
+ *
+ * The first caller for a key {@link #claim claims} it with a pending future and
+ * completes it once the work is done; callers arriving meanwhile receive that
+ * same future, so N concurrent duplicates still cause one send. Entries expire
+ * after a fixed TTL and the map is capped, evicting the oldest completed key
+ * first. A claim still in flight is never evicted, so the cap can be exceeded
+ * by at most the number of claims being worked on at once.
+ */
+public class IdempotencyCache<V> {
+    private final int maxEntries;
+    private final long ttlMs;
+    // Insertion order equals expiry order because every entry gets the same TTL
+    private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>();
+
+    public IdempotencyCache(int maxEntries, long ttlMs) {
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * Claims {@code key} for {@code pending}. Returns null when the caller now owns
+     * the key and must complete {@code pending} (or {@link #release} the key);
+     * otherwise returns the earlier caller's future.
+     */
+    public CompletableFuture<V> claim(String key, CompletableFuture<V> pending, long now) {
+        synchronized (entries) {
+            Iterator<Entry<V>> it = entries.values().iterator();
+            while (it.hasNext() && it.next().expiresAt <= now) it.remove();
+            Entry<V> existing = entries.get(key);
+            if (existing != null) return existing.result;
+            if (entries.size() >= maxEntries) {
+                // Forgetting an in-flight claim would let a duplicate run alongside it
+                it = entries.values().iterator();
+                while (it.hasNext()) {
+                    if (it.next().result.isDone()) {
+                        it.remove();
+                        break;
+                    }
+                }
+            }
+            entries.put(key, new Entry<>(pending, now + ttlMs));
+            return null;
+        }
+    }
+
+    /**
+     * Forgets {@code key} if it still maps to {@code pending}, so a later retry
+     * runs again. Used when the outcome should not be replayed, e.g. a rejection.
+     */
+    public void release(String key, CompletableFuture<V> pending) {
+        synchronized (entries) {
+            Entry<V> e = entries.get(key);
+            if (e != null && e.result == pending) entries.remove(key);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static final class Entry<V> {
+        final CompletableFuture<V> result;
+        final long expiresAt;
+
+        Entry(CompletableFuture<V> result, long expiresAt) {
+            this.result = result;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.techtorio.smswebhook;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * The outbound queue, split into one FIFO per {@link OutboundMessage.Lane}.
+ * {@link #poll} picks among the lanes by smooth weighted round-robin, so OTPs
+ * overtake a backlog of bulk texts without starving it: with weights 8,3,1 a
+ * waiting bulk message still gets one turn in twelve. Weights below 1 count
+ * as 1, so no lane can be starved.
+ *
+ * The caller says which messages it can send right now, and only those are
+ * taken: a message for a SIM that is at its rate stays queued, and one behind
+ * it for a free SIM goes first. Nothing is held while a SIM is busy.
+ *
+ * Each lane has its own capacity, so a full bulk lane never refuses an OTP.
+ *
+ * A new OTP for a recipient who already has one waiting takes that one's place
+ * in line; only the newest code is valid, so the older message is handed to
+ * the superseded callback, with its replacement, instead of being sent. A
+ * replacement sent on another lane waits in that lane instead. Only messages
+ * flagged {@link OutboundMessage#isOtp} are replaced this way; other texts on
+ * the OTP lane are all sent.
+ */
+public class LaneQueue {
+    private static final OutboundMessage.Lane[] LANES = OutboundMessage.Lane.values();
+    // Messages looked at per lane and poll, so a long lane for a busy SIM costs bounded work
+    private static final int MAX_SCAN = 64;
+
+    private final int capacity;
+    private final ToIntFunction<OutboundMessage.Lane> weights;
+    private final BiConsumer<OutboundMessage, OutboundMessage> onSuperseded;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final ArrayDeque<Slot>[] queues;
+    // Recipient -> its queued OTP's slot
+    private final HashMap<String, Slot> queuedOtps = new HashMap<>();
+    private final int[] current = new int[LANES.length];
+    private int size;
+    // Bumped on every add, so a poller knows whether to look again
+    private long version;
+
+    @SuppressWarnings("unchecked")
+    public LaneQueue(int capacity, ToIntFunction<OutboundMessage.Lane> weights, BiConsumer<OutboundMessage, OutboundMessage> onSuperseded) {
+        this.capacity = Math.max(1, capacity);
+        this.weights = weights;
+        this.onSuperseded = onSuperseded;
+        this.queues = new ArrayDeque[LANES.length];
+        for (int i = 0; i < LANES.length; i++) queues[i] = new ArrayDeque<>();
+    }
+
+    /**
+     * Queues {@code m} in its lane, replacing a queued OTP to the same recipient
+     * when {@code coalesce} is set; false when the lane is full.
+     */
+    public boolean offer(OutboundMessage m, boolean coalesce) {
+        return add(m, coalesce, false);
+    }
+
+    /** Queues {@code m} regardless of capacity, for messages recovered at startup. */
+    public void forceAdd(OutboundMessage m, boolean coalesce) {
+        add(m, coalesce, true);
+    }
+
+    private boolean add(OutboundMessage m, boolean coalesce, boolean force) {
+        ArrayDeque<Slot> q = queues[m.getLane().ordinal()];
+        boolean otp = m.isOtp();
+        String key = otp ? PhoneNormalizer.normalizePhone(m.getTo(), null) : null;
+        OutboundMessage superseded = null;
+        OutboundMessage replacement = m;
+        lock.lock();
+        try {
+            Slot slot = coalesce && otp ? queuedOtps.get(key) : null;
+            if (slot != null && slot.message.getCreatedAt() > m.getCreatedAt()) {
+                // A retry or deferred release of an older OTP loses to the newer one already waiting
+                superseded = m;
+                replacement = slot.message;
+            } else if (slot != null && slot.message.getLane() == m.getLane()) {
+                superseded = slot.message;
+                slot.message = m;
+                m.markQueued(System.nanoTime());
+            } else {
+                if (!force && q.size() >= capacity) return false;
+                if (slot != null) {
+                    // The replacement waits in its own lane, at that lane's priority
+                    superseded = slot.message;
+                    remove(queues[superseded.getLane().ordinal()], slot);
+                    size--;
+                }
+                slot = new Slot(m);
+                q.add(slot);
+                size++;
+                m.markQueued(System.nanoTime());
+            }
+            if (otp) queuedOtps.put(key, slot);
+            version++;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (superseded != null) onSuperseded.accept(superseded, replacement);
+        return true;
+    }
+
+    /**
+     * Removes and returns the next message by lane weight among those
+     * {@code sendable} accepts, or null when there is none. Each lane offers its
+     * first accepted message within {@link #MAX_SCAN} of its head; the predicate
+     * runs under the queue lock.
+     */
+    public OutboundMessage poll(Predicate<OutboundMessage> sendable) {
+        lock.lock();
+        try {
+            if (size == 0) return null;
+            Slot[] candidates = new Slot[LANES.length];
+            boolean any = false;
+            for (int i = 0; i < LANES.length; i++) {
+                int scanned = 0;
+                for (Slot slot : queues[i]) {
+                    if (scanned++ == MAX_SCAN) break;
+                    if (sendable.test(slot.message)) {
+                        candidates[i] = slot;
+                        any = true;
+                        break;
+                    }
+                }
+            }
+            if (!any) return null;
+            int lane = pick(candidates);
+            Slot slot = candidates[lane];
+            remove(queues[lane], slot);
+            size--;
+            if (slot.message.isOtp()) {
+                queuedOtps.remove(PhoneNormalizer.normalizePhone(slot.message.getTo(), null), slot);
+            }
+            return slot.message;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Changes each time a message is queued; pass to {@link #awaitChange}. */
+    public long version() {
+        lock.lock();
+        try {
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a message is queued after {@code seen} was read, or for at most
+     * {@code timeoutMs} (no limit when 0 or less).
+     */
+    public void awaitChange(long seen, long timeoutMs) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (version == seen) {
+                if (timeoutMs <= 0) {
+                    changed.await();
+                } else {
+                    if (nanos <= 0) return;
+                    nanos = changed.awaitNanos(nanos);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void remove(ArrayDeque<Slot> q, Slot slot) {
+        Iterator<Slot> it = q.iterator();
+        while (it.hasNext()) {
+            if (it.next() == slot) {
+                it.remove();
+                return;
+            }
+        }
+    }
+
+    // Same smooth weighted round-robin as SimScheduler, over the lanes with a candidate
+    private int pick(Slot[] candidates) {
+        int best = -1;
+        int total = 0;
+        for (int i = 0; i < LANES.length; i++) {
+            if (candidates[i] == null) continue;
+            int weight = Math.max(1, weights.applyAsInt(LANES[i]));
+            current[i] += weight;
+            total += weight;
+            if (best < 0 || current[i] > current[best]) best = i;
+        }
+        current[best] -= total;
+        return best;
+    }
+
+    public boolean hasCapacity(OutboundMessage.Lane lane) {
+        return depth(lane) < capacity;
+    }
+
+    /** True while some lane still has room. */
+    public boolean hasCapacity() {
+        for (OutboundMessage.Lane lane : LANES) {
+            if (hasCapacity(lane)) return true;
+        }
+        return false;
+    }
+
+    public int depth(OutboundMessage.Lane lane) {
+        lock.lock();
+        try {
+            return queues[lane.ordinal()].size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** A place in a lane; a superseding OTP swaps its message in. Guarded by the lock. */
+    private static final class Slot {
+        OutboundMessage message;
+
+        Slot(OutboundMessage message) {
+            this.message = message;
+        }
+    }
+}
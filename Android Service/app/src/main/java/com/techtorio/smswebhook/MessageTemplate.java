@@ -0,0 +1,106 @@
+package com.techtorio.smswebhook;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Message template compiled once into alternating literal and placeholder
+ * segments. Placeholders are {@code {name}} with letters, digits or
+ * underscores; {@code {varOTP}} takes the OTP, every other name is looked up in
+ * the variables passed to {@link #render}. A placeholder without a value is
+ * kept verbatim, as the old {@code String.replace} rendering did.
+ *
+ * Rendering appends into a per-thread builder, so the only allocation is the
+ * resulting String.
+ */
+public final class MessageTemplate {
+    public static final String OTP_PLACEHOLDER = "{varOTP}";
+    private static final String OTP_NAME = "varOTP";
+    private static final int MAX_KEPT_BUILDER = 4 * 1024;
+
+    private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private final String source;
+    // literals.length == names.length + 1; names[i] sits between literals[i] and literals[i + 1]
+    private final String[] literals;
+    private final String[] names;
+    private final boolean[] isOtp;
+
+    private MessageTemplate(String source, String[] literals, String[] names) {
+        this.source = source;
+        this.literals = literals;
+        this.names = names;
+        this.isOtp = new boolean[names.length];
+        for (int i = 0; i < names.length; i++) isOtp[i] = OTP_NAME.equals(names[i]);
+    }
+
+    public static MessageTemplate compile(String source) {
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c == '{') {
+                int end = i + 1;
+                while (end < source.length() && isNameChar(source.charAt(end))) end++;
+                if (end > i + 1 && end < source.length() && source.charAt(end) == '}') {
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                    names.add(source.substring(i + 1, end));
+                    i = end + 1;
+                    continue;
+                }
+            }
+            literal.append(c);
+            i++;
+        }
+        literals.add(literal.toString());
+        return new MessageTemplate(source, literals.toArray(new String[0]), names.toArray(new String[0]));
+    }
+
+    /** True when the template has a {@code {varOTP}} placeholder, so what it renders carries the code. */
+    public boolean carriesOtp() {
+        for (boolean otp : isOtp) {
+            if (otp) return true;
+        }
+        return false;
+    }
+
+    public String render(String otp) {
+        return render(otp, null);
+    }
+
+    /** Renders with {@code otp} for {@code {varOTP}} and {@code vars} for any other placeholder. */
+    public String render(String otp, Map<String, String> vars) {
+        StringBuilder sb = BUILDER.get();
+        sb.setLength(0);
+        sb.append(literals[0]);
+        for (int i = 0; i < names.length; i++) {
+            String value = isOtp[i] ? otp : vars == null ? null : vars.get(names[i]);
+            if (value != null) {
+                sb.append(value);
+            } else {
+                sb.append('{').append(names[i]).append('}');
+            }
+            sb.append(literals[i + 1]);
+        }
+        String out = sb.toString();
+        if (sb.capacity() > MAX_KEPT_BUILDER) BUILDER.remove();
+        return out;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+}
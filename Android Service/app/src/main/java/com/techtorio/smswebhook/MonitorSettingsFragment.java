@@ -84,9 +84,13 @@ public class MonitorSettingsFragment extends Fragment {
             return;
         }
 
-        configManager.saveConfiguration(phoneNumber, keyword, webhookUrl, secretKey);
-        updateStatus();
-        updateStats();
+        // Status reads the saved values, so refresh once the background write landed
+        configManager.saveConfiguration(phoneNumber, keyword, webhookUrl, secretKey)
+                .thenRunAsync(() -> {
+                    if (!isAdded()) return;
+                    updateStatus();
+                    updateStats();
+                }, ContextCompat.getMainExecutor(requireContext()));
         Toast.makeText(requireContext(), R.string.config_saved, Toast.LENGTH_SHORT).show();
     }
 
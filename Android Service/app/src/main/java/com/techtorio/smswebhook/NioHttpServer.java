@@ -0,0 +1,468 @@
+package com.techtorio.smswebhook;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector-based HTTP server for the LAN endpoint. A fixed number of event-loop
+ * threads multiplex every connection, so a burst of backend calls no longer costs
+ * one thread per socket. Loop 0 also owns the listening channel and hands accepted
+ * connections out round-robin.
+ *
+ * Connections are persistent (HTTP/1.1 keep-alive) with pipelining. The
+ * {@link ServerLimits} give each request phase a deadline, enforced by a
+ * once-a-second sweep, cap requests per connection and connections per address. The handler runs on the loop
+ * thread and must not block for long; a handler that needs to wait returns a
+ * deferred {@link HttpResponse}, which is completed back on the loop thread.
+ */
+public class NioHttpServer {
+    private static final String TAG = "NioHttpServer";
+    private static final int INITIAL_BUFFER_BYTES = 4 * 1024;
+    private static final int MAX_PIPELINED = 16;
+    private static final long SWEEP_INTERVAL_MS = 1000;
+
+    private final int port;
+    private final HttpHandler handler;
+    private final ServerLimits limits;
+    private final ConnectionLimiter perAddress;
+    private final EventLoop[] loops;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private ServerSocketChannel serverChannel;
+
+    public NioHttpServer(int port, int loopCount, HttpHandler handler, ServerLimits limits) {
+        this.port = port;
+        this.handler = handler;
+        this.limits = limits;
+        this.perAddress = new ConnectionLimiter(limits.getMaxConnectionsPerAddress());
+        this.loops = new EventLoop[Math.max(1, loopCount)];
+    }
+
+    /** Default loop count: half the cores, at least one and at most four. */
+    public static int defaultLoopCount() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    public void start() throws IOException {
+        if (!running.compareAndSet(false, true)) return;
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.configureBlocking(false);
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(port), 256);
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop("otp-http-loop-" + i);
+            }
+            serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+            for (EventLoop loop : loops) loop.start();
+        } catch (IOException e) {
+            stop();
+            throw e;
+        }
+    }
+
+    public void stop() {
+        running.set(false);
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException ignored) { }
+        for (EventLoop loop : loops) {
+            if (loop != null) loop.selector.wakeup();
+        }
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /** Port actually bound, which differs from the configured one when that was 0. */
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /** Number of threads the server uses, independent of the connection count. */
+    public int getThreadCount() {
+        return loops.length;
+    }
+
+    private final class EventLoop extends Thread {
+        final Selector selector;
+        final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        long lastSweep = now();
+
+        EventLoop(String name) throws IOException {
+            super(name);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        void assign(SocketChannel channel, InetAddress address) {
+            pending.add(new Pending(channel, address));
+            selector.wakeup();
+        }
+
+        /** Runs {@code task} on this loop's thread. */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running.get()) {
+                    selector.select(SWEEP_INTERVAL_MS);
+                    registerPending();
+                    runTasks();
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid()) continue;
+                        try {
+                            if (key.isAcceptable()) {
+                                acceptAll();
+                                continue;
+                            }
+                            Connection conn = (Connection) key.attachment();
+                            if (key.isReadable()) conn.onReadable();
+                            if (key.isValid() && key.isWritable()) conn.onWritable();
+                        } catch (IOException | RuntimeException e) {
+                            closeKey(key);
+                        }
+                    }
+                    sweepIdle();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Event loop " + getName() + " failed", e);
+            } finally {
+                for (SelectionKey key : selector.keys()) closeKey(key);
+                Pending p;
+                while ((p = pending.poll()) != null) {
+                    perAddress.release(p.address);
+                    closeQuietly(p.channel);
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) { }
+            }
+        }
+
+        private void acceptAll() throws IOException {
+            SocketChannel ch;
+            while ((ch = serverChannel.accept()) != null) {
+                ch.configureBlocking(false);
+                InetAddress address = ch.socket().getInetAddress();
+                if (!perAddress.tryAcquire(address)) {
+                    rejectPerAddress(ch);
+                    continue;
+                }
+                ch.socket().setTcpNoDelay(true);
+                EventLoop target = loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+                if (target == this) {
+                    register(ch, address);
+                } else {
+                    target.assign(ch, address);
+                }
+            }
+        }
+
+        /** Best-effort 429 on the fresh, still empty socket buffer, then close. */
+        private void rejectPerAddress(SocketChannel ch) {
+            GatewayMetrics.get().recordPerAddressRejected();
+            GatewayMetrics.get().countHttpResponse(429);
+            try {
+                ch.write(ByteBuffer.wrap(HttpResponse.error(429, "too_many_connections").toBytes(false)));
+            } catch (IOException ignored) {
+            } finally {
+                closeQuietly(ch);
+            }
+        }
+
+        private void sweepIdle() {
+            long now = now();
+            if (now - lastSweep < SWEEP_INTERVAL_MS) return;
+            lastSweep = now;
+            for (SelectionKey key : selector.keys()) {
+                Object att = key.attachment();
+                if (att instanceof Connection && ((Connection) att).isExpired(now)) {
+                    HttpRequest.Phase phase = ((Connection) att).phase;
+                    if (phase == HttpRequest.Phase.IDLE) GatewayMetrics.get().recordIdleClose();
+                    else GatewayMetrics.get().recordEviction(phase);
+                    closeKey(key);
+                }
+            }
+        }
+
+        private void registerPending() {
+            Pending p;
+            while ((p = pending.poll()) != null) register(p.channel, p.address);
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) task.run();
+        }
+
+        private void register(SocketChannel ch, InetAddress address) {
+            try {
+                SelectionKey key = ch.register(selector, SelectionKey.OP_READ);
+                key.attach(new Connection(this, ch, key, address));
+            } catch (IOException e) {
+                perAddress.release(address);
+                closeQuietly(ch);
+            }
+        }
+    }
+
+    /**
+     * Per-socket state. Requests are parsed in arrival order and their responses
+     * queued in the same order, so pipelined requests are answered in sequence.
+     * Reading pauses while {@link #MAX_PIPELINED} responses are still unwritten.
+     * A deferred response holds its slot until it completes, so responses queued
+     * behind it wait rather than overtake it.
+     */
+    private final class Connection {
+        final EventLoop loop;
+        final SocketChannel channel;
+        final SelectionKey key;
+        final InetAddress address;
+        final ArrayDeque<Slot> out = new ArrayDeque<>();
+        final HttpRequest request = new HttpRequest();
+        ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+        int served;
+        int awaiting;
+        boolean closeAfterFlush;
+        // Peer half-closed; requests already buffered are still answered
+        boolean inputEnded;
+        boolean closed;
+        long lastActivity = now();
+        // Nothing has arrived yet, so the request line deadline runs from accept
+        HttpRequest.Phase phase = HttpRequest.Phase.REQUEST_LINE;
+        long phaseStarted = lastActivity;
+
+        Connection(EventLoop loop, SocketChannel channel, SelectionKey key, InetAddress address) {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+            this.address = address;
+        }
+
+        void onReadable() throws IOException {
+            int n = channel.read(in);
+            if (n < 0) {
+                inputEnded = true;
+            } else if (n > 0) {
+                lastActivity = now();
+            }
+            pump();
+        }
+
+        void onWritable() throws IOException {
+            pump();
+        }
+
+        /**
+         * True once the current phase ran past its deadline. Idle time counts from
+         * the last read or write; a connection waiting on a deferred response is
+         * never expired.
+         */
+        boolean isExpired(long now) {
+            if (awaiting > 0) return false;
+            long since = phase == HttpRequest.Phase.IDLE ? lastActivity : phaseStarted;
+            return now - since > limits.timeoutFor(phase);
+        }
+
+        private void enterPhase(HttpRequest.Phase next) {
+            if (next == phase) return;
+            phase = next;
+            phaseStarted = now();
+        }
+
+        private void pump() throws IOException {
+            while (true) {
+                boolean progress = parseRequests();
+                progress |= flush();
+                // After end of input, close only once no complete request is left in the buffer
+                if (out.isEmpty() && (closeAfterFlush || (inputEnded && !progress))) {
+                    closeKey(key);
+                    return;
+                }
+                if (!progress) break;
+            }
+            int ops = 0;
+            if (!closeAfterFlush && !inputEnded && out.size() < MAX_PIPELINED) ops |= SelectionKey.OP_READ;
+            if (!out.isEmpty() && out.peek().bytes != null) ops |= SelectionKey.OP_WRITE;
+            key.interestOps(ops);
+        }
+
+        /** Handles every complete request in the input buffer; returns true if any was handled. */
+        private boolean parseRequests() {
+            boolean handled = false;
+            while (!closeAfterFlush && out.size() < MAX_PIPELINED) {
+                byte[] buf = in.array();
+                int limit = in.position();
+                int headLength;
+                try {
+                    headLength = request.parse(buf, 0, limit);
+                } catch (HttpRequest.RequestException e) {
+                    fail(e);
+                    break;
+                }
+                if (headLength == 0) {
+                    if (limit == 0) {
+                        enterPhase(served == 0 ? HttpRequest.Phase.REQUEST_LINE : HttpRequest.Phase.IDLE);
+                    } else {
+                        enterPhase(hasLineEnd(buf, limit) ? HttpRequest.Phase.HEADERS : HttpRequest.Phase.REQUEST_LINE);
+                    }
+                    if (!in.hasRemaining()) grow(in.capacity() * 2);
+                    break;
+                }
+                int total = headLength + request.getContentLength();
+                if (limit < total) {
+                    enterPhase(HttpRequest.Phase.BODY);
+                    grow(total);
+                    break;
+                }
+                if (total > headLength) {
+                    request.setBody(Arrays.copyOfRange(buf, headLength, total));
+                }
+
+                served++;
+                boolean keepAlive = request.isKeepAlive() && served < limits.getMaxRequestsPerConnection() && running.get();
+                long started = System.nanoTime();
+                HttpResponse response;
+                try {
+                    response = handler.handle(request);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Handler failed", e);
+                    response = HttpResponse.error(500, "internal_error");
+                }
+                // The request is a view over the buffer, so only compact once it was handled
+                System.arraycopy(buf, total, buf, 0, limit - total);
+                in.position(limit - total);
+                Slot slot = new Slot();
+                if (response.isDeferred()) {
+                    defer(slot, response, keepAlive, started);
+                } else {
+                    slot.bytes = ByteBuffer.wrap(response.toBytes(keepAlive));
+                    GatewayMetrics.get().recordHttpRequest(response.getStatus(), System.nanoTime() - started);
+                }
+                out.add(slot);
+                if (!keepAlive) closeAfterFlush = true;
+                handled = true;
+            }
+            return handled;
+        }
+
+        private void defer(Slot slot, HttpResponse response, boolean keepAlive, long started) {
+            awaiting++;
+            response.getPending().whenComplete((resolved, error) -> loop.execute(() -> {
+                awaiting--;
+                if (error != null) Log.w(TAG, "Deferred response failed", error);
+                HttpResponse r = resolved != null ? resolved : HttpResponse.error(500, "internal_error");
+                slot.bytes = ByteBuffer.wrap(r.toBytes(keepAlive));
+                GatewayMetrics.get().recordHttpRequest(r.getStatus(), System.nanoTime() - started);
+                if (!key.isValid()) return;
+                try {
+                    pump();
+                } catch (IOException | RuntimeException e) {
+                    closeKey(key);
+                }
+            }));
+        }
+
+        private void fail(HttpRequest.RequestException e) {
+            HttpResponse response = e.toResponse();
+            GatewayMetrics.get().countHttpResponse(response.getStatus());
+            Slot slot = new Slot();
+            slot.bytes = ByteBuffer.wrap(response.toBytes(false));
+            out.add(slot);
+            closeAfterFlush = true;
+        }
+
+        /** Writes queued responses; returns true if at least one was fully written. */
+        private boolean flush() throws IOException {
+            boolean drained = false;
+            while (!out.isEmpty()) {
+                ByteBuffer head = out.peek().bytes;
+                if (head == null) break;
+                if (channel.write(head) > 0) lastActivity = now();
+                if (head.hasRemaining()) break;
+                out.poll();
+                drained = true;
+            }
+            return drained;
+        }
+
+        private boolean hasLineEnd(byte[] buf, int limit) {
+            for (int i = 0; i < limit; i++) {
+                if (buf[i] == '\n') return true;
+            }
+            return false;
+        }
+
+        private void grow(int required) {
+            if (in.capacity() >= required) return;
+            int cap = in.capacity();
+            while (cap < required) cap *= 2;
+            ByteBuffer bigger = ByteBuffer.allocate(cap);
+            in.flip();
+            bigger.put(in);
+            in = bigger;
+        }
+    }
+
+    private static final class Pending {
+        final SocketChannel channel;
+        final InetAddress address;
+
+        Pending(SocketChannel channel, InetAddress address) {
+            this.channel = channel;
+            this.address = address;
+        }
+    }
+
+    /** One response position on a connection; bytes stay null until a deferred response completes. */
+    private static final class Slot {
+        ByteBuffer bytes;
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1_000_000L;
+    }
+
+    private void closeKey(SelectionKey key) {
+        key.cancel();
+        Object att = key.attachment();
+        if (att instanceof Connection) {
+            Connection conn = (Connection) att;
+            if (conn.closed) return;
+            conn.closed = true;
+            perAddress.release(conn.address);
+        }
+        closeQuietly(key.channel());
+    }
+
+    private static void closeQuietly(java.nio.channels.Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) { }
+    }
+}
@@ -0,0 +1,539 @@
+package com.techtorio.smswebhook;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Implements the LAN {@code /send-otp}, {@code /send-otp/batch},
+ * {@code /status/{id}} and {@code /metrics} endpoints. Shared by both server modes of
+ * {@link HttpServerService}.
+ *
+ * Sends are admitted (auth, signature, rate limit) synchronously and handed to
+ * the {@link OutboundDispatcher}; the response carries the message id, whose
+ * outcome the caller can long-poll on {@code /status/{id}}.
+ */
+public class OtpRequestHandler implements HttpHandler {
+    private static final String BATCH_PATH = "/send-otp/batch";
+    private static final String STATUS_PREFIX = "/status/";
+    private static final String METRICS_PATH = "/metrics";
+    private static final String DEAD_LETTERS_PATH = "/dead-letters";
+    private static final int MAX_DEAD_LETTERS_LISTED = 200;
+    private static final int MAX_BATCH_ITEMS = 500;
+    // Long-poll wait in seconds when the caller gives none, and the upper bound
+    private static final int DEFAULT_STATUS_WAIT_SEC = 25;
+    static final int MAX_STATUS_WAIT_SEC = 60;
+    // Suggested back-off for 503 responses when the outbound queue is full
+    private static final int RETRY_AFTER_SEC = 2;
+    private static final String OVERLOADED = "overloaded";
+    private static final String MESSAGE_TOO_LONG = "message_too_long";
+    // Retries normally arrive within minutes; keys are remembered a little longer
+    private static final int MAX_IDEMPOTENCY_KEYS = 10_000;
+    private static final long IDEMPOTENCY_TTL_MS = 15 * 60_000L;
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 128;
+    private static final String REPLAY_HEADER = "X-Idempotent-Replay";
+
+    private static final int MAX_RATE_LIMITED_NUMBERS = 10_000;
+    private static final long MAX_CLOCK_SKEW_MS = 5 * 60_000L;
+    private static final int MAX_REMEMBERED_NONCES = 10_000;
+
+    private final Supplier<ConfigSnapshot> config;
+    private final Outbox dispatcher;
+    private final RateLimiter rateLimiter;
+    private final HmacVerifier hmacVerifier = new HmacVerifier(MAX_CLOCK_SKEW_MS, MAX_REMEMBERED_NONCES);
+    private final IdempotencyCache<HttpResponse> idempotency = new IdempotencyCache<>(MAX_IDEMPOTENCY_KEYS, IDEMPOTENCY_TTL_MS);
+
+    public OtpRequestHandler(Context context) {
+        this(settingsOf(context.getApplicationContext()), OutboundDispatcher.getInstance(context.getApplicationContext()));
+    }
+
+    /** A handler reading its settings from {@code config} and queueing into {@code dispatcher}; for tests. */
+    OtpRequestHandler(Supplier<ConfigSnapshot> config, Outbox dispatcher) {
+        this.config = config;
+        this.dispatcher = dispatcher;
+        ConfigSnapshot cfg = config.get();
+        rateLimiter = new RateLimiter(cfg.getRateLimitPerNumber(), cfg.getRateLimitPerNumberWindowSeconds() * 1000L,
+                cfg.getRateLimitPerDevice(), cfg.getRateLimitPerDeviceWindowSeconds() * 1000L, MAX_RATE_LIMITED_NUMBERS);
+    }
+
+    // Holds only the application context, never the caller's
+    private static Supplier<ConfigSnapshot> settingsOf(Context app) {
+        return () -> ConfigSnapshot.get(app);
+    }
+
+    @Override
+    public HttpResponse handle(HttpRequest request) {
+        if (request.pathEquals(BATCH_PATH)) {
+            if (!request.isMethod("POST")) {
+                return HttpResponse.error(405, "method_not_allowed");
+            }
+            return handleBatch(request);
+        }
+
+        if (!request.isMethod("GET")) {
+            return HttpResponse.error(405, "method_not_allowed");
+        }
+
+        if (request.pathStartsWith(STATUS_PREFIX)) {
+            return handleStatus(request);
+        }
+
+        if (request.pathEquals(DEAD_LETTERS_PATH)) {
+            return handleDeadLetters(request);
+        }
+
+        if (request.pathEquals(METRICS_PATH)) {
+            // Counters only, no secrets or numbers, so scrapers need no shared secret
+            if (!config.get().isLanEndpointEnabled()) {
+                return HttpResponse.error(403, "forbidden");
+            }
+            return new HttpResponse(200, GatewayMetrics.get().render(), GatewayMetrics.CONTENT_TYPE);
+        }
+
+        if (!request.pathStartsWith("/send-otp")) {
+            return HttpResponse.error(404, "not_found");
+        }
+
+        ConfigSnapshot cfg = config.get();
+        HttpResponse denied = authorize(request, cfg);
+        if (denied != null) return denied;
+
+        String otp = request.getQueryParam("varOTP", "otp");
+        String receiver = request.getQueryParam("receiver", "to");
+        String templateId = request.getQueryParam("template", "templateId");
+        String locale = request.getQueryParam("locale", "lang");
+        String laneName = request.getQueryParam("lane", "priority");
+        String ttl = request.getQueryParam("ttl", null);
+        String expiresAtParam = request.getQueryParam("expiresAt", "expires_at");
+        String notBeforeParam = request.getQueryParam("notBefore", "not_before");
+        if (otp == null || otp.isEmpty() || receiver == null || receiver.isEmpty()) {
+            return HttpResponse.error(400, "invalid_parameter");
+        }
+
+        if (cfg.isHmacRequired()) {
+            String canonical = "otp=" + otp + "&to=" + receiver;
+            // Template choice changes the text sent, so it is signed when present
+            if (templateId != null && !templateId.isEmpty()) canonical += "&template=" + templateId;
+            if (locale != null && !locale.isEmpty()) canonical += "&locale=" + locale;
+            if (laneName != null && !laneName.isEmpty()) canonical += "&lane=" + laneName;
+            // Timing is signed too, so a captured request cannot be replayed with a longer life
+            if (ttl != null && !ttl.isEmpty()) canonical += "&ttl=" + ttl;
+            if (expiresAtParam != null && !expiresAtParam.isEmpty()) canonical += "&expiresAt=" + expiresAtParam;
+            if (notBeforeParam != null && !notBeforeParam.isEmpty()) canonical += "&notBefore=" + notBeforeParam;
+            if (hasReplayHeaders(request)) {
+                canonical += "&ts=" + request.getHeader("X-Timestamp") + "&nonce=" + request.getHeader("X-Nonce");
+            }
+            HttpResponse rejected = checkSignature(request, cfg, canonical.getBytes(StandardCharsets.UTF_8));
+            if (rejected != null) return rejected;
+        }
+
+        MessageTemplate template = cfg.getTemplates().find(templateId, locale);
+        if (template == null) {
+            return HttpResponse.error(400, "unknown_template");
+        }
+        OutboundMessage.Lane lane = OutboundMessage.Lane.parse(laneName, OutboundMessage.Lane.OTP);
+        if (lane == null) {
+            return HttpResponse.error(400, "unknown_lane");
+        }
+        long now = System.currentTimeMillis();
+        long expiresAt = OutboundMessage.expiryOf(expiresAtParam, ttl, now);
+        long notBefore = OutboundMessage.parseEpochMillis(notBeforeParam);
+        String timingError = checkTiming(notBefore, expiresAt, now);
+        if (timingError != null) {
+            return HttpResponse.error(400, timingError);
+        }
+
+        return once(request, "send:", withNonce(request, cfg, () -> {
+            Admission admission = admit(cfg, otp, receiver, template, lane, notBefore, expiresAt);
+            if (admission.message == null) {
+                if (OVERLOADED.equals(admission.status)) return HttpResponse.overloaded(RETRY_AFTER_SEC);
+                if (MESSAGE_TOO_LONG.equals(admission.status)) return HttpResponse.error(400, MESSAGE_TOO_LONG);
+                return HttpResponse.json(429, "{\"error\":\"rate_limited\"}");
+            }
+            return whenPersisted(HttpResponse.json(200, "{\"status\":\"queued\",\"id\":\"" + admission.message.getId() + "\"}"),
+                    Collections.singletonList(admission.message));
+        }));
+    }
+
+    /**
+     * Runs {@code work} at most once per X-Idempotency-Key. A repeat within the
+     * TTL gets the original response, flagged with {@link #REPLAY_HEADER}; one
+     * that arrives while the original is still being admitted waits for it. Only
+     * accepted (200) outcomes are remembered, so a retry after a rejection runs
+     * again.
+     */
+    private HttpResponse once(HttpRequest request, String scope, Supplier<HttpResponse> work) {
+        String key = request.getHeader("X-Idempotency-Key");
+        if (key.isEmpty()) return work.get();
+        if (key.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+            return HttpResponse.error(400, "invalid_idempotency_key");
+        }
+
+        String scopedKey = scope + key;
+        CompletableFuture<HttpResponse> pending = new CompletableFuture<>();
+        CompletableFuture<HttpResponse> original = idempotency.claim(scopedKey, pending, System.currentTimeMillis());
+        if (original != null) {
+            GatewayMetrics.get().recordIdempotentReplay();
+            if (original.isDone()) return original.join().withHeader(REPLAY_HEADER, "true");
+            return HttpResponse.deferred(original.thenApply(r -> r.withHeader(REPLAY_HEADER, "true")));
+        }
+
+        HttpResponse response;
+        try {
+            response = work.get();
+        } catch (RuntimeException e) {
+            idempotency.release(scopedKey, pending);
+            pending.complete(HttpResponse.error(500, "internal_error"));
+            throw e;
+        }
+        if (response.isDeferred()) {
+            response.getPending().whenComplete((r, e) ->
+                    settle(scopedKey, pending, e == null ? r : HttpResponse.error(500, "internal_error")));
+        } else {
+            settle(scopedKey, pending, response);
+        }
+        return response;
+    }
+
+    private void settle(String scopedKey, CompletableFuture<HttpResponse> pending, HttpResponse response) {
+        if (response.getStatus() != 200) idempotency.release(scopedKey, pending);
+        pending.complete(response);
+    }
+
+    /**
+     * Holds an acceptance back until the admitted messages are in the outbound
+     * journal, so a 200 is only sent for OTPs that survive a restart. A failed
+     * write answers 503; the dispatcher drops messages it could not journal.
+     */
+    private static HttpResponse whenPersisted(HttpResponse accepted, List<OutboundMessage> admitted) {
+        List<CompletableFuture<Boolean>> writes = new ArrayList<>();
+        for (OutboundMessage m : admitted) writes.add(m.persisted());
+        CompletableFuture<HttpResponse> result = CompletableFuture.allOf(writes.toArray(new CompletableFuture[0]))
+                .thenApply(v -> {
+                    for (CompletableFuture<Boolean> write : writes) {
+                        if (!write.join()) {
+                            return HttpResponse.error(503, "journal_unavailable")
+                                    .withHeader("Retry-After", Integer.toString(RETRY_AFTER_SEC));
+                        }
+                    }
+                    return accepted;
+                });
+        return result.isDone() ? result.join() : HttpResponse.deferred(result);
+    }
+
+    /**
+     * GET /status/{id}?wait=seconds. Answers at once when the message is already
+     * sent or failed, otherwise when it completes or the wait elapses, whichever
+     * is first. The reply always carries the state at that moment.
+     */
+    private HttpResponse handleStatus(HttpRequest request) {
+        ConfigSnapshot cfg = config.get();
+        HttpResponse denied = authorize(request, cfg);
+        if (denied != null) return denied;
+
+        OutboundMessage message = dispatcher.get(request.getPath().substring(STATUS_PREFIX.length()));
+        if (message == null) {
+            return HttpResponse.error(404, "unknown_request");
+        }
+
+        int waitSec = DEFAULT_STATUS_WAIT_SEC;
+        String wait = request.getQueryParam("wait", "timeout");
+        if (wait != null) {
+            try {
+                waitSec = Math.max(0, Math.min(MAX_STATUS_WAIT_SEC, Integer.parseInt(wait)));
+            } catch (NumberFormatException e) {
+                return HttpResponse.error(400, "invalid_parameter");
+            }
+        }
+
+        if (message.isDone() || waitSec == 0) {
+            return statusResponse(message);
+        }
+        return HttpResponse.deferred(dispatcher.awaitCompletion(message, waitSec * 1000L)
+                .thenApply(OtpRequestHandler::statusResponse));
+    }
+
+    private static HttpResponse statusResponse(OutboundMessage message) {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("id", message.getId());
+            json.put("status", message.getStatus());
+            json.put("receiver", message.getTo());
+            json.put("parts", message.getParts());
+            json.put("attempts", message.getAttempts());
+            if (message.getState() == OutboundMessage.State.FAILED) json.put("result_code", message.getResultCode());
+            if (message.getState() == OutboundMessage.State.SENT) json.put("delivery", message.getDeliveryStatus());
+            if (message.getState() == OutboundMessage.State.SUPERSEDED) json.put("superseded_by", message.getSupersededBy());
+            return HttpResponse.json(200, json.toString());
+        } catch (JSONException e) {
+            return HttpResponse.error(500, "internal_error");
+        }
+    }
+
+    /**
+     * GET /dead-letters?limit=n: the newest messages that failed for good, with
+     * their last result code and attempt count. Needs the shared secret, since
+     * the entries carry numbers and message text.
+     */
+    private HttpResponse handleDeadLetters(HttpRequest request) {
+        HttpResponse denied = authorize(request, config.get());
+        if (denied != null) return denied;
+
+        int limit = 50;
+        String param = request.getQueryParam("limit", null);
+        if (param != null && !param.isEmpty()) {
+            try {
+                limit = Math.max(1, Math.min(MAX_DEAD_LETTERS_LISTED, Integer.parseInt(param)));
+            } catch (NumberFormatException e) {
+                return HttpResponse.error(400, "invalid_parameter");
+            }
+        }
+        // The journal is read on its own thread; the event loop must not wait on SQLite
+        return HttpResponse.deferred(dispatcher.getDeadLetters(limit).thenApply(OtpRequestHandler::deadLettersResponse));
+    }
+
+    private static HttpResponse deadLettersResponse(List<OutboundJournal.DeadLetter> letters) {
+        try {
+            JSONArray items = new JSONArray();
+            for (OutboundJournal.DeadLetter d : letters) {
+                JSONObject json = new JSONObject();
+                json.put("id", d.id);
+                json.put("receiver", d.recipient);
+                json.put("message", d.body);
+                json.put("lane", d.lane);
+                json.put("attempts", d.attempts);
+                json.put("result_code", d.resultCode);
+                json.put("created_at", d.createdAt);
+                json.put("failed_at", d.failedAt);
+                items.put(json);
+            }
+            JSONObject response = new JSONObject();
+            response.put("dead_letters", items);
+            return HttpResponse.json(200, response.toString());
+        } catch (JSONException e) {
+            return HttpResponse.error(500, "internal_error");
+        }
+    }
+
+    /**
+     * POST /send-otp/batch with a JSON array of
+     * {@code {otp, receiver, templateId?, locale?, template?, lane?, ttl?, expiresAt?, notBefore?}};
+     * a raw template wins over an id.
+     * Items default to the otp lane; bulk senders should tag theirs "bulk".
+     * The signature covers the raw body once; rate limits apply per item and every
+     * item gets its own status in the response.
+     */
+    private HttpResponse handleBatch(HttpRequest request) {
+        ConfigSnapshot cfg = config.get();
+        HttpResponse denied = authorize(request, cfg);
+        if (denied != null) return denied;
+
+        byte[] body = request.getBody();
+        if (cfg.isHmacRequired()) {
+            byte[] signed = body;
+            if (hasReplayHeaders(request)) {
+                // "<ts>.<nonce>.<body>"
+                byte[] prefix = (request.getHeader("X-Timestamp") + "." + request.getHeader("X-Nonce") + ".")
+                        .getBytes(StandardCharsets.UTF_8);
+                signed = new byte[prefix.length + body.length];
+                System.arraycopy(prefix, 0, signed, 0, prefix.length);
+                System.arraycopy(body, 0, signed, prefix.length, body.length);
+            }
+            HttpResponse rejected = checkSignature(request, cfg, signed);
+            if (rejected != null) return rejected;
+        }
+
+        return once(request, "batch:", withNonce(request, cfg, () -> enqueueBatch(cfg, body)));
+    }
+
+    private HttpResponse enqueueBatch(ConfigSnapshot cfg, byte[] body) {
+        JSONArray items;
+        try {
+            items = new JSONArray(new String(body, StandardCharsets.UTF_8));
+        } catch (JSONException e) {
+            return HttpResponse.error(400, "invalid_request");
+        }
+        if (items.length() == 0 || items.length() > MAX_BATCH_ITEMS) {
+            return HttpResponse.error(400, "invalid_batch_size");
+        }
+        if (!dispatcher.hasCapacity()) {
+            GatewayMetrics.get().recordOutboundQueueRejected();
+            return HttpResponse.overloaded(RETRY_AFTER_SEC);
+        }
+
+        try {
+            JSONArray results = new JSONArray();
+            List<OutboundMessage> admitted = new ArrayList<>();
+            for (int i = 0; i < items.length(); i++) {
+                JSONObject item = items.optJSONObject(i);
+                String otp = item == null ? null : item.optString("otp", null);
+                String receiver = item == null ? null : item.optString("receiver", null);
+                String raw = item == null ? null : item.optString("template", null);
+                MessageTemplate template = raw != null && !raw.isEmpty() ? MessageTemplate.compile(raw)
+                        : item == null ? null
+                        : cfg.getTemplates().find(item.optString("templateId", null), item.optString("locale", null));
+
+                OutboundMessage.Lane lane = item == null ? null
+                        : OutboundMessage.Lane.parse(item.optString("lane", null), OutboundMessage.Lane.OTP);
+                long now = System.currentTimeMillis();
+                long expiresAt = item == null ? 0
+                        : OutboundMessage.expiryOf(item.optString("expiresAt", null), item.optString("ttl", null), now);
+                long notBefore = item == null ? 0 : OutboundMessage.parseEpochMillis(item.optString("notBefore", null));
+                String timingError = checkTiming(notBefore, expiresAt, now);
+
+                String status;
+                OutboundMessage message = null;
+                if (otp == null || otp.isEmpty() || receiver == null || receiver.isEmpty()) {
+                    status = "invalid_parameter";
+                } else if (template == null) {
+                    status = "unknown_template";
+                } else if (lane == null) {
+                    status = "unknown_lane";
+                } else if (timingError != null) {
+                    status = timingError;
+                } else {
+                    Admission admission = admit(cfg, otp, receiver, template, lane, notBefore, expiresAt);
+                    status = admission.status;
+                    message = admission.message;
+                }
+                JSONObject result = new JSONObject();
+                result.put("index", i);
+                if (receiver != null) result.put("receiver", receiver);
+                result.put("status", status);
+                if (message != null) {
+                    result.put("id", message.getId());
+                    admitted.add(message);
+                }
+                results.put(result);
+            }
+            JSONObject response = new JSONObject();
+            response.put("results", results);
+            return whenPersisted(HttpResponse.json(200, response.toString()), admitted);
+        } catch (JSONException e) {
+            return HttpResponse.error(500, "internal_error");
+        }
+    }
+
+    /** LAN switch and shared secret; returns the rejection, or null when allowed. */
+    private static HttpResponse authorize(HttpRequest request, ConfigSnapshot cfg) {
+        if (!cfg.isLanEndpointEnabled()) {
+            return HttpResponse.error(403, "forbidden");
+        }
+        String secret = cfg.getSecretKey();
+        String headerSecret = request.getHeader("X-Webhook-Secret");
+        if (secret == null || secret.isEmpty() || !secret.equals(headerSecret)) {
+            return HttpResponse.error(401, "unauthorized");
+        }
+        return null;
+    }
+
+    private static boolean hasReplayHeaders(HttpRequest request) {
+        return !request.getHeader("X-Timestamp").isEmpty() || !request.getHeader("X-Nonce").isEmpty();
+    }
+
+    /**
+     * Verifies X-Signature over {@code signed}, then timestamp and nonce when the
+     * request carries them (or the replay_protection preference demands them).
+     * Returns the rejection, or null when the request is authentic and fresh.
+     */
+    private HttpResponse checkSignature(HttpRequest request, ConfigSnapshot cfg, byte[] signed) {
+        boolean replayHeaders = hasReplayHeaders(request);
+        if (!replayHeaders && cfg.isReplayProtectionRequired()) {
+            return HttpResponse.error(401, "unauthorized");
+        }
+        if (!hmacVerifier.verify(cfg.getSecretKey(), signed, request.getHeader("X-Signature"))) {
+            return HttpResponse.error(401, "unauthorized");
+        }
+        if (replayHeaders && hmacVerifier.checkTimestamp(request.getHeader("X-Timestamp"), System.currentTimeMillis())
+                != HmacVerifier.Freshness.OK) {
+            return HttpResponse.error(401, "stale_request");
+        }
+        return null;
+    }
+
+    /**
+     * Wraps {@code work} so it first records the request's nonce. It runs inside
+     * {@link #once}, after the idempotency lookup, so a retry that resends the
+     * same signed request gets the original response instead of replayed_request.
+     */
+    private Supplier<HttpResponse> withNonce(HttpRequest request, ConfigSnapshot cfg, Supplier<HttpResponse> work) {
+        if (!cfg.isHmacRequired() || !hasReplayHeaders(request)) return work;
+        return () -> {
+            switch (hmacVerifier.recordNonce(request.getHeader("X-Timestamp"), request.getHeader("X-Nonce"), System.currentTimeMillis())) {
+                case OK: return work.get();
+                case STALE: return HttpResponse.error(401, "stale_request");
+                case FULL: return HttpResponse.overloaded(RETRY_AFTER_SEC);
+                default: return HttpResponse.error(401, "replayed_request");
+            }
+        };
+    }
+
+    /**
+     * Renders and rate-limits one OTP and queues it on {@code lane}. The status
+     * is queued, rate_limited, overloaded or message_too_long (over the segment
+     * limit with rejection on); the message is set only when queued.
+     */
+    private Admission admit(ConfigSnapshot cfg, String otp, String receiver, MessageTemplate template,
+                            OutboundMessage.Lane lane, long notBefore, long expiresAt) {
+        // Checked first so a full queue does not also burn rate-limit tokens
+        if (!dispatcher.hasCapacity(lane)) {
+            GatewayMetrics.get().recordOutboundQueueRejected();
+            return new Admission(OVERLOADED, null);
+        }
+        String normalized = PhoneNormalizer.normalizePhone(receiver, cfg.getDefaultCountryCode());
+        SmsEncoder.Encoded encoded = SmsEncoder.prepare(cfg, template.render(otp, cfg.getTemplates().getVariables()));
+        if (encoded == null) {
+            return new Admission(MESSAGE_TOO_LONG, null);
+        }
+
+        // Rate limits: by default 5 per 5 minutes per number, 60 per hour per device
+        rateLimiter.configure(cfg.getRateLimitPerNumber(), cfg.getRateLimitPerNumberWindowSeconds() * 1000L,
+                cfg.getRateLimitPerDevice(), cfg.getRateLimitPerDeviceWindowSeconds() * 1000L);
+        // A multipart message spends one device token per part, as the carrier bills it
+        RateLimiter.Permit permit = rateLimiter.acquire(normalized, encoded.getSegments(), System.currentTimeMillis());
+        if (permit == null) {
+            GatewayMetrics.get().recordRateLimited();
+            return new Admission("rate_limited", null);
+        }
+
+        OutboundMessage queued = dispatcher.submit(normalized, encoded.getText(), cfg.getPreferredSimSlot(), lane,
+                template.carriesOtp(), encoded.getSegments(), notBefore, expiresAt);
+        if (queued == null) {
+            // The lane filled up since the check; the client's retry must not pay for this attempt
+            rateLimiter.refund(permit);
+            GatewayMetrics.get().recordOutboundQueueRejected();
+            return new Admission(OVERLOADED, null);
+        }
+        return new Admission("queued", queued);
+    }
+
+    /**
+     * Validates parsed send timing; returns invalid_parameter for malformed
+     * values, already_expired when the expiry has passed or falls before the
+     * not-before time, and null when the timing is usable.
+     */
+    private static String checkTiming(long notBefore, long expiresAt, long now) {
+        if (notBefore < 0 || expiresAt < 0) return "invalid_parameter";
+        if (expiresAt > 0 && (expiresAt <= now || expiresAt <= notBefore)) return "already_expired";
+        return null;
+    }
+
+    private static final class Admission {
+        final String status;
+        final OutboundMessage message;
+
+        Admission(String status, OutboundMessage message) {
+            this.status = status;
+            this.message = message;
+        }
+    }
+}
@@ -137,20 +137,22 @@ public class OtpSenderFragment extends Fragment {
         configManager.saveOtpConfiguration(backendUrl, template, country, otpTestReceiver, simSlot, enableLan, requireHmac);
     // save device phone separately
     String devicePhone = etOtpDevicePhone.getText().toString().trim();
-    configManager.saveOtpDevicePhone(devicePhone);
-        Toast.makeText(requireContext(), "OTP settings saved", Toast.LENGTH_SHORT).show();
-
-        // Restart SignalR connection if backend URL was changed
-        if (!backendUrl.isEmpty()) {
-            SignalRClient.getInstance(requireContext()).stop();
-            SignalRClient.getInstance(requireContext()).start();
-        }
+        Context appContext = requireContext().getApplicationContext();
+        // Saves are committed in order, so once the last one lands both are visible
+        configManager.saveOtpDevicePhone(devicePhone).thenRunAsync(() -> {
+            // Restart SignalR connection if backend URL was changed
+            if (!backendUrl.isEmpty()) {
+                SignalRClient.getInstance(appContext).stop();
+                SignalRClient.getInstance(appContext).start();
+            }
 
-        if (enableLan) {
-            HttpServerService.start(requireContext());
-        } else {
-            HttpServerService.stop(requireContext());
-        }
+            if (enableLan) {
+                HttpServerService.start(appContext);
+            } else {
+                HttpServerService.stop(appContext);
+            }
+        }, ContextCompat.getMainExecutor(appContext));
+        Toast.makeText(requireContext(), "OTP settings saved", Toast.LENGTH_SHORT).show();
     }
 
     private void testSendOtp() {
@@ -164,12 +166,14 @@ public class OtpSenderFragment extends Fragment {
             return;
         }
         String otp = "123456";
-        String template = configManager.getOtpTemplate();
-        String message = template.replace("{varOTP}", otp);
+        TemplateRegistry templates = ConfigSnapshot.get(requireContext()).getTemplates();
+        String message = templates.getDefault().render(otp, templates.getVariables());
         Integer simSlot = configManager.getPreferredSimSlot();
         String normalized = PhoneNormalizer.normalizePhone(testReceiver, configManager.getDefaultCountryCode());
-        boolean ok = SmsSender.send(requireContext(), normalized, message, simSlot);
-        Toast.makeText(requireContext(), ok ? "OTP sent" : "Failed to send OTP", Toast.LENGTH_SHORT).show();
+        Context appContext = requireContext().getApplicationContext();
+        SmsSender.sendAsync(appContext, normalized, message, simSlot).thenAcceptAsync(outcome ->
+                Toast.makeText(appContext, outcome.isSent() ? "OTP sent" : "Failed to send OTP (" + outcome.getStatusName() + ")",
+                        Toast.LENGTH_SHORT).show(), ContextCompat.getMainExecutor(appContext));
     }
 
     private void appendLog(String line) {
@@ -0,0 +1,413 @@
+package com.techtorio.smswebhook;
+
+import android.content.Context;
+import android.telephony.SmsManager;
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide send queue. Callers get an {@link OutboundMessage} with an id as
+ * soon as the message is admitted; a single worker thread performs the actual
+ * {@link SmsSender} call, so request latency no longer includes telephony.
+ * The worker never waits on a SIM or the journal: it takes only messages that
+ * some SIM can send now, hands each to the radio once its sending mark is
+ * committed, and the radio call itself is asynchronous, so two SIMs send side
+ * by side and a SIM at its cap holds up nothing routed elsewhere.
+ * Messages wait in priority lanes ({@link LaneQueue}) so an OTP is not stuck
+ * behind a batch of bulk texts. A newer OTP to a number whose previous OTP is
+ * still queued replaces it, so a burst of resends costs one SMS.
+ *
+ * Deferred sends wait on a {@link TimingWheel} until their not-before time and
+ * expiring ones are timed out on it, so an OTP whose code is no longer valid is
+ * dropped instead of reaching the radio.
+ *
+ * A send that fails with a retryable result goes back to its lane after a
+ * jittered backoff ({@link RetryPolicy}), waiting on the timing wheel rather than
+ * in the queue, so retries never hold up fresh traffic. The retry time is
+ * journaled, so a restart does not cut the backoff short. Messages that fail
+ * for good are copied to the journal's dead-letter table.
+ * Messages complete when the radio reports the sent result.
+ *
+ * Every admitted message is written to the {@link OutboundJournal} and the
+ * queue is rebuilt from it when the process starts again, so a killed
+ * service resumes with the OTPs it had accepted. A message whose sending mark
+ * cannot be committed is held back and tried again rather than sent unrecorded,
+ * and the SIM and pacing capacity taken for it is given back.
+ *
+ * Sends are paced per SIM by a {@link SendPacer} that backs off when the
+ * carrier pushes back. A SIM that is waiting out its pacing interval is
+ * treated like one at its rate cap: its messages stay queued and other SIMs
+ * and lanes keep sending.
+ *
+ * Completed messages stay queryable for {@link #RETAIN_COMPLETED_MS}.
+ */
+public class OutboundDispatcher implements Outbox {
+    private static final String TAG = "OutboundDispatcher";
+    private static final long RETAIN_COMPLETED_MS = 10 * 60_000L;
+    private static final int MAX_TRACKED = 10_000;
+    // Re-check at least this often so new settings, SIMs or health take effect while waiting
+    private static final long MAX_SIM_WAIT_MS = 1_000L;
+    private static final int MAX_DEFERRED = 100_000;
+    // Wait before retrying a send whose sending mark could not be committed
+    private static final long JOURNAL_RETRY_MS = 1_000L;
+
+    private static OutboundDispatcher instance;
+
+    private final Context context;
+    private final SimScheduler sims;
+    private final SendPacer pacer = new SendPacer();
+    private final TimingWheel timers = new TimingWheel("outbound-timers", 100, 512);
+    private final AtomicInteger deferred = new AtomicInteger();
+    private final OutboundJournal journal;
+    private final LaneQueue queue;
+    private final ConcurrentHashMap<String, OutboundMessage> messages = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "outbound-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private OutboundDispatcher(Context ctx) {
+        this.context = ctx.getApplicationContext();
+        this.sims = SimScheduler.getInstance(context);
+        this.journal = new OutboundJournal(context);
+        this.queue = new LaneQueue(new ConfigurationManager(context).getOutboundQueueCapacity(),
+                lane -> ConfigSnapshot.get(context).getLaneWeight(lane), this::supersede);
+        Thread worker = new Thread(this::runWorker, "outbound-sender");
+        worker.setDaemon(true);
+        worker.start();
+        scheduler.scheduleWithFixedDelay(this::prune, 1, 1, TimeUnit.MINUTES);
+        GatewayMetrics.get().registerGauge("outbound_queue_depth", "Messages admitted but not yet handed to SmsManager.",
+                queue::size);
+        GatewayMetrics.get().registerGauge("outbound_deferred", "Messages waiting for their not-before time.", deferred::get);
+        GatewayMetrics.get().registerGauge("outbound_timers", "Pending expiry and deferral timers.", timers::size);
+        for (OutboundMessage.Lane lane : OutboundMessage.Lane.values()) {
+            GatewayMetrics.get().registerGauge("outbound_lane_depth", "Queued messages per priority lane.",
+                    "lane", lane.getName(), () -> queue.depth(lane));
+        }
+        // Read on the journal thread ahead of any new append; the caller may be the main thread
+        journal.loadUnfinished().thenAccept(this::recover);
+    }
+
+    private void recover(OutboundJournal.Unfinished unfinished) {
+        for (OutboundMessage m : unfinished.queued) {
+            m.persisted().complete(true);
+            messages.put(m.getId(), m);
+            // Recovered messages get room on top of the configured capacity
+            schedule(m, true);
+        }
+        for (OutboundMessage m : unfinished.interrupted) {
+            // The radio may already have it, so fail rather than risk a second copy
+            m.persisted().complete(true);
+            messages.put(m.getId(), m);
+            finish(m, failure(m, SmsManager.RESULT_ERROR_GENERIC_FAILURE));
+        }
+        if (!unfinished.queued.isEmpty() || !unfinished.interrupted.isEmpty()) {
+            Log.i(TAG, "Recovered " + unfinished.queued.size() + " queued messages; failed "
+                    + unfinished.interrupted.size() + " interrupted sends");
+        }
+    }
+
+    public static synchronized OutboundDispatcher getInstance(Context ctx) {
+        if (instance == null) instance = new OutboundDispatcher(ctx);
+        return instance;
+    }
+
+    /**
+     * Admits a message for sending on {@code lane} and returns it immediately, or
+     * returns null when that lane is full. {@code otp} marks a one-time code,
+     * which a newer one to the same number replaces while queued. {@code parts} is the predicted segment count. The
+     * journal write is batched; {@link OutboundMessage#persisted()} tells when it is durable.
+     * {@code notBefore} and {@code expiresAt} are epoch millis, 0 for none.
+     */
+    @Override
+    public OutboundMessage submit(String to, String body, Integer simSlot, OutboundMessage.Lane lane, boolean otp,
+                                  int parts, long notBefore, long expiresAt) {
+        long now = System.currentTimeMillis();
+        OutboundMessage message = new OutboundMessage(UUID.randomUUID().toString(), to, body, simSlot, lane, otp,
+                parts, now, notBefore, expiresAt);
+        if (notBefore > now && deferred.get() >= MAX_DEFERRED) return null;
+        messages.put(message.getId(), message);
+        // Journaled before it can be taken, so the insert precedes its state updates
+        // and persisted() is settled by the time its sending mark is
+        journal.append(message).thenAccept(message.persisted()::complete);
+        if (!schedule(message, false)) {
+            messages.remove(message.getId());
+            journal.updateState(message.getId(), OutboundJournal.STATE_FAILED, System.currentTimeMillis(), SmsManager.RESULT_ERROR_LIMIT_EXCEEDED);
+            return null;
+        }
+        return message;
+    }
+
+    /**
+     * Arms the message's expiry and queues it, or parks it on the timing wheel
+     * until its not-before time. False when its lane is full.
+     */
+    private boolean schedule(OutboundMessage m, boolean force) {
+        long now = System.currentTimeMillis();
+        if (m.isExpiredAt(now)) {
+            expire(m);
+            return true;
+        }
+        if (m.getNotBefore() > now) {
+            deferred.incrementAndGet();
+            timers.schedule(() -> release(m), m.getNotBefore());
+        } else {
+            boolean coalesce = ConfigSnapshot.get(context).isOtpCoalescingEnabled();
+            if (force) queue.forceAdd(m, coalesce);
+            else if (!queue.offer(m, coalesce)) return false;
+        }
+        // A message the sender already took ignores its timer
+        if (m.getExpiresAt() > 0) m.setExpiry(timers.schedule(() -> expire(m), m.getExpiresAt()));
+        return true;
+    }
+
+    // Deferred messages were admitted earlier, so they are queued even over capacity
+    private void release(OutboundMessage m) {
+        deferred.decrementAndGet();
+        if (m.isDone()) return;
+        queue.forceAdd(m, ConfigSnapshot.get(context).isOtpCoalescingEnabled());
+    }
+
+    private void expire(OutboundMessage m) {
+        long now = System.currentTimeMillis();
+        if (!m.expire(now)) return;
+        journal.updateState(m.getId(), OutboundJournal.STATE_EXPIRED, now, 0);
+        GatewayMetrics.get().recordExpired(m.getParts());
+        Log.i(TAG, "Dropped expired message " + m.getId());
+    }
+
+    /** False when a submit on {@code lane} would currently be refused. */
+    @Override
+    public boolean hasCapacity(OutboundMessage.Lane lane) {
+        return queue.hasCapacity(lane);
+    }
+
+    /** False when every lane is full. */
+    @Override
+    public boolean hasCapacity() {
+        return queue.hasCapacity();
+    }
+
+    /** Returns the tracked message, or null if unknown or already pruned. */
+    @Override
+    public OutboundMessage get(String id) {
+        return messages.get(id);
+    }
+
+    /**
+     * Completes with the message once it is sent or failed, or with its current
+     * state after {@code timeoutMs}, whichever comes first.
+     */
+    @Override
+    public CompletableFuture<OutboundMessage> awaitCompletion(OutboundMessage message, long timeoutMs) {
+        if (message.isDone() || timeoutMs <= 0) return CompletableFuture.completedFuture(message);
+        CompletableFuture<OutboundMessage> result = new CompletableFuture<>();
+        message.completion().thenAccept(result::complete);
+        ScheduledFuture<?> timeout = scheduler.schedule(() -> result.complete(message), timeoutMs, TimeUnit.MILLISECONDS);
+        result.whenComplete((m, e) -> timeout.cancel(false));
+        return result;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private void runWorker() {
+        while (true) {
+            // Read before polling, so a message queued during the scan ends the wait at once
+            long seen = queue.version();
+            ConfigSnapshot cfg = ConfigSnapshot.get(context);
+            long now = System.currentTimeMillis();
+            long[] soonest = {Long.MAX_VALUE};
+            OutboundMessage message = queue.poll(m -> isSendable(cfg, m, now, soonest));
+            if (message == null) {
+                try {
+                    queue.awaitChange(seen, soonest[0] == Long.MAX_VALUE ? 0 : Math.max(1, Math.min(soonest[0], MAX_SIM_WAIT_MS)));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+            GatewayMetrics.get().recordLaneWait(message.getLane(), System.nanoTime() - message.getQueuedAtNanos());
+            dispatch(cfg, message, now);
+        }
+    }
+
+    /**
+     * True when {@code m} can go to the radio now, or needs no SIM because it is
+     * finished, expired or bound to fail; otherwise lowers {@code soonest[0]} to
+     * the wait until it could. With balancing on any SIM with room whose pacer
+     * is ready will do; without it, the pacer of the message's own SIM decides.
+     */
+    private boolean isSendable(ConfigSnapshot cfg, OutboundMessage m, long now, long[] soonest) {
+        if (m.isDone() || m.isExpiredAt(now)) return true;
+        long wait;
+        if (cfg.isSimLoadBalancing() && sims.hasSims()) {
+            wait = sims.millisUntilAvailable(cfg, m.getParts(), now, slot -> pacer.millisUntilReady(cfg, slot, now));
+        } else {
+            Integer routed = SmsSender.routeOf(context, cfg, m.getTo());
+            wait = pacer.millisUntilReady(cfg, routed != null ? routed : m.getSimSlot(), now);
+        }
+        if (wait <= 0) return true;
+        soonest[0] = Math.min(soonest[0], wait);
+        return false;
+    }
+
+    /**
+     * Hands {@code message}, taken by {@link #isSendable}, to the radio without
+     * waiting on a SIM or the journal: the send continues once its sending mark
+     * is committed.
+     */
+    private void dispatch(ConfigSnapshot cfg, OutboundMessage message, long now) {
+        // Expired while queued; the timer may not have fired yet
+        if (message.isExpiredAt(now)) expire(message);
+        // Claimed before any budget is spent, so a message superseded or expired meanwhile costs nothing
+        if (!message.markSending()) return;
+        Integer routed = SmsSender.slotFor(context, cfg, message.getTo(), null);
+        Integer slot = routed != null ? routed : message.getSimSlot();
+        SimScheduler.Sim sim = null;
+        if (cfg.isSimLoadBalancing() && sims.hasSims()) {
+            // An operator route is a preference; balancing takes over when that SIM is busy
+            sim = sims.acquire(cfg, message.getParts(), now, routed, s -> pacer.millisUntilReady(cfg, s, now) == 0);
+            if (sim == null) {
+                message.unmarkSending();
+                if (sims.millisUntilAvailable(cfg, message.getParts(), now, s -> 0) >= 0) {
+                    // The SIM list changed since the check; try again on the next pass
+                    requeueAt(message, now);
+                    return;
+                }
+                Log.w(TAG, "Every SIM reached its daily cap, failing " + message.getId());
+                finish(message, failure(message, SmsManager.RESULT_ERROR_LIMIT_EXCEEDED));
+                return;
+            }
+            slot = sim.getSlot();
+        }
+        // Taken now so the next message polled sees this SIM as busy; given back if the send never happens
+        pacer.reserve(cfg, slot, message.getParts(), now);
+        final SimScheduler.Sim chosen = sim;
+        final Integer sentOn = slot;
+        // Durable before the radio sees it; see OutboundJournal for the recovery rule. The insert was
+        // queued on the journal before this mark, so persisted() is settled once the mark is
+        journal.markSending(message.getId(), message.getAttempts())
+                .thenAcceptAsync(marked -> send(cfg, message, chosen, sentOn, marked), scheduler);
+    }
+
+    /** Second half of {@link #dispatch}, once the sending mark of {@code message} was committed or refused. */
+    private void send(ConfigSnapshot cfg, OutboundMessage message, SimScheduler.Sim sim, Integer slot, boolean marked) {
+        if (!message.persisted().join()) {
+            // The caller was answered 503 and may resend; this copy must not go out
+            refund(cfg, sim, slot, message.getParts());
+            Log.w(TAG, "Dropping " + message.getId() + ", its journal insert failed");
+            finish(message, failure(message, SmsManager.RESULT_ERROR_GENERIC_FAILURE));
+            return;
+        }
+        if (!marked) {
+            refund(cfg, sim, slot, message.getParts());
+            message.unmarkSending();
+            Log.w(TAG, "Could not journal the send of " + message.getId() + ", retrying in " + JOURNAL_RETRY_MS + " ms");
+            requeueAt(message, System.currentTimeMillis() + JOURNAL_RETRY_MS);
+            return;
+        }
+        try {
+            SmsSender.sendAsync(context, message.getTo(), message.getBody(), slot)
+                    .thenAccept(outcome -> {
+                        long at = System.currentTimeMillis();
+                        if (sim != null) sims.report(sim, outcome.isSent(), at);
+                        pacer.onResult(cfg, slot, outcome, at);
+                        if (!outcome.isSent() && retry(cfg, message, outcome, at)) return;
+                        finish(message, outcome);
+                        outcome.getDelivery().thenAccept(message::completeDelivery);
+                    });
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Send failed for " + message.getId(), e);
+            finish(message, failure(message, SmsManager.RESULT_ERROR_GENERIC_FAILURE));
+        }
+    }
+
+    /** Gives back the SIM capacity and pacing time taken for a send that never reached the radio. */
+    private void refund(ConfigSnapshot cfg, SimScheduler.Sim sim, Integer slot, int parts) {
+        if (sim != null) sims.release(cfg, sim, parts);
+        pacer.release(cfg, slot, parts);
+    }
+
+    private void finish(OutboundMessage message, SmsOutcome outcome) {
+        long now = System.currentTimeMillis();
+        message.complete(outcome, now);
+        journal.updateState(message.getId(), message.getStatus(), now, outcome.getResultCode());
+        if (message.getState() == OutboundMessage.State.FAILED) {
+            journal.deadLetter(message, now);
+            GatewayMetrics.get().recordDeadLetter(RetryPolicy.isRetryable(outcome));
+            Log.w(TAG, "Dead-lettered " + message.getId() + " after " + message.getAttempts()
+                    + " attempts, result code " + outcome.getResultCode());
+        }
+    }
+
+    /**
+     * Schedules another attempt when the policy allows one and it can happen
+     * before the message expires; false when the failure is final.
+     */
+    private boolean retry(ConfigSnapshot cfg, OutboundMessage message, SmsOutcome outcome, long now) {
+        if (!RetryPolicy.shouldRetry(cfg, outcome, message.getAttempts())) return false;
+        long at = now + RetryPolicy.backoffMs(message.getAttempts());
+        if (message.getExpiresAt() > 0 && at >= message.getExpiresAt()) return false;
+        message.retry(outcome.getResultCode());
+        journal.requeue(message.getId(), at);
+        GatewayMetrics.get().recordRetry();
+        Log.i(TAG, "Retrying " + message.getId() + " in " + (at - now) + " ms after result code " + outcome.getResultCode());
+        requeueAt(message, at);
+        return true;
+    }
+
+    /** Parks a message that went back to queued on the timing wheel until {@code at}. */
+    private void requeueAt(OutboundMessage message, long at) {
+        deferred.incrementAndGet();
+        timers.schedule(() -> release(message), at);
+        // Starting to send cancelled the expiry timer
+        if (message.getExpiresAt() > 0) message.setExpiry(timers.schedule(() -> expire(message), message.getExpiresAt()));
+    }
+
+    /** Newest messages that failed for good, at most {@code limit}; read off the caller's thread. */
+    @Override
+    public CompletableFuture<List<OutboundJournal.DeadLetter>> getDeadLetters(int limit) {
+        return journal.loadDeadLetters(limit);
+    }
+
+    /** A queued OTP replaced by a newer one to the same recipient; it is never sent. */
+    private void supersede(OutboundMessage old, OutboundMessage replacement) {
+        long now = System.currentTimeMillis();
+        if (!old.supersede(replacement.getId(), now)) return;
+        journal.updateState(old.getId(), OutboundJournal.STATE_SUPERSEDED, now, 0);
+        GatewayMetrics.get().recordSuperseded(old.getParts());
+        Log.i(TAG, "OTP " + old.getId() + " superseded by " + replacement.getId());
+    }
+
+    private static SmsOutcome failure(OutboundMessage message, int resultCode) {
+        return new SmsOutcome(message.getId(), SmsOutcome.Status.FAILED, resultCode, message.getParts(), 0, null);
+    }
+
+    /** Current adaptive send rate of {@code slot} in parts per minute. */
+    public double getPacingRate(Integer slot) {
+        return pacer.getRatePerMinute(ConfigSnapshot.get(context), slot);
+    }
+
+    private void prune() {
+        long cutoff = System.currentTimeMillis() - RETAIN_COMPLETED_MS;
+        journal.compact(cutoff);
+        Iterator<OutboundMessage> it = messages.values().iterator();
+        while (it.hasNext()) {
+            OutboundMessage m = it.next();
+            if (m.isDone() && (m.getCompletedAt() < cutoff || messages.size() > MAX_TRACKED)) it.remove();
+        }
+    }
+}
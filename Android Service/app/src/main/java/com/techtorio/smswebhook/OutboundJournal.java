@@ -0,0 +1,314 @@
+package com.techtorio.smswebhook;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * SQLite record of every admitted outbound SMS, so a killed process resumes
+ * sending where it stopped. Writes go through one thread that commits whatever
+ * has queued up since its last transaction in a single transaction, so a burst
+ * of admissions shares one commit instead of paying one each.
+ *
+ * Rows move queued, sending, then sent or failed. Sending is made durable
+ * before the message reaches the radio; a row found still sending after a
+ * restart is failed rather than sent again, since the radio may already have
+ * it. A queued OTP replaced by a newer one to the same number ends superseded.
+ * Finished rows are deleted by {@link #compact}.
+ *
+ * Messages that failed for good are also copied to a dead-letter table, kept
+ * for {@link #DEAD_LETTER_RETENTION_MS} (at most {@link #MAX_DEAD_LETTERS} rows)
+ * so they can be inspected after the outbound row is gone.
+ */
+public class OutboundJournal extends SQLiteOpenHelper {
+    private static final String TAG = "OutboundJournal";
+    static final String DB_NAME = "outbound.db";
+    private static final int DB_VERSION = 5;
+    private static final String TABLE = "outbound";
+    private static final String DEAD_LETTERS = "dead_letter";
+    private static final long DEAD_LETTER_RETENTION_MS = 7 * 24 * 60 * 60_000L;
+    private static final int MAX_DEAD_LETTERS = 1_000;
+    private static final int MAX_BATCH = 256;
+
+    static final String STATE_QUEUED = "queued";
+    static final String STATE_SENDING = "sending";
+    static final String STATE_FAILED = "failed";
+    static final String STATE_SUPERSEDED = "superseded";
+    static final String STATE_EXPIRED = "expired";
+
+    private final BlockingQueue<Op> ops = new LinkedBlockingQueue<>();
+
+    public OutboundJournal(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+        setWriteAheadLoggingEnabled(true);
+        Thread writer = new Thread(this::runWriter, "outbound-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + "id TEXT PRIMARY KEY, "
+                + "recipient TEXT NOT NULL, "
+                + "body TEXT NOT NULL, "
+                + "sim_slot INTEGER, "
+                + "lane TEXT NOT NULL DEFAULT 'otp', "
+                + "otp INTEGER NOT NULL DEFAULT 0, "
+                + "parts INTEGER NOT NULL, "
+                + "created_at INTEGER NOT NULL, "
+                + "not_before INTEGER NOT NULL DEFAULT 0, "
+                + "expires_at INTEGER NOT NULL DEFAULT 0, "
+                + "state TEXT NOT NULL, "
+                + "completed_at INTEGER, "
+                + "result_code INTEGER, "
+                + "attempts INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE INDEX outbound_state ON " + TABLE + " (state, created_at)");
+        createDeadLetters(db);
+    }
+
+    private static void createDeadLetters(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + DEAD_LETTERS + " ("
+                + "id TEXT PRIMARY KEY, "
+                + "recipient TEXT NOT NULL, "
+                + "body TEXT NOT NULL, "
+                + "lane TEXT NOT NULL, "
+                + "attempts INTEGER NOT NULL, "
+                + "result_code INTEGER, "
+                + "created_at INTEGER NOT NULL, "
+                + "failed_at INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX dead_letter_failed ON " + DEAD_LETTERS + " (failed_at)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            // Rows from before lanes were all OTPs
+            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN lane TEXT NOT NULL DEFAULT 'otp'");
+        }
+        if (oldVersion < 3) {
+            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN not_before INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN expires_at INTEGER NOT NULL DEFAULT 0");
+        }
+        if (oldVersion < 4) {
+            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN attempts INTEGER NOT NULL DEFAULT 0");
+            createDeadLetters(db);
+        }
+        if (oldVersion < 5) {
+            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN otp INTEGER NOT NULL DEFAULT 0");
+            // Until now every message on the OTP lane was treated as one
+            db.execSQL("UPDATE " + TABLE + " SET otp = 1 WHERE lane = 'otp'");
+        }
+    }
+
+    /** Records a newly admitted message; the future completes once the row is committed. */
+    public CompletableFuture<Boolean> append(OutboundMessage m) {
+        ContentValues values = new ContentValues();
+        values.put("id", m.getId());
+        values.put("recipient", m.getTo());
+        values.put("body", m.getBody());
+        if (m.getSimSlot() != null) values.put("sim_slot", m.getSimSlot());
+        else values.putNull("sim_slot");
+        values.put("lane", m.getLane().getName());
+        values.put("otp", m.isOtp() ? 1 : 0);
+        values.put("parts", m.getParts());
+        values.put("created_at", m.getCreatedAt());
+        values.put("not_before", m.getNotBefore());
+        values.put("expires_at", m.getExpiresAt());
+        values.put("state", STATE_QUEUED);
+        return submit(db -> db.insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE));
+    }
+
+    /** Moves {@code id} to {@code state}; the future completes once committed. */
+    public CompletableFuture<Boolean> updateState(String id, String state, long completedAt, int resultCode) {
+        ContentValues values = new ContentValues();
+        values.put("state", state);
+        if (completedAt > 0) {
+            values.put("completed_at", completedAt);
+            values.put("result_code", resultCode);
+        }
+        return submit(db -> db.update(TABLE, values, "id = ?", new String[] { id }));
+    }
+
+    /** Puts {@code id} back to queued for a retry not before {@code notBefore}, so a restart keeps the backoff. */
+    public CompletableFuture<Boolean> requeue(String id, long notBefore) {
+        ContentValues values = new ContentValues();
+        values.put("state", STATE_QUEUED);
+        values.put("not_before", notBefore);
+        return submit(db -> db.update(TABLE, values, "id = ?", new String[] { id }));
+    }
+
+    /** Records the start of send attempt number {@code attempts}; committed before the future completes. */
+    public CompletableFuture<Boolean> markSending(String id, int attempts) {
+        ContentValues values = new ContentValues();
+        values.put("state", STATE_SENDING);
+        values.put("attempts", attempts);
+        return submit(db -> db.update(TABLE, values, "id = ?", new String[] { id }));
+    }
+
+    /** Copies a message that failed for good into the dead-letter table. */
+    public CompletableFuture<Boolean> deadLetter(OutboundMessage m, long failedAt) {
+        ContentValues values = new ContentValues();
+        values.put("id", m.getId());
+        values.put("recipient", m.getTo());
+        values.put("body", m.getBody());
+        values.put("lane", m.getLane().getName());
+        values.put("attempts", m.getAttempts());
+        values.put("result_code", m.getResultCode());
+        values.put("created_at", m.getCreatedAt());
+        values.put("failed_at", failedAt);
+        return submit(db -> db.insertWithOnConflict(DEAD_LETTERS, null, values, SQLiteDatabase.CONFLICT_REPLACE));
+    }
+
+    /**
+     * Newest dead letters first, at most {@code limit}. Read on the writer
+     * thread, like {@link #loadUnfinished}, so the caller never waits on SQLite.
+     */
+    public CompletableFuture<List<DeadLetter>> loadDeadLetters(int limit) {
+        List<DeadLetter> letters = new ArrayList<>();
+        return submit(db -> readDeadLetters(db, limit, letters)).thenApply(ok -> letters);
+    }
+
+    private static void readDeadLetters(SQLiteDatabase db, int limit, List<DeadLetter> into) {
+        try (Cursor c = db.rawQuery(
+                "SELECT id, recipient, body, lane, attempts, result_code, created_at, failed_at FROM " + DEAD_LETTERS
+                        + " ORDER BY failed_at DESC LIMIT ?",
+                new String[] { Integer.toString(limit) })) {
+            while (c.moveToNext()) {
+                into.add(new DeadLetter(c.getString(0), c.getString(1), c.getString(2), c.getString(3),
+                        c.getInt(4), c.getInt(5), c.getLong(6), c.getLong(7)));
+            }
+        } catch (Exception e) {
+            // Caught here so a bad read does not roll back the writes batched with it
+            Log.e(TAG, "Could not read dead letters", e);
+        }
+    }
+
+    /** Deletes sent and failed rows that finished before {@code cutoff}, and dead letters past retention. */
+    public CompletableFuture<Boolean> compact(long cutoff) {
+        long deadLetterCutoff = System.currentTimeMillis() - DEAD_LETTER_RETENTION_MS;
+        return submit(db -> {
+            db.delete(TABLE, "state NOT IN (?, ?) AND completed_at < ?",
+                    new String[] { STATE_QUEUED, STATE_SENDING, Long.toString(cutoff) });
+            db.delete(DEAD_LETTERS, "failed_at < ? OR id NOT IN (SELECT id FROM " + DEAD_LETTERS
+                            + " ORDER BY failed_at DESC LIMIT " + MAX_DEAD_LETTERS + ")",
+                    new String[] { Long.toString(deadLetterCutoff) });
+        });
+    }
+
+    /**
+     * Reads the rows left unfinished by an earlier process, oldest first. The
+     * read runs on the writer thread, so it stays off the caller's thread and
+     * sees none of the writes submitted after it. Call once at startup, before
+     * anything new is appended.
+     */
+    public CompletableFuture<Unfinished> loadUnfinished() {
+        Unfinished unfinished = new Unfinished();
+        return submit(db -> readUnfinished(db, unfinished)).thenApply(ok -> unfinished);
+    }
+
+    private static void readUnfinished(SQLiteDatabase db, Unfinished into) {
+        try (Cursor c = db.rawQuery(
+                "SELECT id, recipient, body, sim_slot, parts, created_at, state, lane, not_before, expires_at, attempts, otp FROM " + TABLE
+                        + " WHERE state IN (?, ?) ORDER BY created_at",
+                new String[] { STATE_QUEUED, STATE_SENDING })) {
+            while (c.moveToNext()) {
+                OutboundMessage.Lane lane = OutboundMessage.Lane.parse(c.getString(7), OutboundMessage.Lane.OTP);
+                OutboundMessage m = new OutboundMessage(c.getString(0), c.getString(1), c.getString(2),
+                        c.isNull(3) ? null : c.getInt(3), lane != null ? lane : OutboundMessage.Lane.OTP,
+                        c.getInt(11) != 0, c.getInt(4), c.getLong(5), c.getLong(8), c.getLong(9));
+                m.setAttempts(c.getInt(10));
+                (STATE_SENDING.equals(c.getString(6)) ? into.interrupted : into.queued).add(m);
+            }
+        } catch (Exception e) {
+            // Caught here so a bad read does not roll back the writes batched with it
+            Log.e(TAG, "Could not read the outbound journal", e);
+        }
+    }
+
+    private CompletableFuture<Boolean> submit(Write write) {
+        Op op = new Op(write);
+        ops.add(op);
+        return op.done;
+    }
+
+    private void runWriter() {
+        List<Op> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(ops.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            ops.drainTo(batch, MAX_BATCH - 1);
+            boolean ok = false;
+            try {
+                SQLiteDatabase db = getWritableDatabase();
+                db.beginTransaction();
+                try {
+                    for (Op op : batch) op.write.apply(db);
+                    db.setTransactionSuccessful();
+                    ok = true;
+                } finally {
+                    db.endTransaction();
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Outbound journal commit of " + batch.size() + " writes failed", e);
+            }
+            for (Op op : batch) op.done.complete(ok);
+            batch.clear();
+        }
+    }
+
+    /** Rows an earlier process left queued, and those it left sending. */
+    public static final class Unfinished {
+        public final List<OutboundMessage> queued = new ArrayList<>();
+        public final List<OutboundMessage> interrupted = new ArrayList<>();
+    }
+
+    /** One message that failed for good. */
+    public static final class DeadLetter {
+        public final String id;
+        public final String recipient;
+        public final String body;
+        public final String lane;
+        public final int attempts;
+        public final int resultCode;
+        public final long createdAt;
+        public final long failedAt;
+
+        DeadLetter(String id, String recipient, String body, String lane, int attempts, int resultCode,
+                   long createdAt, long failedAt) {
+            this.id = id;
+            this.recipient = recipient;
+            this.body = body;
+            this.lane = lane;
+            this.attempts = attempts;
+            this.resultCode = resultCode;
+            this.createdAt = createdAt;
+            this.failedAt = failedAt;
+        }
+    }
+
+    private interface Write {
+        void apply(SQLiteDatabase db);
+    }
+
+    private static final class Op {
+        final Write write;
+        final CompletableFuture<Boolean> done = new CompletableFuture<>();
+
+        Op(Write write) {
+            this.write = write;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.techtorio.smswebhook;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One SMS admitted to the {@link OutboundDispatcher}. The id is handed back to
+ * the caller so the outcome can be looked up later via {@code /status/{id}}.
+ * SENT and FAILED reflect the radio's sent result, not just the submission.
+ * A message with an expiry that passes before it is sent ends EXPIRED; one
+ * with a not-before time waits outside the send queue until then.
+ */
+public class OutboundMessage {
+    public enum State { QUEUED, SENDING, SENT, FAILED, SUPERSEDED, EXPIRED }
+
+    /** Send priority, highest first; see {@link LaneQueue}. */
+    public enum Lane {
+        OTP, TRANSACTIONAL, BULK;
+
+        /** Lower-case name as used over HTTP and in the journal. */
+        public String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        /** The lane named {@code name} (case-insensitive), {@code fallback} if blank, or null if unknown. */
+        public static Lane parse(String name, Lane fallback) {
+            if (name == null || name.trim().isEmpty()) return fallback;
+            for (Lane lane : values()) {
+                if (lane.name().equalsIgnoreCase(name.trim())) return lane;
+            }
+            return null;
+        }
+    }
+
+    private final String id;
+    private final String to;
+    private final String body;
+    private final Integer simSlot;
+    private final Lane lane;
+    private final boolean otp;
+    private final long createdAt;
+    private final long notBefore;
+    private final long expiresAt;
+    private volatile TimingWheel.Timeout expiry;
+    private volatile long queuedAtNanos;
+    private volatile int parts;
+    private volatile State state = State.QUEUED;
+    private volatile long completedAt;
+    private volatile int resultCode;
+    private volatile int attempts;
+    private volatile SmsOutcome.Status delivery;
+    private volatile String supersededBy;
+    private final CompletableFuture<OutboundMessage> completion = new CompletableFuture<>();
+    private final CompletableFuture<Boolean> persisted = new CompletableFuture<>();
+
+    /**
+     * {@code otp} marks a message carrying a one-time code, which a newer code
+     * to the same number makes worthless. {@code notBefore} and
+     * {@code expiresAt} are epoch millis, 0 for none.
+     */
+    public OutboundMessage(String id, String to, String body, Integer simSlot, Lane lane, boolean otp, int parts,
+                           long createdAt, long notBefore, long expiresAt) {
+        this.id = id;
+        this.to = to;
+        this.body = body;
+        this.simSlot = simSlot;
+        this.lane = lane;
+        this.otp = otp;
+        this.parts = parts;
+        this.createdAt = createdAt;
+        this.notBefore = notBefore;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public Integer getSimSlot() {
+        return simSlot;
+    }
+
+    public Lane getLane() {
+        return lane;
+    }
+
+    /** True when the body carries a one-time code; only these are superseded by a newer one. */
+    public boolean isOtp() {
+        return otp;
+    }
+
+    /** SMS parts: predicted at admission, then the count actually handed to the radio. */
+    public int getParts() {
+        return parts;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /** Earliest send time in epoch millis, 0 for immediately. */
+    public long getNotBefore() {
+        return notBefore;
+    }
+
+    /** Time after which the message is dropped instead of sent, 0 for never. */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public boolean isExpiredAt(long now) {
+        return expiresAt > 0 && now >= expiresAt;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /** Lower-case state name as reported over HTTP. */
+    public String getStatus() {
+        return state.name().toLowerCase(Locale.ROOT);
+    }
+
+    public long getCompletedAt() {
+        return completedAt;
+    }
+
+    /** Sends started so far, including retries. */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /** Radio result code when the send failed. */
+    public int getResultCode() {
+        return resultCode;
+    }
+
+    /** DELIVERED, UNDELIVERED or TIMED_OUT once known; null while delivery is pending. */
+    public SmsOutcome.Status getDelivery() {
+        return delivery;
+    }
+
+    /** Lower-case delivery status as reported over HTTP; "pending" until known. */
+    public String getDeliveryStatus() {
+        SmsOutcome.Status d = delivery;
+        return d == null ? "pending" : d.name().toLowerCase(Locale.ROOT);
+    }
+
+    /** Id of the newer OTP to the same recipient that replaced this one before it was sent. */
+    public String getSupersededBy() {
+        return supersededBy;
+    }
+
+    public boolean isDone() {
+        State s = state;
+        return s == State.SENT || s == State.FAILED || s == State.SUPERSEDED || s == State.EXPIRED;
+    }
+
+    /** Completes once the message reached a final state. */
+    public CompletableFuture<OutboundMessage> completion() {
+        return completion;
+    }
+
+    /** Completes once the message is in the {@link OutboundJournal}; false if that write failed. */
+    public CompletableFuture<Boolean> persisted() {
+        return persisted;
+    }
+
+    /** When this process put the message on its lane, by {@link System#nanoTime()}. */
+    long getQueuedAtNanos() {
+        return queuedAtNanos;
+    }
+
+    void markQueued(long nanos) {
+        queuedAtNanos = nanos;
+    }
+
+    void setExpiry(TimingWheel.Timeout expiry) {
+        this.expiry = expiry;
+    }
+
+    /** Moves a queued message to sending; false if it expired or was superseded meanwhile. */
+    synchronized boolean markSending() {
+        if (state != State.QUEUED) return false;
+        state = State.SENDING;
+        attempts++;
+        TimingWheel.Timeout t = expiry;
+        if (t != null) t.cancel();
+        return true;
+    }
+
+    /** Undoes {@link #markSending} for a send that never reached the radio. */
+    synchronized void unmarkSending() {
+        if (state != State.SENDING) return;
+        state = State.QUEUED;
+        attempts--;
+    }
+
+    /** Puts a failed send back to queued for a retry, keeping the last result code. */
+    synchronized void retry(int resultCode) {
+        this.resultCode = resultCode;
+        state = State.QUEUED;
+    }
+
+    /** Restores the attempt count of a message recovered from the journal. */
+    void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    synchronized void complete(SmsOutcome outcome, long now) {
+        parts = outcome.getParts();
+        resultCode = outcome.getResultCode();
+        completedAt = now;
+        state = outcome.isSent() ? State.SENT : State.FAILED;
+        completion.complete(this);
+    }
+
+    /** False if the message already left the queue. */
+    synchronized boolean supersede(String byId, long now) {
+        if (state != State.QUEUED) return false;
+        supersededBy = byId;
+        completedAt = now;
+        state = State.SUPERSEDED;
+        completion.complete(this);
+        TimingWheel.Timeout t = expiry;
+        if (t != null) t.cancel();
+        return true;
+    }
+
+    /** Ends a still-queued message as expired; false if it already left the queue. */
+    synchronized boolean expire(long now) {
+        if (state != State.QUEUED) return false;
+        completedAt = now;
+        state = State.EXPIRED;
+        completion.complete(this);
+        return true;
+    }
+
+    /**
+     * Parses an epoch timestamp in seconds or milliseconds (as X-Timestamp is);
+     * 0 when blank, -1 when malformed.
+     */
+    static long parseEpochMillis(String value) {
+        if (value == null || value.trim().isEmpty()) return 0;
+        try {
+            long ts = new BigDecimal(value.trim()).longValue();
+            if (ts <= 0) return -1;
+            return ts < 100_000_000_000L ? ts * 1000L : ts;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Expiry from an absolute {@code expiresAt} or a {@code ttl} in seconds,
+     * whichever is sooner; 0 when neither is given, -1 when either is malformed.
+     */
+    static long expiryOf(String expiresAt, String ttlSeconds, long now) {
+        long absolute = parseEpochMillis(expiresAt);
+        if (absolute < 0) return -1;
+        long relative = 0;
+        if (ttlSeconds != null && !ttlSeconds.trim().isEmpty()) {
+            try {
+                long ttl = new BigDecimal(ttlSeconds.trim()).longValue();
+                if (ttl <= 0) return -1;
+                relative = now + ttl * 1000L;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        if (absolute == 0) return relative;
+        return relative == 0 ? absolute : Math.min(absolute, relative);
+    }
+
+    void completeDelivery(SmsOutcome outcome) {
+        delivery = outcome.getStatus();
+    }
+}
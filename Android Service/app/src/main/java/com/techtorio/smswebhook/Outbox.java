@@ -0,0 +1,30 @@
+package com.techtorio.smswebhook;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * What the LAN endpoints need from the outbound side: admission, capacity
+ * checks and status lookups. {@link OutboundDispatcher} is the implementation;
+ * tests of {@link OtpRequestHandler} queue into a fake one.
+ */
+interface Outbox {
+    /** See {@link OutboundDispatcher#submit}; null when {@code lane} is full. */
+    OutboundMessage submit(String to, String body, Integer simSlot, OutboundMessage.Lane lane, boolean otp,
+                           int parts, long notBefore, long expiresAt);
+
+    /** False when a submit on {@code lane} would currently be refused. */
+    boolean hasCapacity(OutboundMessage.Lane lane);
+
+    /** False when every lane is full. */
+    boolean hasCapacity();
+
+    /** Returns the tracked message, or null if unknown or already pruned. */
+    OutboundMessage get(String id);
+
+    /** Completes with the message once it is done, or with its current state after {@code timeoutMs}. */
+    CompletableFuture<OutboundMessage> awaitCompletion(OutboundMessage message, long timeoutMs);
+
+    /** Failed messages, newest first, at most {@code limit}. */
+    CompletableFuture<List<OutboundJournal.DeadLetter>> getDeadLetters(int limit);
+}
@@ -1,20 +1,25 @@
 package com.techtorio.smswebhook;
 
+/**
+ * Brings a recipient number to E.164 ("+" then country code and number), the
+ * one form the rest of the gateway compares and routes on. A number written
+ * with "+" or the 00 international prefix already carries its country code; a
+ * leading trunk 0 is replaced by the default country code, and bare digits get
+ * it in front unless they already start with it.
+ */
 public class PhoneNormalizer {
     public static String normalizePhone(String input, String defaultCountryCode) {
         if (input == null) return "";
         String trimmed = input.trim();
-        // Already E.164
-        if (trimmed.startsWith("+")) {
-            return trimmed.replaceAll("[^+0-9]", "");
-        }
         String digits = trimmed.replaceAll("[^0-9]", "");
         if (digits.isEmpty()) return "";
-        if (defaultCountryCode != null && defaultCountryCode.startsWith("+")) {
-            return defaultCountryCode + digits;
-        }
-        return "+" + digits;
+        // Already E.164
+        if (trimmed.startsWith("+")) return "+" + digits;
+        if (digits.startsWith("00")) return "+" + digits.substring(2);
+        String country = defaultCountryCode == null ? "" : defaultCountryCode.replaceAll("[^0-9]", "");
+        if (country.isEmpty()) return "+" + digits;
+        if (digits.charAt(0) == '0') return "+" + country + digits.substring(1);
+        if (digits.startsWith(country)) return "+" + digits;
+        return "+" + country + digits;
     }
 }
-
-
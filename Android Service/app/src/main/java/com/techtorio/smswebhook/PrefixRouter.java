@@ -0,0 +1,113 @@
+package com.techtorio.smswebhook;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Longest-prefix match from destination number to SIM slot, so a message goes
+ * out on a SIM of the recipient's own operator where one is configured
+ * (on-net SMS is faster and usually cheaper).
+ *
+ * Routes come from the {@code sim_routes} preference, e.g.
+ * {@code "+92300:0,+92301:0,+92333:1"}. A prefix may be written in any form
+ * {@link PhoneNormalizer} accepts ({@code "0300"} with default country code +92
+ * is {@code +92300}); numbers are looked up in the E.164 form it produces. The
+ * routes are compiled into a flat digit trie, so a lookup reads one array cell
+ * per digit and allocates nothing.
+ */
+public final class PrefixRouter {
+    private static final String TAG = "PrefixRouter";
+    private static final int NONE = -1;
+
+    static final PrefixRouter EMPTY = new PrefixRouter(new int[10], new int[] { NONE });
+
+    // children[node * 10 + digit] is the child node, 0 for none (the root is never a child)
+    private final int[] children;
+    // Slot routed at each node, NONE if no prefix ends there
+    private final int[] slots;
+
+    private PrefixRouter(int[] children, int[] slots) {
+        this.children = children;
+        this.slots = slots;
+    }
+
+    /** Compiles {@code "prefix:slot,..."}; malformed entries are logged and skipped. */
+    public static PrefixRouter parse(String routes, String defaultCountryCode) {
+        if (routes == null || routes.trim().isEmpty()) return EMPTY;
+        int[] children = new int[10 * 16];
+        int[] slots = new int[16];
+        Arrays.fill(slots, NONE);
+        int nodes = 1;
+        for (String entry : routes.split(",")) {
+            int colon = entry.lastIndexOf(':');
+            String prefix = colon > 0 ? digits(PhoneNormalizer.normalizePhone(entry.substring(0, colon), defaultCountryCode)) : "";
+            int slot;
+            try {
+                slot = colon > 0 ? Integer.parseInt(entry.substring(colon + 1).trim()) : NONE;
+            } catch (NumberFormatException e) {
+                slot = NONE;
+            }
+            if (prefix.isEmpty() || slot < 0) {
+                if (!entry.trim().isEmpty()) Log.w(TAG, "Ignoring SIM route '" + entry.trim() + "'");
+                continue;
+            }
+            int node = 0;
+            for (int i = 0; i < prefix.length(); i++) {
+                int cell = node * 10 + (prefix.charAt(i) - '0');
+                if (children[cell] == 0) {
+                    if (nodes == slots.length) {
+                        slots = Arrays.copyOf(slots, nodes * 2);
+                        Arrays.fill(slots, nodes, slots.length, NONE);
+                        children = Arrays.copyOf(children, nodes * 2 * 10);
+                    }
+                    children[cell] = nodes++;
+                }
+                node = children[cell];
+            }
+            slots[node] = slot;
+        }
+        return new PrefixRouter(Arrays.copyOf(children, nodes * 10), Arrays.copyOf(slots, nodes));
+    }
+
+    /**
+     * Slot of the longest configured prefix of {@code number}, an E.164 number
+     * as {@link PhoneNormalizer} gives it, or null when none matches.
+     */
+    public Integer route(String number) {
+        int slot = lookup(number);
+        return slot == NONE ? null : slot;
+    }
+
+    /** As {@link #route}, returning -1 instead of null. */
+    int lookup(String number) {
+        if (number == null || slots.length == 1) return NONE;
+        int node = 0;
+        int best = NONE;
+        for (int i = 0, n = number.length(); i < n; i++) {
+            char c = number.charAt(i);
+            if (!isDigit(c)) continue;
+            node = children[node * 10 + (c - '0')];
+            if (node == 0) break;
+            if (slots[node] != NONE) best = slots[node];
+        }
+        return best;
+    }
+
+    public boolean isEmpty() {
+        return slots.length == 1;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static String digits(String s) {
+        if (s == null) return "";
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            if (isDigit(s.charAt(i))) sb.append(s.charAt(i));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,313 @@
+package com.techtorio.smswebhook;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sliding-window rate limiter for outbound OTPs: a per-number limit plus a
+ * device-wide limit. Numbers are spread over independently locked stripes so
+ * concurrent requests for different numbers do not contend, and each window is
+ * a primitive {@code long[]} ring sized to its limit. The device window is
+ * shared by every number, so it is a lock-free ring claimed by CAS rather than
+ * a lock that every stripe would queue on.
+ *
+ * Memory is bounded: every stripe is an access-ordered LRU capped at
+ * {@code maxKeys / STRIPES} entries, and entries whose window has fully expired
+ * are swept from the cold end as new numbers arrive.
+ */
+public class RateLimiter {
+    private static final int STRIPES = 16;
+    // Ring sizes are clamped so a misconfigured limit cannot blow up memory
+    private static final int MAX_PER_NUMBER_LIMIT = 1_000;
+    private static final int MAX_PER_DEVICE_LIMIT = 100_000;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final AtomicReference<DeviceWindow> device = new AtomicReference<>();
+    private volatile Limits limits;
+
+    public RateLimiter(int perNumberLimit, long perNumberWindowMs, int perDeviceLimit, long perDeviceWindowMs, int maxKeys) {
+        limits = new Limits(perNumberLimit, perNumberWindowMs, perDeviceLimit, perDeviceWindowMs);
+        int perStripe = Math.max(1, maxKeys / STRIPES);
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe(perStripe);
+    }
+
+    /**
+     * Applies new limits. A window whose capacity no longer matches its limit is
+     * recreated on next use, which forgets that key's history.
+     */
+    public void configure(int perNumberLimit, long perNumberWindowMs, int perDeviceLimit, long perDeviceWindowMs) {
+        Limits next = new Limits(perNumberLimit, perNumberWindowMs, perDeviceLimit, perDeviceWindowMs);
+        Limits current = limits;
+        if (current.perNumber == next.perNumber && current.perNumberWindowMs == next.perNumberWindowMs
+                && current.perDevice == next.perDevice && current.perDeviceWindowMs == next.perDeviceWindowMs) {
+            return;
+        }
+        limits = next;
+    }
+
+    /**
+     * Records one send for {@code number} if both the number and the device are
+     * under their limits. Nothing is recorded when either limit rejects.
+     */
+    public boolean tryAcquire(String number, long now) {
+        return tryAcquire(number, 1, now);
+    }
+
+    /**
+     * Like {@link #tryAcquire(String, long)} for a message of {@code parts} SMS
+     * parts: the number is charged one send, the device one per part.
+     */
+    public boolean tryAcquire(String number, int parts, long now) {
+        return acquire(number, parts, now) != null;
+    }
+
+    /**
+     * Like {@link #tryAcquire(String, int, long)}, but returns the recorded send
+     * so it can be {@link #refund refunded} if the message is then not queued;
+     * null when a limit rejects.
+     */
+    public Permit acquire(String number, int parts, long now) {
+        Limits l = limits;
+        DeviceWindow d = l.perDevice > 0 ? device(l.perDevice) : null;
+        if (l.perNumber <= 0) {
+            long seq = d == null ? -1 : d.tryAcquire(parts, now, now - l.perDeviceWindowMs);
+            return d == null || seq >= 0 ? new Permit(null, null, d, seq, parts, now) : null;
+        }
+        Stripe stripe = stripes[spread(number.hashCode()) & (STRIPES - 1)];
+        synchronized (stripe) {
+            Window w = stripe.window(number, l.perNumber, l.perNumberWindowMs, now);
+            if (!w.canAdd(now, l.perNumberWindowMs)) return null;
+            // The device claim is a CAS, so stripes never wait on each other here
+            long seq = d == null ? -1 : d.tryAcquire(parts, now, now - l.perDeviceWindowMs);
+            if (d != null && seq < 0) return null;
+            w.add(now);
+            return new Permit(number, w, d, seq, parts, now);
+        }
+    }
+
+    /**
+     * Takes back a send recorded by {@link #acquire} that was never made, so
+     * the caller's retry is not charged twice. The number's window forgets it
+     * outright; on the device window it is undone when no later send was
+     * claimed, and otherwise stops counting, which frees its place once the
+     * ring comes round to it.
+     */
+    public void refund(Permit permit) {
+        if (permit.window != null) {
+            Stripe stripe = stripes[spread(permit.number.hashCode()) & (STRIPES - 1)];
+            synchronized (stripe) {
+                // A window recreated since then never held this send
+                if (stripe.get(permit.number) == permit.window) permit.window.remove(permit.stamp);
+            }
+        }
+        if (permit.device != null) permit.device.refund(permit.deviceSeq, permit.parts);
+    }
+
+    private DeviceWindow device(int limit) {
+        DeviceWindow d = device.get();
+        while (d == null || d.capacity() != limit) {
+            DeviceWindow fresh = new DeviceWindow(limit);
+            if (device.compareAndSet(d, fresh)) return fresh;
+            d = device.get();
+        }
+        return d;
+    }
+
+    /** Number of per-number windows currently held. */
+    public int trackedKeys() {
+        int n = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                n += s.size();
+            }
+        }
+        return n;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    /** One send recorded by {@link #acquire}. */
+    public static final class Permit {
+        final String number;
+        final Window window;
+        final DeviceWindow device;
+        final long deviceSeq;
+        final int parts;
+        final long stamp;
+
+        Permit(String number, Window window, DeviceWindow device, long deviceSeq, int parts, long stamp) {
+            this.number = number;
+            this.window = window;
+            this.device = device;
+            this.deviceSeq = deviceSeq;
+            this.parts = parts;
+            this.stamp = stamp;
+        }
+    }
+
+    private static final class Limits {
+        final int perNumber;
+        final long perNumberWindowMs;
+        final int perDevice;
+        final long perDeviceWindowMs;
+
+        Limits(int perNumber, long perNumberWindowMs, int perDevice, long perDeviceWindowMs) {
+            this.perNumber = Math.min(perNumber, MAX_PER_NUMBER_LIMIT);
+            this.perNumberWindowMs = perNumberWindowMs;
+            this.perDevice = Math.min(perDevice, MAX_PER_DEVICE_LIMIT);
+            this.perDeviceWindowMs = perDeviceWindowMs;
+        }
+    }
+
+    private static final class Stripe extends LinkedHashMap<String, Window> {
+        private final int maxEntries;
+
+        Stripe(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        Window window(String key, int limit, long windowMs, long now) {
+            Window w = get(key);
+            if (w == null || w.capacity() != limit) {
+                if (w == null) evictIdle(now - windowMs);
+                w = new Window(limit);
+                put(key, w);
+            }
+            return w;
+        }
+
+        /** Drops expired windows from the least recently used end. */
+        private void evictIdle(long cutoff) {
+            Iterator<Window> it = values().iterator();
+            while (it.hasNext()) {
+                if (!it.next().isIdle(cutoff)) break;
+                it.remove();
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Window> eldest) {
+            return size() > maxEntries;
+        }
+    }
+
+    /** Ring of the last {@code capacity} send timestamps. */
+    private static final class Window {
+        private final long[] stamps;
+        private int next;
+        private int count;
+
+        Window(int capacity) {
+            stamps = new long[capacity];
+        }
+
+        int capacity() {
+            return stamps.length;
+        }
+
+        /** True if fewer than capacity sends happened within the window ending at now. */
+        boolean canAdd(long now, long windowMs) {
+            // When full, stamps[next] is the oldest entry
+            return count < stamps.length || stamps[next] < now - windowMs;
+        }
+
+        void add(long now) {
+            stamps[next] = now;
+            next = (next + 1) % stamps.length;
+            if (count < stamps.length) count++;
+        }
+
+        /** Forgets the newest send stamped {@code stamp}, moving newer ones back into its place. */
+        void remove(long stamp) {
+            int len = stamps.length;
+            for (int k = 1; k <= count; k++) {
+                int i = (next - k + len) % len;
+                if (stamps[i] != stamp) continue;
+                int newest = (next - 1 + len) % len;
+                for (int j = i; j != newest; j = (j + 1) % len) stamps[j] = stamps[(j + 1) % len];
+                next = newest;
+                count--;
+                return;
+            }
+        }
+
+        boolean isIdle(long cutoff) {
+            if (count == 0) return true;
+            int newest = (next - 1 + stamps.length) % stamps.length;
+            return stamps[newest] < cutoff;
+        }
+    }
+
+    /**
+     * Ring of the last {@code capacity} device-wide send stamps, claimed by
+     * advancing {@code seq} with CAS. The slot a claim overwrites holds the stamp
+     * from {@code capacity} sends earlier, so the claim fits only if that stamp
+     * has left the window.
+     */
+    private static final class DeviceWindow {
+        private final AtomicLongArray stamps;
+        // What each slot held before its latest claim, so a refund can put it back
+        private final AtomicLongArray overwritten;
+        private final AtomicLong seq = new AtomicLong();
+
+        DeviceWindow(int capacity) {
+            stamps = new AtomicLongArray(capacity);
+            overwritten = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) stamps.set(i, Long.MIN_VALUE);
+        }
+
+        int capacity() {
+            return stamps.length();
+        }
+
+        /**
+         * Claims {@code n} slots stamped {@code now} if they fit in the window;
+         * returns the first claimed sequence number, or -1.
+         */
+        long tryAcquire(int n, long now, long cutoff) {
+            int capacity = stamps.length();
+            if (n > capacity) return -1;
+            while (true) {
+                long s = seq.get();
+                // Stamps are in time order, so the newest slot to be overwritten decides
+                if (stamps.get(slot(s + n - 1)) >= cutoff) return -1;
+                if (seq.compareAndSet(s, s + n)) {
+                    for (int i = 0; i < n; i++) {
+                        int slot = slot(s + i);
+                        overwritten.set(slot, stamps.get(slot));
+                        stamps.set(slot, now);
+                    }
+                    return s;
+                }
+            }
+        }
+
+        /**
+         * Undoes the claim of {@code n} slots from {@code s}. The stamps they
+         * replaced go back first, so a claim racing the rollback sees the window
+         * as it was; if a later claim already moved past them, the rollback is
+         * refused and the slots are marked free instead.
+         */
+        void refund(long s, int n) {
+            long[] restored = new long[n];
+            for (int i = 0; i < n; i++) {
+                int slot = slot(s + i);
+                restored[i] = overwritten.get(slot);
+                stamps.set(slot, restored[i]);
+            }
+            if (seq.compareAndSet(s + n, s)) return;
+            for (int i = 0; i < n; i++) stamps.compareAndSet(slot(s + i), restored[i], Long.MIN_VALUE);
+        }
+
+        private int slot(long s) {
+            return (int) (s % stamps.length());
+        }
+    }
+}
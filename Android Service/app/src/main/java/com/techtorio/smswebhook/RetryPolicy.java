@@ -0,0 +1,50 @@
+package com.techtorio.smswebhook;
+
+import android.telephony.SmsManager;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether a failed send is tried again and after how long. Only
+ * results that say the message never left the phone are retried: no service,
+ * radio off, the send limit, a network reject or the modem asking for a retry.
+ * Anything else, including a generic failure or a sent result that never
+ * arrived, may have reached the recipient, and a second OTP is worse than none.
+ *
+ * Delays grow exponentially from {@link #BASE_DELAY_MS} up to
+ * {@link #MAX_DELAY_MS} with equal jitter, so SIMs recovering together do not
+ * get their retries back in one burst.
+ */
+public final class RetryPolicy {
+    private static final long BASE_DELAY_MS = 2_000L;
+    private static final long MAX_DELAY_MS = 60_000L;
+
+    private RetryPolicy() { }
+
+    public static boolean isRetryable(SmsOutcome outcome) {
+        if (outcome.getStatus() != SmsOutcome.Status.FAILED) return false;
+        switch (outcome.getResultCode()) {
+            case SmsManager.RESULT_ERROR_RADIO_OFF:
+            case SmsManager.RESULT_ERROR_NO_SERVICE:
+            case SmsManager.RESULT_ERROR_LIMIT_EXCEEDED:
+            case SmsManager.RESULT_RADIO_NOT_AVAILABLE:
+            case SmsManager.RESULT_NETWORK_REJECT:
+            case SmsManager.RESULT_RIL_SMS_SEND_FAIL_RETRY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** True when attempt number {@code attempts} failed with {@code outcome} and may run again. */
+    public static boolean shouldRetry(ConfigSnapshot cfg, SmsOutcome outcome, int attempts) {
+        return attempts < cfg.getMaxSendAttempts() && isRetryable(outcome);
+    }
+
+    /** Delay before the attempt after attempt number {@code attempts}: half fixed, half random. */
+    public static long backoffMs(int attempts) {
+        long ceiling = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(20, Math.max(0, attempts - 1)));
+        long half = ceiling / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+}
@@ -16,7 +16,7 @@ public class SMSReceiver extends BroadcastReceiver {
             return;
         }
 
-        ConfigurationManager configManager = new ConfigurationManager(context);
+        ConfigSnapshot configManager = ConfigSnapshot.get(context);
         LogManager logManager = new LogManager(context);
 
         if (!configManager.isConfigured()) {
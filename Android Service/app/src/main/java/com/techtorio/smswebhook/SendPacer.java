@@ -0,0 +1,146 @@
+package com.techtorio.smswebhook;
+
+import android.telephony.SmsManager;
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Adaptive send rate per SIM, in SMS parts per minute. Each SIM starts at the
+ * configured ceiling; every sent message adds {@link #INCREASE_PER_SUCCESS}
+ * back, and a carrier pushback result (limit exceeded, network reject, generic
+ * failure) halves it, down to the configured floor.
+ *
+ * The ceiling is both where a SIM starts and the cap on the increase, so
+ * additive increase only moves the rate after a cut: this backs off from the
+ * configured rate under pushback and climbs back to it, it does not probe for
+ * a rate above it.
+ *
+ * Messages already handed to the radio report the same congestion, so the rate
+ * is cut at most once per {@link #DECREASE_HOLD_MS}. Failures that say nothing
+ * about the carrier's load, such as no service or radio off, leave it alone.
+ */
+public class SendPacer {
+    private static final String TAG = "SendPacer";
+    private static final double INCREASE_PER_SUCCESS = 1.0;
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final long DECREASE_HOLD_MS = 5_000L;
+
+    // Slot index (or -1 for the default SmsManager) -> pacing state
+    private final ConcurrentHashMap<Integer, Lane> lanes = new ConcurrentHashMap<>();
+
+    /**
+     * Milliseconds until {@code slot} may send again, 0 when it may send now or
+     * pacing is off. Reserves nothing, so a sender can look for a free SIM
+     * instead of waiting on a busy one.
+     */
+    public long millisUntilReady(ConfigSnapshot cfg, Integer slot, long now) {
+        if (!cfg.isAdaptivePacingEnabled()) return 0;
+        Lane lane = lane(cfg, slot);
+        synchronized (lane) {
+            return Math.max(0, lane.nextAt - now);
+        }
+    }
+
+    /**
+     * Reserves the next send slot for {@code parts} parts on {@code slot} and
+     * returns how long to wait before sending, 0 when pacing is off.
+     */
+    public long reserve(ConfigSnapshot cfg, Integer slot, int parts, long now) {
+        if (!cfg.isAdaptivePacingEnabled()) return 0;
+        Lane lane = lane(cfg, slot);
+        synchronized (lane) {
+            lane.clamp(cfg);
+            long start = Math.max(now, lane.nextAt);
+            lane.nextAt = start + (long) (parts * 60_000.0 / lane.rate);
+            return start - now;
+        }
+    }
+
+    /**
+     * Gives back a reservation of {@code parts} parts on {@code slot} whose send
+     * never happened, at the current rate.
+     */
+    public void release(ConfigSnapshot cfg, Integer slot, int parts) {
+        if (!cfg.isAdaptivePacingEnabled()) return;
+        Lane lane = lane(cfg, slot);
+        synchronized (lane) {
+            lane.nextAt -= (long) (parts * 60_000.0 / lane.rate);
+        }
+    }
+
+    /** Feeds the radio's sent result for a message of {@code parts} parts back into the rate. */
+    public void onResult(ConfigSnapshot cfg, Integer slot, SmsOutcome outcome, long now) {
+        if (!cfg.isAdaptivePacingEnabled()) return;
+        Lane lane = lane(cfg, slot);
+        double rate;
+        synchronized (lane) {
+            lane.clamp(cfg);
+            if (outcome.isSent()) {
+                lane.rate = Math.min(cfg.getPacingMaxPerMinute(), lane.rate + INCREASE_PER_SUCCESS);
+            } else if (isCarrierPushback(outcome) && now - lane.decreasedAt >= DECREASE_HOLD_MS) {
+                lane.rate = Math.max(cfg.getPacingMinPerMinute(), lane.rate * DECREASE_FACTOR);
+                lane.decreasedAt = now;
+                Log.w(TAG, "Carrier pushback (code " + outcome.getResultCode() + ") on slot " + key(slot)
+                        + ", pacing at " + Math.round(lane.rate) + " parts/min");
+            } else {
+                return;
+            }
+            rate = lane.rate;
+        }
+        GatewayMetrics.get().setPacingRate(key(slot), rate);
+    }
+
+    /** Current rate of {@code slot} in parts per minute, or the ceiling if it has not sent yet. */
+    public double getRatePerMinute(ConfigSnapshot cfg, Integer slot) {
+        Lane lane = lanes.get(key(slot));
+        if (lane == null) return cfg.getPacingMaxPerMinute();
+        synchronized (lane) {
+            return lane.rate;
+        }
+    }
+
+    static boolean isCarrierPushback(SmsOutcome outcome) {
+        if (outcome.getStatus() != SmsOutcome.Status.FAILED) return false;
+        switch (outcome.getResultCode()) {
+            case SmsManager.RESULT_ERROR_LIMIT_EXCEEDED:
+            case SmsManager.RESULT_ERROR_GENERIC_FAILURE:
+            case SmsManager.RESULT_NETWORK_REJECT:
+            case SmsManager.RESULT_RIL_SMS_SEND_FAIL_RETRY:
+            case SmsManager.RESULT_SMS_SEND_RETRY_FAILED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private Lane lane(ConfigSnapshot cfg, Integer slot) {
+        int key = key(slot);
+        Lane lane = lanes.get(key);
+        if (lane != null) return lane;
+        return lanes.computeIfAbsent(key, k -> {
+            GatewayMetrics.get().setPacingRate(k, cfg.getPacingMaxPerMinute());
+            return new Lane(cfg.getPacingMaxPerMinute());
+        });
+    }
+
+    private static int key(Integer slot) {
+        return slot == null || slot < 0 ? -1 : slot;
+    }
+
+    /** One SIM's rate and next free send time; guarded by itself. */
+    private static final class Lane {
+        double rate;
+        long nextAt;
+        long decreasedAt = Long.MIN_VALUE / 2;
+
+        Lane(double rate) {
+            this.rate = rate;
+        }
+
+        // Settings may have moved since the last send
+        void clamp(ConfigSnapshot cfg) {
+            rate = Math.max(cfg.getPacingMinPerMinute(), Math.min(cfg.getPacingMaxPerMinute(), rate));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.techtorio.smswebhook;
+
+/**
+ * Connection limits shared by both LAN server modes: a deadline per
+ * {@link HttpRequest.Phase}, requests per keep-alive connection and concurrent
+ * connections per remote address.
+ *
+ * Phase deadlines are measured from the moment the phase starts, so a client
+ * trickling one byte at a time cannot stretch a request indefinitely.
+ */
+public class ServerLimits {
+    private final long idleTimeoutMs;
+    private final long requestLineTimeoutMs;
+    private final long headersTimeoutMs;
+    private final long bodyTimeoutMs;
+    private final int maxRequestsPerConnection;
+    private final int maxConnectionsPerAddress;
+
+    public ServerLimits(long idleTimeoutMs, long requestLineTimeoutMs, long headersTimeoutMs, long bodyTimeoutMs,
+                        int maxRequestsPerConnection, int maxConnectionsPerAddress) {
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.requestLineTimeoutMs = requestLineTimeoutMs;
+        this.headersTimeoutMs = headersTimeoutMs;
+        this.bodyTimeoutMs = bodyTimeoutMs;
+        this.maxRequestsPerConnection = Math.max(1, maxRequestsPerConnection);
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+    }
+
+    /** Time allowed for {@code phase} once it has begun. */
+    public long timeoutFor(HttpRequest.Phase phase) {
+        switch (phase) {
+            case REQUEST_LINE: return requestLineTimeoutMs;
+            case HEADERS: return headersTimeoutMs;
+            case BODY: return bodyTimeoutMs;
+            default: return idleTimeoutMs;
+        }
+    }
+
+    public int getMaxRequestsPerConnection() {
+        return maxRequestsPerConnection;
+    }
+
+    /** Concurrent connections allowed from one address; 0 or less means unlimited. */
+    public int getMaxConnectionsPerAddress() {
+        return maxConnectionsPerAddress;
+    }
+}
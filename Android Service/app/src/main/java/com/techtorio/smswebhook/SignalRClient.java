@@ -20,6 +20,11 @@ import java.util.concurrent.CompletableFuture;
 
 public class SignalRClient {
     private static final String TAG = "SignalRClient";
+    // Hub redeliveries carrying the same idempotencyKey are dropped for this long
+    private static final int MAX_IDEMPOTENCY_KEYS = 10_000;
+    private static final long IDEMPOTENCY_TTL_MS = 15 * 60_000L;
+    // Hub messages without a template keep the historical wording, not the LAN one
+    private static final MessageTemplate DEFAULT_TEMPLATE = MessageTemplate.compile("Your OTP is {varOTP}");
     private static SignalRClient instance;
     private final Context context;
     private HubConnection hubConnection;
@@ -27,6 +32,7 @@ public class SignalRClient {
     // Simple log listeners for UI to subscribe and display logs
     public interface LogListener { void onLog(String message); }
     private final List<LogListener> listeners = new CopyOnWriteArrayList<>();
+    private final IdempotencyCache<Boolean> seenKeys = new IdempotencyCache<>(MAX_IDEMPOTENCY_KEYS, IDEMPOTENCY_TTL_MS);
 
     public void addLogListener(LogListener l) { if (l != null) listeners.add(l); }
     public void removeLogListener(LogListener l) { if (l != null) listeners.remove(l); }
@@ -59,7 +65,7 @@ public class SignalRClient {
             return;
         }
 
-        ConfigurationManager cfg = new ConfigurationManager(context);
+        ConfigSnapshot cfg = ConfigSnapshot.get(context);
         String hubUrl = cfg.getSignalRHubUrl();
         if (hubUrl == null || hubUrl.isEmpty()) {
             Log.w(TAG, "No hub URL configured; skipping SignalR connect. Configure Webhook URL in settings.");
@@ -85,6 +91,13 @@ public class SignalRClient {
                     String phone = null;
                     String otp = null;
                     String template = null;
+                    String templateId = null;
+                    String locale = null;
+                    String lane = null;
+                    String ttl = null;
+                    String expiresAt = null;
+                    String notBefore = null;
+                    String idempotencyKey = null;
 
                     // If SignalR delivered a Map-like object, extract keys directly
                     if (payload instanceof Map) {
@@ -92,9 +105,20 @@ public class SignalRClient {
                         Object p = map.get("phone");
                         Object o = map.get("otp");
                         Object t = map.get("template");
+                        Object k = map.get("idempotencyKey");
+                        Object ti = map.get("templateId");
+                        Object l = map.get("locale");
+                        Object ln = map.get("lane");
                         if (p != null) phone = p.toString();
                         if (o != null) otp = o.toString();
                         if (t != null) template = t.toString();
+                        if (k != null) idempotencyKey = k.toString();
+                        if (ti != null) templateId = ti.toString();
+                        if (l != null) locale = l.toString();
+                        if (ln != null) lane = ln.toString();
+                        if (map.get("ttl") != null) ttl = map.get("ttl").toString();
+                        if (map.get("expiresAt") != null) expiresAt = map.get("expiresAt").toString();
+                        if (map.get("notBefore") != null) notBefore = map.get("notBefore").toString();
                     } else if (payload instanceof String) {
                         // Try parse JSON string
                         String raw = (String) payload;
@@ -105,6 +129,13 @@ public class SignalRClient {
                                 if (obj.has("phone")) phone = obj.get("phone").getAsString();
                                 if (obj.has("otp")) otp = obj.get("otp").getAsString();
                                 if (obj.has("template")) template = obj.get("template").getAsString();
+                                if (obj.has("idempotencyKey")) idempotencyKey = obj.get("idempotencyKey").getAsString();
+                                if (obj.has("templateId")) templateId = obj.get("templateId").getAsString();
+                                if (obj.has("locale")) locale = obj.get("locale").getAsString();
+                                if (obj.has("lane")) lane = obj.get("lane").getAsString();
+                                if (obj.has("ttl")) ttl = obj.get("ttl").getAsString();
+                                if (obj.has("expiresAt")) expiresAt = obj.get("expiresAt").getAsString();
+                                if (obj.has("notBefore")) notBefore = obj.get("notBefore").getAsString();
                             }
                         } catch (Exception e) {
                             // fall through - will be logged below
@@ -119,29 +150,91 @@ public class SignalRClient {
                                 if (obj.has("phone")) phone = obj.get("phone").getAsString();
                                 if (obj.has("otp")) otp = obj.get("otp").getAsString();
                                 if (obj.has("template")) template = obj.get("template").getAsString();
+                                if (obj.has("idempotencyKey")) idempotencyKey = obj.get("idempotencyKey").getAsString();
+                                if (obj.has("templateId")) templateId = obj.get("templateId").getAsString();
+                                if (obj.has("locale")) locale = obj.get("locale").getAsString();
+                                if (obj.has("lane")) lane = obj.get("lane").getAsString();
+                                if (obj.has("ttl")) ttl = obj.get("ttl").getAsString();
+                                if (obj.has("expiresAt")) expiresAt = obj.get("expiresAt").getAsString();
+                                if (obj.has("notBefore")) notBefore = obj.get("notBefore").getAsString();
                             }
                         } catch (Exception e) {
                             // ignore
                         }
                     }
 
-                    if (otp != null && phone != null) {
-                        final String finalPhone = phone.replaceAll("[{}]", "");
-                        final String finalOtp = otp.replaceAll("[{}]", "");
-                        final String finalTemplate = template == null || template.isEmpty() ? "Your OTP is {varOTP}" : template;
-                        String message = finalTemplate.replace("{varOTP}", finalOtp);
+                    GatewayMetrics.get().recordSignalRReceive(otp != null && phone != null);
+                    TemplateRegistry templates = ConfigSnapshot.get(context).getTemplates();
+                    MessageTemplate compiled = template != null && !template.isEmpty() ? MessageTemplate.compile(template)
+                            : templateId != null && !templateId.isEmpty() ? templates.find(templateId, locale)
+                            : DEFAULT_TEMPLATE;
+                    OutboundMessage.Lane sendLane = OutboundMessage.Lane.parse(lane, OutboundMessage.Lane.OTP);
+                    long now = System.currentTimeMillis();
+                    long sendExpiresAt = OutboundMessage.expiryOf(expiresAt, ttl, now);
+                    long sendNotBefore = OutboundMessage.parseEpochMillis(notBefore);
+                    boolean keyed = idempotencyKey != null && !idempotencyKey.isEmpty();
+                    // Held while this delivery is submitted, so a redelivery meanwhile is still a duplicate
+                    CompletableFuture<Boolean> claimed = new CompletableFuture<>();
+                    if (compiled == null && otp != null && phone != null) {
+                        Log.w(TAG, "ReceiveOtp ignored, unknown templateId=" + templateId);
+                        notifyLog("Unknown template: " + templateId);
+                    } else if (sendLane == null && otp != null && phone != null) {
+                        Log.w(TAG, "ReceiveOtp ignored, unknown lane=" + lane);
+                        notifyLog("Unknown lane: " + lane);
+                    } else if ((sendExpiresAt < 0 || sendNotBefore < 0) && otp != null && phone != null) {
+                        Log.w(TAG, "ReceiveOtp ignored, malformed ttl/expiresAt/notBefore");
+                        notifyLog("Malformed OTP timing for " + phone);
+                    } else if (sendExpiresAt > 0 && sendExpiresAt <= Math.max(now, sendNotBefore) && otp != null && phone != null) {
+                        Log.w(TAG, "ReceiveOtp ignored, already expired");
+                        notifyLog("OTP for " + phone + " arrived already expired");
+                    } else if (keyed && otp != null && phone != null
+                            && seenKeys.claim(idempotencyKey, claimed, System.currentTimeMillis()) != null) {
+                        GatewayMetrics.get().recordIdempotentReplay();
+                        Log.i(TAG, "Duplicate ReceiveOtp ignored, idempotencyKey=" + idempotencyKey);
+                        notifyLog("Duplicate ReceiveOtp ignored: " + idempotencyKey);
+                    } else if (otp != null && phone != null) {
+                        boolean submitted = false;
+                        try {
+                            // Same E.164 form as the LAN endpoint, so SIM routes and OTP coalescing match
+                            final String finalPhone = PhoneNormalizer.normalizePhone(phone.replaceAll("[{}]", ""),
+                                    ConfigSnapshot.get(context).getDefaultCountryCode());
+                            final String finalOtp = otp.replaceAll("[{}]", "");
+                            SmsEncoder.Encoded encoded = SmsEncoder.prepare(ConfigSnapshot.get(context),
+                                    compiled.render(finalOtp, templates.getVariables()));
+                            if (encoded == null) {
+                                notifyLog("OTP for " + finalPhone + " rejected: over the segment limit");
+                                return;
+                            }
+                            String message = encoded.getText();
 
-                        Log.i(TAG, "Processing OTP - Phone: " + finalPhone + ", OTP: " + finalOtp + ", Message: " + message);
-                        notifyLog("Processing OTP for " + finalPhone + ": " + finalOtp);
+                            Log.i(TAG, "Processing OTP - Phone: " + finalPhone + ", OTP: " + finalOtp + ", Message: " + message);
+                            notifyLog("Processing OTP for " + finalPhone + ": " + finalOtp);
 
-                        Handler mainHandler = new Handler(Looper.getMainLooper());
-                        mainHandler.post(() -> {
-                            boolean ok = SmsSender.send(context, finalPhone, message, new ConfigurationManager(context).getPreferredSimSlot());
-                            String resultMsg = ok ? "OTP sent from device to " + finalPhone : "Failed to send OTP to " + finalPhone;
-                            Log.i(TAG, resultMsg);
-                            notifyLog(resultMsg);
-                            Toast.makeText(context, resultMsg, Toast.LENGTH_SHORT).show();
-                        });
+                            Handler mainHandler = new Handler(Looper.getMainLooper());
+                            // Through the journaled queue, so an OTP survives the service being killed
+                            OutboundMessage queued = OutboundDispatcher.getInstance(context).submit(finalPhone, message,
+                                    ConfigSnapshot.get(context).getPreferredSimSlot(), sendLane, compiled.carriesOtp(), encoded.getSegments(),
+                                    sendNotBefore, sendExpiresAt);
+                            if (queued == null) {
+                                GatewayMetrics.get().recordOutboundQueueRejected();
+                                notifyLog("Outbound queue full, OTP for " + finalPhone + " dropped");
+                                return;
+                            }
+                            submitted = true;
+                            claimed.complete(Boolean.TRUE);
+                            queued.completion().thenAcceptAsync(m -> {
+                                String resultMsg = m.getState() == OutboundMessage.State.SENT ? "OTP sent from device to " + finalPhone
+                                        : m.getState() == OutboundMessage.State.SUPERSEDED ? "OTP to " + finalPhone + " replaced by a newer one"
+                                        : m.getState() == OutboundMessage.State.EXPIRED ? "OTP to " + finalPhone + " expired before sending"
+                                        : "Failed to send OTP to " + finalPhone + " (code " + m.getResultCode() + ")";
+                                Log.i(TAG, resultMsg);
+                                notifyLog(resultMsg);
+                                Toast.makeText(context, resultMsg, Toast.LENGTH_SHORT).show();
+                            }, mainHandler::post);
+                        } finally {
+                            // Not queued, so the hub's redelivery must be able to try again
+                            if (keyed && !submitted) seenKeys.release(idempotencyKey, claimed);
+                        }
                     } else {
                         String errorMsg = "Received malformed ReceiveOtp payload - phone: " + phone + ", otp: " + otp;
                         Log.w(TAG, errorMsg);
@@ -162,6 +255,7 @@ public class SignalRClient {
                 Log.i(TAG, msg);
                 notifyLog(msg);
                 started = false;
+                GatewayMetrics.get().setSignalRConnected(false);
                 Handler mainHandler = new Handler(Looper.getMainLooper());
                 mainHandler.post(() -> {
                     Toast.makeText(context, "SignalR disconnected", Toast.LENGTH_SHORT).show();
@@ -177,7 +271,7 @@ public class SignalRClient {
                     
                     // After connect, invoke RegisterDevice with device id and phone number
                     String deviceId = Settings.Secure.getString(context.getContentResolver(), Settings.Secure.ANDROID_ID);
-                    ConfigurationManager cfgInner = new ConfigurationManager(context);
+                    ConfigSnapshot cfgInner = ConfigSnapshot.get(context);
                     // Use OTP-specific device phone if configured; fall back to general phone number for compatibility
                     String phoneNumber = cfgInner.getOtpDevicePhone();
                     if (phoneNumber == null || phoneNumber.isEmpty()) phoneNumber = cfgInner.getPhoneNumber();
@@ -188,6 +282,7 @@ public class SignalRClient {
                     notifyLog("SignalR connected. Registering device - ID: " + deviceId + ", Phone: " + phoneNumber);
                     hubConnection.send("RegisterDevice", deviceId, phoneNumber);
                     started = true;
+                    GatewayMetrics.get().setSignalRConnected(true);
                     
                     Handler mainHandler = new Handler(Looper.getMainLooper());
                     mainHandler.post(() -> {
@@ -200,6 +295,7 @@ public class SignalRClient {
                     Log.e(TAG, "SignalR start failed - URL: " + finalHubUrl, ex);
                     notifyLog("SignalR start failed: " + ex.getMessage());
                     started = false;
+                    GatewayMetrics.get().setSignalRConnected(false);
                     Handler mainHandler = new Handler(Looper.getMainLooper());
                     mainHandler.post(() -> {
                         Toast.makeText(context, "SignalR failed: " + ex.getMessage(), Toast.LENGTH_LONG).show();
@@ -220,6 +316,7 @@ public class SignalRClient {
             Log.w(TAG, "Error stopping SignalR connection", ex);
         }
         started = false;
+        GatewayMetrics.get().setSignalRConnected(false);
     }
 
     public boolean isStarted() { return started; }
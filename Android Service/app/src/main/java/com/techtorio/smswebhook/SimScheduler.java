@@ -0,0 +1,278 @@
+package com.techtorio.smswebhook;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.util.Log;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Spreads outbound SMS over the device's SIMs. Active subscriptions are cached
+ * and refreshed when the subscription list changes, so sending no longer asks
+ * SubscriptionManager every time.
+ *
+ * With load balancing on, {@link #acquire} picks a SIM by smooth weighted
+ * round-robin among those under their per-minute rate and daily cap (both in
+ * SMS parts). A SIM whose sends fail {@link #EJECT_AFTER_FAILURES} times in a row
+ * is skipped for a cooldown that doubles on each repeat; while every SIM is
+ * cooling down traffic still flows rather than stalling. Daily counts are kept
+ * per subscription in their own preferences file so a restart does not reset them.
+ */
+public class SimScheduler {
+    private static final String TAG = "SimScheduler";
+    private static final String USAGE_PREFS = "sim_usage";
+    private static final int EJECT_AFTER_FAILURES = 3;
+    private static final long BASE_COOLDOWN_MS = 30_000L;
+    private static final long MAX_COOLDOWN_MS = 10 * 60_000L;
+
+    private static SimScheduler instance;
+
+    private final Context context;
+    private final SharedPreferences usage;
+    // Slot index -> state, replaced wholesale on refresh; guarded by this
+    private Map<Integer, Sim> sims = Collections.emptyMap();
+    private volatile Map<Integer, Integer> subIdBySlot = Collections.emptyMap();
+    // Strongly held; SubscriptionManager keeps only a weak reference on some releases
+    private SubscriptionManager.OnSubscriptionsChangedListener listener;
+
+    private SimScheduler(Context context) {
+        this.context = context;
+        this.usage = context.getSharedPreferences(USAGE_PREFS, Context.MODE_PRIVATE);
+        refresh();
+        // The listener binds to the constructing thread's looper on older releases
+        new Handler(Looper.getMainLooper()).post(() -> {
+            SubscriptionManager sm = context.getSystemService(SubscriptionManager.class);
+            if (sm == null) return;
+            listener = new SubscriptionManager.OnSubscriptionsChangedListener() {
+                @Override
+                public void onSubscriptionsChanged() {
+                    refresh();
+                }
+            };
+            sm.addOnSubscriptionsChangedListener(listener);
+        });
+        GatewayMetrics.get().registerGauge("sim_active", "Active SIM subscriptions.", () -> subIdBySlot.size());
+    }
+
+    /** A scheduler over a fixed slot to subscription id map that never asks the system; for tests. */
+    SimScheduler(SharedPreferences usage, Map<Integer, Integer> subIdBySlot) {
+        this.context = null;
+        this.usage = usage;
+        update(subIdBySlot);
+    }
+
+    public static synchronized SimScheduler getInstance(Context ctx) {
+        if (instance == null) instance = new SimScheduler(ctx.getApplicationContext());
+        return instance;
+    }
+
+    /** Cached subscription id of {@code slot}, or INVALID_SUBSCRIPTION_ID. */
+    public int subscriptionIdForSlot(int slot) {
+        Integer subId = subIdBySlot.get(slot);
+        return subId != null ? subId : SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+    }
+
+    public synchronized boolean hasSims() {
+        return !sims.isEmpty();
+    }
+
+    /** False when {@code slot} holds no active SIM; true while the SIM list is unknown. */
+    public boolean isActive(int slot) {
+        Map<Integer, Integer> bySlot = subIdBySlot;
+        return bySlot.isEmpty() || bySlot.containsKey(slot);
+    }
+
+    /** Re-reads the active subscriptions, keeping health and usage of SIMs that remain. */
+    public void refresh() {
+        Map<Integer, Integer> bySlot = new HashMap<>();
+        try {
+            SubscriptionManager sm = context.getSystemService(SubscriptionManager.class);
+            List<SubscriptionInfo> infos = sm == null ? null : sm.getActiveSubscriptionInfoList();
+            if (infos != null) {
+                for (SubscriptionInfo info : infos) bySlot.put(info.getSimSlotIndex(), info.getSubscriptionId());
+            }
+        } catch (SecurityException e) {
+            Log.w(TAG, "READ_PHONE_STATE not granted; using the default SIM only");
+        }
+        update(bySlot);
+        Log.i(TAG, "Active SIM slots: " + bySlot.keySet());
+    }
+
+    private synchronized void update(Map<Integer, Integer> bySlot) {
+        Map<Integer, Sim> next = new HashMap<>();
+        for (Map.Entry<Integer, Integer> e : bySlot.entrySet()) {
+            Sim existing = sims.get(e.getKey());
+            next.put(e.getKey(), existing != null && existing.subId == e.getValue()
+                    ? existing : new Sim(e.getKey(), e.getValue()));
+        }
+        sims = next;
+        subIdBySlot = Collections.unmodifiableMap(new HashMap<>(bySlot));
+    }
+
+    /**
+     * Reserves capacity for a message of {@code parts} parts and returns the SIM to
+     * send it on, or null when every SIM is over its rate or daily cap or not
+     * {@code ready}. Never waits. The {@code routed} slot, when given, is taken
+     * whenever it is healthy and has room.
+     */
+    public synchronized Sim acquire(ConfigSnapshot cfg, int parts, long now, Integer routed, IntPredicate ready) {
+        long today = LocalDate.now().toEpochDay();
+        List<Sim> eligible = new ArrayList<>();
+        List<Sim> coolingDown = new ArrayList<>();
+        for (Sim sim : sims.values()) {
+            if (!sim.hasCapacity(cfg, parts, now, today) || !ready.test(sim.slot)) continue;
+            (sim.ejectedUntil > now ? coolingDown : eligible).add(sim);
+        }
+        if (routed != null) {
+            for (Sim sim : eligible) {
+                if (sim.slot != routed) continue;
+                sim.charge(cfg, parts, now, today);
+                return sim;
+            }
+        }
+        if (eligible.isEmpty()) eligible = coolingDown;
+        if (eligible.isEmpty()) return null;
+
+        Sim best = null;
+        int total = 0;
+        for (Sim sim : eligible) {
+            int weight = cfg.getSimWeight(sim.slot);
+            sim.current += weight;
+            total += weight;
+            if (best == null || sim.current > best.current) best = sim;
+        }
+        best.current -= total;
+        best.charge(cfg, parts, now, today);
+        return best;
+    }
+
+    /**
+     * Milliseconds until some SIM has room for {@code parts} parts and its
+     * {@code readyIn} wait has passed, or -1 when every SIM has reached its daily
+     * cap (or there is no SIM).
+     */
+    public synchronized long millisUntilAvailable(ConfigSnapshot cfg, int parts, long now, IntToLongFunction readyIn) {
+        long today = LocalDate.now().toEpochDay();
+        long best = -1;
+        for (Sim sim : sims.values()) {
+            long wait = sim.millisUntilRate(cfg, parts, now, today);
+            if (wait >= 0) wait = Math.max(wait, readyIn.applyAsLong(sim.slot));
+            if (wait >= 0 && (best < 0 || wait < best)) best = wait;
+        }
+        return best;
+    }
+
+    /** Returns the rate and daily capacity {@link #acquire} took for a send that never happened. */
+    public synchronized void release(ConfigSnapshot cfg, Sim sim, int parts) {
+        sim.refund(cfg, parts, LocalDate.now().toEpochDay());
+    }
+
+    /** Feeds a send outcome back into the SIM's health. */
+    public synchronized void report(Sim sim, boolean sent, long now) {
+        if (sent) {
+            sim.failures = 0;
+            sim.cooldownMs = BASE_COOLDOWN_MS;
+            return;
+        }
+        if (++sim.failures >= EJECT_AFTER_FAILURES) {
+            sim.ejectedUntil = now + sim.cooldownMs;
+            Log.w(TAG, "SIM slot " + sim.slot + " failed " + sim.failures + " sends in a row, resting " + sim.cooldownMs + " ms");
+            sim.cooldownMs = Math.min(MAX_COOLDOWN_MS, sim.cooldownMs * 2);
+            GatewayMetrics.get().recordSimEjected(sim.slot);
+        }
+    }
+
+    /** One active subscription with its rate bucket, daily count and health; guarded by the scheduler. */
+    public final class Sim {
+        private final int slot;
+        private final int subId;
+        private final String usageKey;
+        private int current;
+        private double tokens;
+        private long refilledAt;
+        private boolean bucketStarted;
+        private long day;
+        private int sentToday;
+        private int failures;
+        private long ejectedUntil;
+        private long cooldownMs = BASE_COOLDOWN_MS;
+
+        Sim(int slot, int subId) {
+            this.slot = slot;
+            this.subId = subId;
+            this.usageKey = "sub_" + subId;
+            this.day = usage.getLong(usageKey + "_day", 0);
+            this.sentToday = usage.getInt(usageKey + "_sent", 0);
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public int getSubscriptionId() {
+            return subId;
+        }
+
+        private boolean hasCapacity(ConfigSnapshot cfg, int parts, long now, long today) {
+            return underDailyCap(cfg, parts, today) && millisUntilRate(cfg, parts, now, today) == 0;
+        }
+
+        private boolean underDailyCap(ConfigSnapshot cfg, int parts, long today) {
+            int cap = cfg.getSimDailyCap();
+            int used = day == today ? sentToday : 0;
+            return cap <= 0 || used + parts <= cap;
+        }
+
+        /** 0 when the rate bucket has room now, the wait otherwise, -1 when over the daily cap. */
+        private long millisUntilRate(ConfigSnapshot cfg, int parts, long now, long today) {
+            if (!underDailyCap(cfg, parts, today)) return -1;
+            int perMinute = cfg.getSimRatePerMinute();
+            if (perMinute <= 0) return 0;
+            refill(perMinute, now);
+            // A message larger than the bucket waits for a full bucket and then runs it negative
+            double need = Math.min(parts, perMinute);
+            if (tokens >= need) return 0;
+            return (long) Math.ceil((need - tokens) * 60_000.0 / perMinute);
+        }
+
+        private void refill(int perMinute, long now) {
+            if (!bucketStarted) {
+                tokens = perMinute;
+                bucketStarted = true;
+            } else {
+                tokens = Math.min(perMinute, tokens + (now - refilledAt) * perMinute / 60_000.0);
+            }
+            refilledAt = now;
+        }
+
+        private void charge(ConfigSnapshot cfg, int parts, long now, long today) {
+            if (cfg.getSimRatePerMinute() > 0) tokens -= parts;
+            if (day != today) {
+                day = today;
+                sentToday = 0;
+            }
+            sentToday += parts;
+            usage.edit().putLong(usageKey + "_day", day).putInt(usageKey + "_sent", sentToday).apply();
+        }
+
+        private void refund(ConfigSnapshot cfg, int parts, long today) {
+            int perMinute = cfg.getSimRatePerMinute();
+            if (perMinute > 0) tokens = Math.min(perMinute, tokens + parts);
+            // A charge from before midnight already left with the old day's count
+            if (day != today) return;
+            sentToday = Math.max(0, sentToday - parts);
+            usage.edit().putInt(usageKey + "_sent", sentToday).apply();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.techtorio.smswebhook;
+
+import android.util.Log;
+
+import java.text.Normalizer;
+
+/**
+ * Predicts how the radio will encode and split a message and, when enabled,
+ * rewrites lookalike characters so the text stays in the GSM 7-bit alphabet.
+ *
+ * One character outside GSM-7 (a curly quote, an emoji) switches the whole
+ * message to UCS-2, cutting a segment from 160 to 70 characters. Extension
+ * table characters such as {@code €} or {@code [} stay GSM-7 but cost two septets.
+ */
+public final class SmsEncoder {
+    private static final String TAG = "SmsEncoder";
+
+    public static final int GSM7_SINGLE = 160;
+    public static final int GSM7_MULTIPART = 153;
+    public static final int UCS2_SINGLE = 70;
+    public static final int UCS2_MULTIPART = 67;
+
+    // 3GPP TS 23.038 default alphabet, minus the escape code
+    private static final String GSM7_BASIC = "@£$¥èéùìòÇ\nØø\rÅåΔ_ΦΓΛΩΠΨΣΘΞÆæßÉ !\"#¤%&'()*+,-./0123456789:;<=>?"
+            + "¡ABCDEFGHIJKLMNOPQRSTUVWXYZÄÖÑÜ§¿abcdefghijklmnopqrstuvwxyzäöñüà";
+    private static final String GSM7_EXTENSION = "\f^{}\\[~]|€";
+    // Septets per char below 0x100: 0 = not GSM-7, 1 = basic, 2 = extension
+    private static final byte[] LATIN1_WIDTH = new byte[0x100];
+
+    static {
+        for (int i = 0; i < GSM7_BASIC.length(); i++) {
+            char c = GSM7_BASIC.charAt(i);
+            if (c < 0x100) LATIN1_WIDTH[c] = 1;
+        }
+        for (int i = 0; i < GSM7_EXTENSION.length(); i++) {
+            char c = GSM7_EXTENSION.charAt(i);
+            if (c < 0x100) LATIN1_WIDTH[c] = 2;
+        }
+    }
+
+    private SmsEncoder() { }
+
+    /** Encoding outcome for one message. */
+    public static final class Encoded {
+        private final String text;
+        private final boolean gsm7;
+        private final int units;
+        private final int segments;
+        private final boolean transliterated;
+
+        Encoded(String text, boolean gsm7, int units, int segments, boolean transliterated) {
+            this.text = text;
+            this.gsm7 = gsm7;
+            this.units = units;
+            this.segments = segments;
+            this.transliterated = transliterated;
+        }
+
+        /** The text to send, after transliteration if that applied. */
+        public String getText() {
+            return text;
+        }
+
+        public boolean isGsm7() {
+            return gsm7;
+        }
+
+        /** Septets for GSM-7, UTF-16 code units for UCS-2. */
+        public int getUnits() {
+            return units;
+        }
+
+        public int getSegments() {
+            return segments;
+        }
+
+        public boolean isTransliterated() {
+            return transliterated;
+        }
+    }
+
+    public static Encoded analyze(String text) {
+        return encode(text, false);
+    }
+
+    /**
+     * Analyzes {@code text}, first transliterating it when asked to. The
+     * transliterated form is used only if it is entirely GSM-7; otherwise the
+     * message goes out as UCS-2 anyway and the original wording is kept.
+     */
+    public static Encoded encode(String text, boolean transliterate) {
+        int septets = gsm7Septets(text);
+        if (septets >= 0) return new Encoded(text, true, septets, gsm7Segments(text, septets), false);
+        if (transliterate) {
+            String mapped = transliterate(text);
+            septets = gsm7Septets(mapped);
+            if (septets >= 0) return new Encoded(mapped, true, septets, gsm7Segments(mapped, septets), true);
+        }
+        return new Encoded(text, false, text.length(), ucs2Segments(text), false);
+    }
+
+    /**
+     * The encoding stage in front of {@link SmsSender}: applies the configured
+     * transliteration and segment limit. Returns null when the message is over
+     * the limit and the policy is to reject; over-limit messages are otherwise
+     * logged and sent.
+     */
+    public static Encoded prepare(ConfigSnapshot cfg, String text) {
+        Encoded encoded = encode(text, cfg.isGsmTransliterationEnabled());
+        if (encoded.transliterated) GatewayMetrics.get().recordTransliterated();
+        int max = cfg.getMaxSegmentsPerMessage();
+        if (max > 0 && encoded.segments > max) {
+            boolean reject = cfg.isRejectOverMaxSegments();
+            GatewayMetrics.get().recordSegmentLimitExceeded(reject);
+            Log.w(TAG, (reject ? "Rejecting" : "Sending") + " message of " + encoded.segments + " segments ("
+                    + (encoded.gsm7 ? "GSM-7" : "UCS-2") + ", " + encoded.units + " units), limit " + max);
+            if (reject) return null;
+        }
+        return encoded;
+    }
+
+    /** Rewrites common non-GSM punctuation, spaces and accented letters to GSM-7 lookalikes. */
+    public static String transliterate(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (width(c) > 0) {
+                sb.append(c);
+                continue;
+            }
+            switch (c) {
+                case '‘': case '’': case '‚': case '‛': case '′': case '`': case '´':
+                    sb.append('\''); break;
+                case '“': case '”': case '„': case '‟': case '″': case '«': case '»':
+                    sb.append('"'); break;
+                case '‐': case '‑': case '‒': case '–': case '—': case '―': case '−':
+                    sb.append('-'); break;
+                case '…':
+                    sb.append("..."); break;
+                case '\t': case '\u00A0': case '\u2002': case '\u2003': case '\u2004': case '\u2005':
+                case '\u2006': case '\u2007': case '\u2008': case '\u2009': case '\u200A': case '\u202F':
+                    sb.append(' '); break;
+                case '\u200B': case '\u200C': case '\u200D': case '\u2060': case '\uFEFF':
+                    break;
+                case '•': case '×':
+                    sb.append(c == '•' ? '*' : 'x'); break;
+                case '·':
+                    sb.append('.'); break;
+                case 'ç':
+                    sb.append('Ç'); break;
+                default:
+                    sb.append(stripAccents(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Total septets, or -1 when some character is outside GSM-7. */
+    static int gsm7Septets(CharSequence text) {
+        int septets = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int w = width(text.charAt(i));
+            if (w == 0) return -1;
+            septets += w;
+        }
+        return septets;
+    }
+
+    // An escape sequence is never split across two parts, so count greedily
+    private static int gsm7Segments(CharSequence text, int septets) {
+        if (septets <= GSM7_SINGLE) return 1;
+        int segments = 1;
+        int used = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int w = width(text.charAt(i));
+            if (used + w > GSM7_MULTIPART) {
+                segments++;
+                used = 0;
+            }
+            used += w;
+        }
+        return segments;
+    }
+
+    // Likewise a surrogate pair stays in one part
+    private static int ucs2Segments(CharSequence text) {
+        if (text.length() <= UCS2_SINGLE) return 1;
+        int segments = 1;
+        int used = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int w = Character.isHighSurrogate(text.charAt(i)) && i + 1 < text.length() ? 2 : 1;
+            if (used + w > UCS2_MULTIPART) {
+                segments++;
+                used = 0;
+            }
+            used += w;
+            i += w - 1;
+        }
+        return segments;
+    }
+
+    private static int width(char c) {
+        if (c < 0x100) return LATIN1_WIDTH[c];
+        if (c == '€') return 2;
+        return GSM7_BASIC.indexOf(c) >= 0 ? 1 : 0;
+    }
+
+    private static String stripAccents(char c) {
+        String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char d = decomposed.charAt(i);
+            if (Character.getType(d) != Character.NON_SPACING_MARK) sb.append(d);
+        }
+        return sb.length() > 0 ? sb.toString() : String.valueOf(c);
+    }
+}
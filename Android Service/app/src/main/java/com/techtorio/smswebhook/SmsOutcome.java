@@ -0,0 +1,66 @@
+package com.techtorio.smswebhook;
+
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * What the radio reported for one SMS. The future returned by
+ * {@link SmsSender#sendAsync} completes with a SENT, FAILED or TIMED_OUT
+ * outcome once every part has a sent result; {@link #getDelivery()} then
+ * completes with DELIVERED, UNDELIVERED or TIMED_OUT from the delivery reports.
+ */
+public final class SmsOutcome {
+    public enum Status { SENT, FAILED, TIMED_OUT, DELIVERED, UNDELIVERED }
+
+    private final String id;
+    private final Status status;
+    private final int resultCode;
+    private final int parts;
+    private final long elapsedMs;
+    private final CompletableFuture<SmsOutcome> delivery;
+
+    SmsOutcome(String id, Status status, int resultCode, int parts, long elapsedMs, CompletableFuture<SmsOutcome> delivery) {
+        this.id = id;
+        this.status = status;
+        this.resultCode = resultCode;
+        this.parts = parts;
+        this.elapsedMs = elapsedMs;
+        this.delivery = delivery;
+    }
+
+    /** Correlation id carried by the sent and delivered intents. */
+    public String getId() {
+        return id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /** Lower-case status name as reported over HTTP. */
+    public String getStatusName() {
+        return status.name().toLowerCase(Locale.ROOT);
+    }
+
+    /** Result code of the failing part ({@code SmsManager.RESULT_ERROR_*}), or {@code Activity.RESULT_OK}. */
+    public int getResultCode() {
+        return resultCode;
+    }
+
+    public int getParts() {
+        return parts;
+    }
+
+    /** Time from submission to this outcome. */
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+
+    public boolean isSent() {
+        return status == Status.SENT || status == Status.DELIVERED;
+    }
+
+    public CompletableFuture<SmsOutcome> getDelivery() {
+        return delivery;
+    }
+}
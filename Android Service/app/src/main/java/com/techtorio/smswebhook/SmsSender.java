@@ -1,31 +1,93 @@
 package com.techtorio.smswebhook;
 
-import android.app.PendingIntent;
 import android.content.Context;
 import android.telephony.SmsManager;
 import android.telephony.SubscriptionManager;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 
 public class SmsSender {
+    private static final String TAG = "SmsSender";
+
+    /**
+     * Submits {@code message} without waiting for the radio. Returns false only when
+     * SmsManager refused it outright; use {@link #sendAsync} for the real outcome.
+     */
     public static boolean send(Context context, String to, String message, Integer simSlot) {
+        SmsOutcome outcome = sendAsync(context, to, message, simSlot).getNow(null);
+        return outcome == null || outcome.isSent();
+    }
+
+    /**
+     * Sends {@code message}, split with {@link SmsManager#divideMessage} and sent as
+     * one multipart SMS when it does not fit a single part. The future completes
+     * once every part has a sent result (or one failed, or the tracker timed the
+     * message out); {@link SmsOutcome#getDelivery()} follows with the delivery reports.
+     */
+    public static CompletableFuture<SmsOutcome> sendAsync(Context context, String to, String message, Integer simSlot) {
+        DeliveryTracker tracker = DeliveryTracker.getInstance(context);
+        DeliveryTracker.Tracked tracked = null;
         try {
-            SmsManager smsManager;
-            if (simSlot != null) {
-                int subId = getSubscriptionIdForSlot(context, simSlot);
-                if (subId != SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
-                    smsManager = SmsManager.getSmsManagerForSubscriptionId(subId);
-                } else {
-                    smsManager = SmsManager.getDefault();
-                }
+            SmsManager smsManager = managerFor(context, simSlot);
+            ArrayList<String> parts = smsManager.divideMessage(message);
+            if (parts == null || parts.isEmpty()) {
+                parts = new ArrayList<>();
+                parts.add(message);
+            }
+            tracked = tracker.register(parts.size());
+            if (parts.size() == 1) {
+                smsManager.sendTextMessage(to, null, message, tracked.sentIntents.get(0), tracked.deliveryIntents.get(0));
             } else {
-                smsManager = SmsManager.getDefault();
+                smsManager.sendMultipartTextMessage(to, null, parts, tracked.sentIntents, tracked.deliveryIntents);
             }
-            PendingIntent sentPI = null;
-            PendingIntent deliveredPI = null;
-            smsManager.sendTextMessage(to, null, message, sentPI, deliveredPI);
-            return true;
+            GatewayMetrics.get().recordSmsSend(simSlot, true);
+            GatewayMetrics.get().recordSmsEncoding(SmsEncoder.analyze(message).isGsm7(), parts.size());
+            return tracked.sent;
         } catch (Exception e) {
-            return false;
+            Log.e(TAG, "SmsManager refused message to " + to, e);
+            GatewayMetrics.get().recordSmsSend(simSlot, false);
+            if (tracked == null) tracked = tracker.register(1);
+            // A bad address or a missing permission will not pass on a retry
+            int resultCode = e instanceof IllegalArgumentException ? SmsManager.RESULT_INVALID_ARGUMENTS
+                    : e instanceof SecurityException ? SmsManager.RESULT_OPERATION_NOT_ALLOWED
+                    : SmsManager.RESULT_ERROR_GENERIC_FAILURE;
+            tracker.fail(tracked, resultCode);
+            return tracked.sent;
+        }
+    }
+
+    /**
+     * Slot to send {@code to} on: the slot of its longest routed prefix
+     * ({@link PrefixRouter}) when that slot holds a SIM, otherwise {@code fallback}.
+     */
+    public static Integer slotFor(Context context, ConfigSnapshot cfg, String to, Integer fallback) {
+        Integer routed = routeOf(context, cfg, to);
+        if (routed != null) {
+            GatewayMetrics.get().recordSimRoute(true);
+            return routed;
+        }
+        if (!cfg.getSimRoutes().isEmpty()) GatewayMetrics.get().recordSimRoute(false);
+        return fallback;
+    }
+
+    /** The active slot an operator route picks for {@code to}, or null; records no metrics. */
+    static Integer routeOf(Context context, ConfigSnapshot cfg, String to) {
+        Integer routed = cfg.getSimRoutes().route(to);
+        return routed != null && SimScheduler.getInstance(context).isActive(routed) ? routed : null;
+    }
+
+    private static SmsManager managerFor(Context context, Integer simSlot) {
+        if (simSlot != null) {
+            int subId = SimScheduler.getInstance(context).subscriptionIdForSlot(simSlot);
+            // Not cached when READ_PHONE_STATE is missing; ask per slot as before
+            if (subId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) subId = getSubscriptionIdForSlot(context, simSlot);
+            if (subId != SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
+                return SmsManager.getSmsManagerForSubscriptionId(subId);
+            }
         }
+        return SmsManager.getDefault();
     }
 
     private static int getSubscriptionIdForSlot(Context context, int slotIndex) {
@@ -0,0 +1,132 @@
+package com.techtorio.smswebhook;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Named OTP templates, each with optional per-locale variants, compiled once
+ * when the settings change. Configured as JSON:
+ * <pre>
+ * {"login": {"en": "Your {brand} code is {varOTP}", "ar": "...", "": "fallback"},
+ *  "reset": "{varOTP} resets your {brand} password, valid {expiry} min"}
+ * </pre>
+ * A plain string applies to every locale. The id {@value #DEFAULT_ID} is always
+ * present and maps to the single OTP template set on the settings screen unless
+ * the JSON overrides it. Values for placeholders other than {@code {varOTP}}
+ * come from a second JSON object of shared variables, e.g. {@code {"brand": "YaqeenPay"}}.
+ */
+public final class TemplateRegistry {
+    private static final String TAG = "TemplateRegistry";
+    public static final String DEFAULT_ID = "default";
+    private static final String ANY_LOCALE = "";
+
+    private final Map<String, Map<String, MessageTemplate>> templates;
+    private final Map<String, String> variables;
+
+    private TemplateRegistry(Map<String, Map<String, MessageTemplate>> templates, Map<String, String> variables) {
+        this.templates = templates;
+        this.variables = variables;
+    }
+
+    /** Builds the registry, logging and skipping malformed JSON rather than failing. */
+    public static TemplateRegistry parse(String templatesJson, String variablesJson, String defaultTemplate) {
+        Map<String, Map<String, String>> sources = new HashMap<>();
+        Map<String, String> vars = new HashMap<>();
+        try {
+            if (templatesJson != null && !templatesJson.isEmpty()) {
+                JSONObject root = new JSONObject(templatesJson);
+                Iterator<String> ids = root.keys();
+                while (ids.hasNext()) {
+                    String id = ids.next();
+                    Map<String, String> byLocale = new HashMap<>();
+                    JSONObject variants = root.optJSONObject(id);
+                    if (variants == null) {
+                        byLocale.put(ANY_LOCALE, root.getString(id));
+                    } else {
+                        Iterator<String> locales = variants.keys();
+                        while (locales.hasNext()) {
+                            String locale = locales.next();
+                            byLocale.put(locale, variants.getString(locale));
+                        }
+                    }
+                    sources.put(id, byLocale);
+                }
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Ignoring malformed template JSON", e);
+        }
+        try {
+            if (variablesJson != null && !variablesJson.isEmpty()) {
+                JSONObject root = new JSONObject(variablesJson);
+                Iterator<String> names = root.keys();
+                while (names.hasNext()) {
+                    String name = names.next();
+                    vars.put(name, root.getString(name));
+                }
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Ignoring malformed template variables JSON", e);
+        }
+        return of(sources, vars, defaultTemplate);
+    }
+
+    static TemplateRegistry of(Map<String, Map<String, String>> sources, Map<String, String> vars, String defaultTemplate) {
+        Map<String, Map<String, MessageTemplate>> compiled = new HashMap<>();
+        for (Map.Entry<String, Map<String, String>> t : sources.entrySet()) {
+            Map<String, MessageTemplate> byLocale = new HashMap<>();
+            for (Map.Entry<String, String> v : t.getValue().entrySet()) {
+                byLocale.put(normalize(v.getKey()), MessageTemplate.compile(v.getValue()));
+            }
+            compiled.put(t.getKey(), byLocale);
+        }
+        Map<String, MessageTemplate> defaults = compiled.get(DEFAULT_ID);
+        if (defaults == null) {
+            defaults = new HashMap<>();
+            compiled.put(DEFAULT_ID, defaults);
+        }
+        if (!defaults.containsKey(ANY_LOCALE)) defaults.put(ANY_LOCALE, MessageTemplate.compile(defaultTemplate));
+        return new TemplateRegistry(compiled, Collections.unmodifiableMap(new HashMap<>(vars)));
+    }
+
+    /**
+     * Returns template {@code id} (or the default when null/empty) for {@code locale},
+     * falling back from "ar-SA" to "ar" to the locale-neutral variant; null when
+     * the id is unknown or has no usable variant.
+     */
+    public MessageTemplate find(String id, String locale) {
+        Map<String, MessageTemplate> byLocale = templates.get(id == null || id.isEmpty() ? DEFAULT_ID : id);
+        if (byLocale == null) return null;
+        if (locale != null && !locale.isEmpty()) {
+            String tag = normalize(locale);
+            MessageTemplate t = byLocale.get(tag);
+            if (t != null) return t;
+            int dash = tag.indexOf('-');
+            if (dash > 0) {
+                t = byLocale.get(tag.substring(0, dash));
+                if (t != null) return t;
+            }
+        }
+        return byLocale.get(ANY_LOCALE);
+    }
+
+    public MessageTemplate getDefault() {
+        return templates.get(DEFAULT_ID).get(ANY_LOCALE);
+    }
+
+    /** Shared values for placeholders such as {@code {brand}}, passed to {@link MessageTemplate#render}. */
+    public Map<String, String> getVariables() {
+        return variables;
+    }
+
+    private static String normalize(String locale) {
+        return locale.trim().replace('_', '-').toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,145 @@
+package com.techtorio.smswebhook;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timing wheel for the gateway's many short-lived deadlines: OTP
+ * expiries and deferred sends. Scheduling and cancelling are O(1) (a link into
+ * or out of a bucket's list); each tick only walks the one bucket it lands on.
+ * Deadlines more than one revolution away carry a round count and stay in their
+ * bucket until it reaches zero.
+ *
+ * Tasks run on the wheel's own thread, at most one tick late, and must be quick.
+ */
+public class TimingWheel {
+    private static final String TAG = "TimingWheel";
+
+    private final long tickMs;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startedAt;
+    private long tick;
+    private int pending;
+
+    /** {@code wheelSize} is rounded up to a power of two. */
+    public TimingWheel(String name, long tickMs, int wheelSize) {
+        this.tickMs = Math.max(1, tickMs);
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) - 1) << 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) wheel[i] = new Bucket();
+        this.mask = size - 1;
+        this.startedAt = System.currentTimeMillis();
+        Thread worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /** Runs {@code task} at wall-clock {@code deadline}, or on the next tick if that has passed. */
+    public Timeout schedule(Runnable task, long deadline) {
+        Timeout t = new Timeout(task);
+        synchronized (this) {
+            // The bucket for the current tick is being processed, so aim no earlier than the next
+            long ticks = Math.max(tick + 1, (deadline - startedAt + tickMs - 1) / tickMs);
+            t.rounds = (ticks - tick - 1) / wheel.length;
+            wheel[(int) (ticks & mask)].add(t);
+            pending++;
+        }
+        return t;
+    }
+
+    public synchronized int size() {
+        return pending;
+    }
+
+    private void run() {
+        List<Timeout> due = new ArrayList<>();
+        while (true) {
+            long next;
+            synchronized (this) {
+                next = startedAt + (tick + 1) * tickMs;
+            }
+            long sleep = next - System.currentTimeMillis();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            synchronized (this) {
+                tick++;
+                Bucket bucket = wheel[(int) (tick & mask)];
+                for (Timeout t = bucket.head; t != null; ) {
+                    Timeout following = t.next;
+                    if (t.rounds <= 0) {
+                        bucket.remove(t);
+                        pending--;
+                        due.add(t);
+                    } else {
+                        t.rounds--;
+                    }
+                    t = following;
+                }
+            }
+            for (Timeout t : due) {
+                try {
+                    t.task.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Timer task failed", e);
+                }
+            }
+            due.clear();
+        }
+    }
+
+    /** Handle to one scheduled task. */
+    public final class Timeout {
+        private final Runnable task;
+        private long rounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /** Unschedules the task; false if it already ran or was cancelled. */
+        public boolean cancel() {
+            synchronized (TimingWheel.this) {
+                if (bucket == null) return false;
+                bucket.remove(this);
+                pending--;
+                return true;
+            }
+        }
+    }
+
+    /** Doubly linked list of timeouts; guarded by the wheel. */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            t.prev = tail;
+            t.next = null;
+            if (tail == null) head = t;
+            else tail.next = t;
+            tail = t;
+        }
+
+        void remove(Timeout t) {
+            if (t.prev == null) head = t.next;
+            else t.prev.next = t.next;
+            if (t.next == null) tail = t.prev;
+            else t.next.prev = t.prev;
+            t.prev = null;
+            t.next = null;
+            t.bucket = null;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.techtorio.smswebhook;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Posts matched SMS to the webhook on a fixed pool of workers, replacing one
+ * AsyncTask per message on the serial executor. A burst is worked off
+ * {@code webhook_concurrency} posts at a time; once {@code webhook_queue_capacity}
+ * posts are waiting, new ones are refused and logged rather than piling up.
+ *
+ * Connections are not disconnected: each response body is read to the end and
+ * closed, which hands the socket back to the platform's keep-alive pool, so
+ * consecutive posts to the webhook host skip the TCP and TLS handshakes.
+ *
+ * Results are logged and notified on the main thread, one at a time, as the
+ * AsyncTask's onPostExecute did.
+ */
+public class WebhookDispatcher {
+    private static final String TAG = "WebhookDispatcher";
+    private static final int TIMEOUT_MS = 10_000;
+    // Response text kept for the log and notification; the rest is drained unread
+    private static final int MAX_RESPONSE_CHARS = 64 * 1024;
+
+    private static WebhookDispatcher instance;
+
+    private final Context context;
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private WebhookDispatcher(Context context) {
+        this.context = context;
+        ConfigurationManager cfg = new ConfigurationManager(context);
+        int concurrency = Math.max(1, cfg.getWebhookConcurrency());
+        // Idle keep-alive connections the platform keeps per host; its default is 5
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", Integer.toString(Math.max(5, concurrency)));
+        }
+        AtomicInteger threads = new AtomicInteger();
+        executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, cfg.getWebhookQueueCapacity())), r -> {
+                    Thread t = new Thread(r, "webhook-" + threads.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        GatewayMetrics metrics = GatewayMetrics.get();
+        metrics.registerGauge("webhook_in_flight", "Webhook POSTs in progress.", executor::getActiveCount);
+        metrics.registerGauge("webhook_queue_depth", "Webhook POSTs waiting for a worker thread.",
+                () -> executor.getQueue().size());
+    }
+
+    public static synchronized WebhookDispatcher getInstance(Context ctx) {
+        if (instance == null) instance = new WebhookDispatcher(ctx.getApplicationContext());
+        return instance;
+    }
+
+    /** Queues one post; false when the queue is full and the post was dropped. */
+    public boolean submit(String webhookUrl, String secretKey, String smsBody, LogManager logManager) {
+        long queuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                GatewayMetrics.get().recordWebhookQueueWait(System.nanoTime() - queuedAt);
+                Result result = post(webhookUrl, secretKey, smsBody);
+                mainHandler.post(() -> WebhookService.onResult(context, logManager, result.success, result.code, result.text));
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            GatewayMetrics.get().recordWebhookRejected();
+            Log.w(TAG, "Webhook queue full, dropping post");
+            logManager.addLog("WEBHOOK_ERROR", "Webhook queue full, SMS not posted", smsBody);
+            return false;
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /** One POST on the calling thread; package-private so tests can drive it against a local server. */
+    static Result post(String webhookUrl, String secretKey, String smsBody) {
+        HttpURLConnection connection = null;
+        long started = System.nanoTime();
+        boolean success = false;
+        int code = -1;
+        String text;
+        try {
+            connection = (HttpURLConnection) new URL(webhookUrl).openConnection();
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+            connection.setRequestProperty("X-Webhook-Secret", secretKey);
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+
+            byte[] body = ("{\"sms\":\"" + escapeJsonString(smsBody) + "\"}").getBytes(StandardCharsets.UTF_8);
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream os = connection.getOutputStream()) {
+                os.write(body);
+            }
+
+            code = connection.getResponseCode();
+            success = code >= 200 && code < 300;
+            Log.d(TAG, "Webhook response code: " + code);
+            InputStream in = code >= 200 && code < 400 ? connection.getInputStream() : connection.getErrorStream();
+            text = "Response Code: " + code + "\n\n" + drain(in);
+        } catch (IOException e) {
+            Log.e(TAG, "Error posting to webhook: " + e.getMessage(), e);
+            text = "Error: " + e.getMessage();
+            // A failed exchange leaves the socket in an unknown state, so do not pool it
+            if (connection != null) connection.disconnect();
+        } finally {
+            GatewayMetrics.get().recordWebhookPost(System.nanoTime() - started, success);
+        }
+        return new Result(success, code, text);
+    }
+
+    /** Reads {@code in} to the end and closes it, keeping up to {@link #MAX_RESPONSE_CHARS}. */
+    private static String drain(InputStream in) throws IOException {
+        if (in == null) return "";
+        ByteArrayOutputStream kept = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        try (InputStream stream = in) {
+            int n;
+            while ((n = stream.read(buf)) != -1) {
+                int room = MAX_RESPONSE_CHARS - kept.size();
+                if (room > 0) kept.write(buf, 0, Math.min(n, room));
+            }
+        }
+        return new String(kept.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String escapeJsonString(String str) {
+        if (str == null) {
+            return "";
+        }
+        return str.replace("\\", "\\\\")
+                .replace("\"", "\\\"")
+                .replace("\n", "\\n")
+                .replace("\r", "\\r")
+                .replace("\t", "\\t");
+    }
+
+    static final class Result {
+        final boolean success;
+        final int code;
+        final String text;
+
+        Result(boolean success, int code, String text) {
+            this.success = success;
+            this.code = code;
+            this.text = text;
+        }
+    }
+}
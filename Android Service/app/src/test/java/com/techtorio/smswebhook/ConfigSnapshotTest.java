@@ -0,0 +1,104 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ConfigSnapshotTest {
+    @Test
+    public void listsAreSplitTrimmedAndReadOnly() {
+        ConfigSnapshot cfg = new TestPreferences()
+                .set("phone_number", " 8080, ,HBL ,")
+                .set("keyword", "OTP,code")
+                .snapshot();
+        assertEquals(Arrays.asList("8080", "HBL"), cfg.getPhoneNumbers());
+        assertEquals(Arrays.asList("OTP", "code"), cfg.getKeywords());
+        assertUnmodifiable(cfg.getPhoneNumbers());
+        assertUnmodifiable(cfg.getKeywords());
+        assertEquals(Collections.emptyList(), new TestPreferences().snapshot().getKeywords());
+    }
+
+    @Test
+    public void templatesAreCompiledWithTheBuiltInDefault() {
+        ConfigSnapshot defaults = new TestPreferences().snapshot();
+        assertEquals("Your OTP is 1234", defaults.getOtpTemplate().render("1234"));
+
+        ConfigSnapshot cfg = new TestPreferences()
+                .set("otp_template", "Code {varOTP}")
+                .set("otp_templates", "{\"login\":\"Login code {varOTP}\"}")
+                .snapshot();
+        assertEquals("Code 1234", cfg.getOtpTemplate().render("1234"));
+        assertEquals("Login code 1234", cfg.getTemplates().find("login", null).render("1234"));
+        assertNull(cfg.getTemplates().find("nope", null));
+    }
+
+    @Test
+    public void weightsDefaultToOneAndLanesNeverDropToZero() {
+        ConfigSnapshot cfg = new TestPreferences()
+                .set("sim_weights", "3, x,0")
+                .set("outbound_lane_weights", "5,0")
+                .snapshot();
+        assertEquals(3, cfg.getSimWeight(0));
+        assertEquals(1, cfg.getSimWeight(1));
+        assertEquals(0, cfg.getSimWeight(2));
+        assertEquals(1, cfg.getSimWeight(3));
+        assertEquals(1, cfg.getSimWeight(-1));
+        assertEquals(5, cfg.getLaneWeight(OutboundMessage.Lane.OTP));
+        assertEquals(1, cfg.getLaneWeight(OutboundMessage.Lane.TRANSACTIONAL));
+        assertEquals(1, cfg.getLaneWeight(OutboundMessage.Lane.BULK));
+
+        ConfigSnapshot defaults = new TestPreferences().snapshot();
+        assertEquals(8, defaults.getLaneWeight(OutboundMessage.Lane.OTP));
+        assertEquals(1, defaults.getSimWeight(0));
+    }
+
+    @Test
+    public void pacingBoundsAreClampedToAtLeastOneAndMinBelowMax() {
+        ConfigSnapshot cfg = new TestPreferences()
+                .set("sms_pacing_min_per_minute", 0)
+                .set("sms_pacing_max_per_minute", -5)
+                .snapshot();
+        assertEquals(1, cfg.getPacingMinPerMinute());
+        assertEquals(1, cfg.getPacingMaxPerMinute());
+
+        ConfigSnapshot inverted = new TestPreferences()
+                .set("sms_pacing_min_per_minute", 30)
+                .set("sms_pacing_max_per_minute", 10)
+                .snapshot();
+        assertEquals(30, inverted.getPacingMinPerMinute());
+        assertEquals(30, inverted.getPacingMaxPerMinute());
+    }
+
+    @Test
+    public void aSnapshotKeepsItsValuesWhenThePreferencesChange() {
+        TestPreferences prefs = new TestPreferences()
+                .set("secret_key", "old")
+                .set("default_country_code", "+92")
+                .set("sim_routes", "+92300:1");
+        ConfigSnapshot before = prefs.snapshot();
+        prefs.set("secret_key", "new").set("preferred_sim_slot", 1).set("sim_routes", "");
+        ConfigSnapshot after = prefs.snapshot();
+
+        assertEquals("old", before.getSecretKey());
+        assertNull(before.getPreferredSimSlot());
+        assertEquals(Integer.valueOf(1), before.getSimRoutes().route("+923001234567"));
+        assertEquals("new", after.getSecretKey());
+        assertEquals(Integer.valueOf(1), after.getPreferredSimSlot());
+        assertTrue(after.getSimRoutes().isEmpty());
+    }
+
+    private static void assertUnmodifiable(List<String> list) {
+        try {
+            list.add("x");
+            fail("list is modifiable");
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Activity;
+import android.telephony.SmsManager;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class DeliveryLedgerTest {
+    private static final long SENT_TIMEOUT_MS = 1_000;
+    private static final long DELIVERY_TIMEOUT_MS = 10_000;
+
+    private final List<String> forgotten = new ArrayList<>();
+    private final DeliveryLedger ledger = new DeliveryLedger(3, SENT_TIMEOUT_MS, DELIVERY_TIMEOUT_MS, t -> forgotten.add(t.id));
+
+    @Test
+    public void messageIsSentOnceEveryPartReportsOk() {
+        DeliveryTracker.Tracked t = track("m1", 3, 0);
+        ledger.onSent("m1", Activity.RESULT_OK);
+        ledger.onSent("m1", Activity.RESULT_OK);
+        assertFalse(t.sent.isDone());
+        ledger.onSent("m1", Activity.RESULT_OK);
+        assertEquals(SmsOutcome.Status.SENT, t.sent.join().getStatus());
+        // Still waiting for its delivery reports
+        assertEquals(1, ledger.size());
+        assertTrue(forgotten.isEmpty());
+    }
+
+    @Test
+    public void firstFailedPartFailsTheMessageAndForgetsIt() {
+        DeliveryTracker.Tracked t = track("m1", 2, 0);
+        ledger.onSent("m1", Activity.RESULT_OK);
+        ledger.onSent("m1", SmsManager.RESULT_ERROR_LIMIT_EXCEEDED);
+        assertEquals(SmsOutcome.Status.FAILED, t.sent.join().getStatus());
+        assertEquals(SmsManager.RESULT_ERROR_LIMIT_EXCEEDED, t.sent.join().getResultCode());
+        assertEquals(SmsOutcome.Status.UNDELIVERED, t.delivery.join().getStatus());
+        assertEquals(0, ledger.size());
+        assertEquals(1, forgotten.size());
+        // A late report for a forgotten message changes nothing
+        ledger.onDelivered("m1", SmsOutcome.Status.DELIVERED);
+        assertEquals(SmsOutcome.Status.UNDELIVERED, t.delivery.join().getStatus());
+        assertEquals(1, forgotten.size());
+    }
+
+    @Test
+    public void deliveredOnceEveryPartIsAndUndeliveredOnTheFirstThatIsNot() {
+        DeliveryTracker.Tracked delivered = track("m1", 2, 0);
+        DeliveryTracker.Tracked undelivered = track("m2", 2, 0);
+        ledger.onDelivered("m1", SmsOutcome.Status.DELIVERED);
+        // Network still retrying
+        ledger.onDelivered("m1", null);
+        assertFalse(delivered.delivery.isDone());
+        ledger.onDelivered("m1", SmsOutcome.Status.DELIVERED);
+        assertEquals(SmsOutcome.Status.DELIVERED, delivered.delivery.join().getStatus());
+        // A delivery report implies the sent broadcast that went missing
+        assertEquals(SmsOutcome.Status.SENT, delivered.sent.join().getStatus());
+
+        ledger.onDelivered("m2", SmsOutcome.Status.UNDELIVERED);
+        assertEquals(SmsOutcome.Status.UNDELIVERED, undelivered.delivery.join().getStatus());
+        assertEquals(0, ledger.size());
+        assertEquals(2, forgotten.size());
+    }
+
+    @Test
+    public void messageWithoutASentResultTimesOut() {
+        long submitted = System.nanoTime();
+        DeliveryTracker.Tracked t = track("m1", 1, submitted);
+        ledger.sweep(submitted + millis(SENT_TIMEOUT_MS));
+        assertFalse(t.sent.isDone());
+        ledger.sweep(submitted + millis(SENT_TIMEOUT_MS + 1));
+        assertEquals(SmsOutcome.Status.TIMED_OUT, t.sent.join().getStatus());
+        assertEquals(Activity.RESULT_CANCELED, t.sent.join().getResultCode());
+        assertEquals(SmsOutcome.Status.TIMED_OUT, t.delivery.join().getStatus());
+        assertEquals(0, ledger.size());
+        assertEquals(1, forgotten.size());
+    }
+
+    @Test
+    public void sentMessageWaitsForTheDeliveryTimeout() {
+        long submitted = System.nanoTime();
+        DeliveryTracker.Tracked t = track("m1", 1, submitted);
+        ledger.onSent("m1", Activity.RESULT_OK);
+        ledger.sweep(submitted + millis(DELIVERY_TIMEOUT_MS));
+        assertFalse(t.delivery.isDone());
+        assertEquals(1, ledger.size());
+        ledger.sweep(submitted + millis(DELIVERY_TIMEOUT_MS + 1));
+        assertEquals(SmsOutcome.Status.SENT, t.sent.join().getStatus());
+        assertEquals(SmsOutcome.Status.TIMED_OUT, t.delivery.join().getStatus());
+        assertEquals(0, ledger.size());
+    }
+
+    @Test
+    public void fullLedgerTimesOutTheOldestMessage() {
+        DeliveryTracker.Tracked oldest = track("m1", 1, 0);
+        track("m2", 1, 0);
+        track("m3", 1, 0);
+        DeliveryTracker.Tracked newest = track("m4", 1, 0);
+        assertEquals(3, ledger.size());
+        assertEquals(SmsOutcome.Status.TIMED_OUT, oldest.sent.join().getStatus());
+        assertEquals(SmsOutcome.Status.TIMED_OUT, oldest.delivery.join().getStatus());
+        assertEquals("m1", forgotten.get(0));
+        ledger.onSent("m4", Activity.RESULT_OK);
+        assertEquals(SmsOutcome.Status.SENT, newest.sent.join().getStatus());
+    }
+
+    @Test
+    public void refusedSubmissionFailsAtOnce() {
+        DeliveryTracker.Tracked t = track("m1", 2, 0);
+        ledger.fail(t, SmsManager.RESULT_ERROR_NO_SERVICE);
+        assertEquals(SmsOutcome.Status.FAILED, t.sent.join().getStatus());
+        assertEquals(SmsManager.RESULT_ERROR_NO_SERVICE, t.delivery.join().getResultCode());
+        assertEquals(0, ledger.size());
+        assertEquals(1, forgotten.size());
+    }
+
+    private DeliveryTracker.Tracked track(String id, int parts, long submittedNanos) {
+        DeliveryTracker.Tracked t = new DeliveryTracker.Tracked(id, parts, submittedNanos);
+        ledger.add(t);
+        return t;
+    }
+
+    private static long millis(long ms) {
+        return TimeUnit.MILLISECONDS.toNanos(ms);
+    }
+}
@@ -0,0 +1,91 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class GatewayMetricsTest {
+    private final GatewayMetrics metrics = GatewayMetrics.get();
+
+    @Test
+    public void histogramBucketsAreCumulativeWithSumAndCount() {
+        GatewayMetrics.Histogram histogram = new GatewayMetrics.Histogram(0.1, 1);
+        histogram.observeNanos(50_000_000L);
+        histogram.observeNanos(100_000_000L);
+        histogram.observeNanos(500_000_000L);
+        histogram.observeNanos(3_000_000_000L);
+        StringBuilder sb = new StringBuilder();
+        histogram.render(sb, "t_seconds", "Test.");
+        String text = sb.toString();
+        assertTrue(text.contains("# TYPE t_seconds histogram\n"));
+        assertTrue(text.contains("t_seconds_bucket{le=\"0.1\"} 2\n"));
+        assertTrue(text.contains("t_seconds_bucket{le=\"1.0\"} 3\n"));
+        assertTrue(text.contains("t_seconds_bucket{le=\"+Inf\"} 4\n"));
+        assertTrue(text.contains("t_seconds_sum 3.65\n"));
+        assertTrue(text.contains("t_seconds_count 4\n"));
+    }
+
+    @Test
+    public void labeledHistogramSamplesCarryTheirLabels() {
+        GatewayMetrics.Histogram histogram = new GatewayMetrics.Histogram(1);
+        histogram.observeNanos(2_000_000_000L);
+        StringBuilder sb = new StringBuilder();
+        histogram.renderSamples(sb, "t_seconds", "lane=\"otp\"");
+        String text = sb.toString();
+        assertTrue(text.contains("t_seconds_bucket{lane=\"otp\",le=\"1.0\"} 0\n"));
+        assertTrue(text.contains("t_seconds_bucket{lane=\"otp\",le=\"+Inf\"} 1\n"));
+        assertTrue(text.contains("t_seconds_count{lane=\"otp\"} 1\n"));
+    }
+
+    @Test
+    public void countersAdvanceInTheRenderedText() {
+        long rateLimited = value("otp_rate_limited_total");
+        long shed = value("otp_shed_total{reason=\"outbound_queue\"}");
+        long failed = value("sms_send_total{slot=\"1\",result=\"failure\"}");
+        metrics.recordRateLimited();
+        metrics.recordRateLimited();
+        metrics.recordOutboundQueueRejected();
+        metrics.recordSmsSend(1, false);
+        assertEquals(rateLimited + 2, value("otp_rate_limited_total"));
+        assertEquals(shed + 1, value("otp_shed_total{reason=\"outbound_queue\"}"));
+        assertEquals(failed + 1, value("sms_send_total{slot=\"1\",result=\"failure\"}"));
+    }
+
+    @Test
+    public void labeledGaugesShareOneHeaderAndReRegisteringReplaces() {
+        metrics.registerGauge("test_queue_depth", "Test depth.", "lane", "otp", () -> 3);
+        metrics.registerGauge("test_queue_depth", "Test depth.", "lane", "bulk", () -> 5);
+        metrics.registerGauge("test_queue_depth", "Test depth.", "lane", "otp", () -> 7);
+        String text = metrics.render();
+        assertEquals(7, value(text, "test_queue_depth{lane=\"otp\"}"));
+        assertEquals(5, value(text, "test_queue_depth{lane=\"bulk\"}"));
+        assertEquals(text.indexOf("# TYPE test_queue_depth gauge"), text.lastIndexOf("# TYPE test_queue_depth gauge"));
+    }
+
+    @Test
+    public void everyMetricIsDeclaredOnce() {
+        Set<String> declared = new HashSet<>();
+        for (String line : metrics.render().split("\n")) {
+            if (line.startsWith("# TYPE ")) assertTrue(line, declared.add(line.split(" ")[2]));
+            else assertFalse(line, line.trim().isEmpty());
+        }
+        assertTrue(declared.contains("sms_pacing_rate_per_minute"));
+        assertTrue(declared.contains("webhook_post_duration_seconds"));
+    }
+
+    private long value(String series) {
+        return value(metrics.render(), series);
+    }
+
+    private static long value(String text, String series) {
+        for (String line : text.split("\n")) {
+            if (line.startsWith(series + " ")) return Long.parseLong(line.substring(series.length() + 1));
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,85 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+public class HmacVerifierTest {
+    private static final long SKEW_MS = 5 * 60_000L;
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    public void verifiesHexSignatures() throws Exception {
+        HmacVerifier verifier = new HmacVerifier(SKEW_MS, 10);
+        byte[] data = "otp=123456&to=+923001234567".getBytes(StandardCharsets.UTF_8);
+        String signature = hmacHex("secret", data);
+        assertTrue(verifier.verify("secret", data, signature));
+        assertTrue(verifier.verify("secret", data, signature.toUpperCase()));
+        assertFalse(verifier.verify("other", data, signature));
+        assertFalse(verifier.verify("secret", "otp=1".getBytes(StandardCharsets.UTF_8), signature));
+        assertFalse(verifier.verify("secret", data, "zz"));
+        assertFalse(verifier.verify("", data, signature));
+    }
+
+    @Test
+    public void timestampsOutsideTheSkewAreStale() {
+        HmacVerifier verifier = new HmacVerifier(SKEW_MS, 10);
+        assertEquals(HmacVerifier.Freshness.OK, verifier.checkTimestamp(Long.toString(NOW / 1000), NOW));
+        assertEquals(HmacVerifier.Freshness.OK, verifier.checkTimestamp(Long.toString(NOW - SKEW_MS), NOW));
+        assertEquals(HmacVerifier.Freshness.STALE, verifier.checkTimestamp(Long.toString(NOW - SKEW_MS - 1), NOW));
+        assertEquals(HmacVerifier.Freshness.STALE, verifier.checkTimestamp("yesterday", NOW));
+        assertEquals(HmacVerifier.Freshness.STALE, verifier.checkTimestamp(null, NOW));
+    }
+
+    @Test
+    public void reusedNonceIsReplayedUntilItsTimestampExpires() {
+        HmacVerifier verifier = new HmacVerifier(SKEW_MS, 10);
+        String ts = Long.toString(NOW);
+        assertEquals(HmacVerifier.Freshness.OK, verifier.recordNonce(ts, "n1", NOW));
+        assertEquals(HmacVerifier.Freshness.REPLAYED, verifier.recordNonce(ts, "n1", NOW + 1_000));
+        assertEquals(HmacVerifier.Freshness.REPLAYED, verifier.recordNonce(ts, "", NOW));
+        assertEquals(HmacVerifier.Freshness.OK, verifier.recordNonce(ts, "n1", NOW + SKEW_MS + 1));
+    }
+
+    @Test
+    public void fullCacheRefusesNewNoncesInsteadOfForgettingOld() {
+        HmacVerifier verifier = new HmacVerifier(SKEW_MS, 3);
+        String ts = Long.toString(NOW);
+        for (int i = 0; i < 3; i++) assertEquals(HmacVerifier.Freshness.OK, verifier.recordNonce(ts, "n" + i, NOW));
+        assertEquals(HmacVerifier.Freshness.FULL, verifier.recordNonce(ts, "n3", NOW));
+        // The oldest nonce is still remembered, so it cannot be replayed
+        assertEquals(HmacVerifier.Freshness.REPLAYED, verifier.recordNonce(ts, "n0", NOW));
+        assertEquals(HmacVerifier.Freshness.OK, verifier.recordNonce(ts, "n3", NOW + SKEW_MS + 1));
+    }
+
+    @Test
+    public void expiredNoncesAreForgottenWhateverOrderTheyArrivedIn() {
+        HmacVerifier verifier = new HmacVerifier(SKEW_MS, 3);
+        // A client ahead of the server first, then two behind it
+        assertEquals(HmacVerifier.Freshness.OK, verifier.recordNonce(Long.toString(NOW + SKEW_MS), "ahead", NOW));
+        assertEquals(HmacVerifier.Freshness.OK, verifier.recordNonce(Long.toString(NOW - SKEW_MS), "behind1", NOW));
+        assertEquals(HmacVerifier.Freshness.OK, verifier.recordNonce(Long.toString(NOW - SKEW_MS), "behind2", NOW));
+        assertEquals(HmacVerifier.Freshness.FULL, verifier.recordNonce(Long.toString(NOW), "n", NOW));
+
+        // The two behind have expired although the one ahead, inserted before them, has not
+        long later = NOW + 1_000;
+        assertEquals(HmacVerifier.Freshness.OK, verifier.recordNonce(Long.toString(later), "n", later));
+        assertEquals(HmacVerifier.Freshness.OK, verifier.recordNonce(Long.toString(later), "behind1", later));
+        assertEquals(HmacVerifier.Freshness.REPLAYED, verifier.recordNonce(Long.toString(later), "ahead", later));
+    }
+
+    private static String hmacHex(String secret, byte[] data) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        StringBuilder sb = new StringBuilder();
+        for (byte b : mac.doFinal(data)) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+}
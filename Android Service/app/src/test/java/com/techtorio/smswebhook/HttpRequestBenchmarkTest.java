@@ -0,0 +1,129 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Parse cost of one /send-otp request: the in-place parser against the
+ * readLine/split/HashMap/URLDecoder path handleClient() used before. Prints ns
+ * and bytes allocated per request; bytes come from the HotSpot thread
+ * allocation counter and are reported as -1 where it is unavailable.
+ */
+public class HttpRequestBenchmarkTest {
+    private static final byte[] REQUEST = ("GET /send-otp?varOTP=123456&receiver=%2B923001234567 HTTP/1.1\r\n"
+            + "Host: 192.168.1.20:8080\r\n"
+            + "User-Agent: AndroidSmsSender/1.0\r\n"
+            + "Accept: application/json\r\n"
+            + "X-Webhook-Secret: 7f3c2a9e1b\r\n"
+            + "X-Signature: 5d41402abc4b2a76b9719d911017c592\r\n"
+            + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final int WARMUP = 200_000;
+    private static final int ITERATIONS = 500_000;
+
+    private static volatile Object sink;
+
+    @Test
+    public void inPlaceParserAllocatesLessThanLegacyPath() throws Exception {
+        HttpRequest request = new HttpRequest();
+        Task parser = () -> {
+            request.parse(REQUEST, 0, REQUEST.length);
+            String otp = request.getQueryParam("varOTP", "otp");
+            String to = request.getQueryParam("receiver", "to");
+            String secret = request.getHeader("X-Webhook-Secret");
+            String signature = request.getHeader("X-Signature");
+            sink = request.isMethod("GET") && request.pathStartsWith("/send-otp") ? otp + to + secret + signature : null;
+        };
+        Task legacy = HttpRequestBenchmarkTest::legacyParse;
+
+        Result fast = measure(parser);
+        Result old = measure(legacy);
+        System.out.printf("in-place parser: %.0f ns, %d bytes per request%n", fast.nanos, fast.bytes);
+        System.out.printf("legacy handleClient path: %.0f ns, %d bytes per request%n", old.nanos, old.bytes);
+        if (fast.bytes >= 0 && old.bytes >= 0) assertTrue(fast.bytes < old.bytes);
+
+        legacyParse();
+        String legacyResult = (String) sink;
+        parser.run();
+        assertEquals(legacyResult, sink);
+    }
+
+    private static void legacyParse() throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(REQUEST), StandardCharsets.UTF_8));
+        String[] parts = in.readLine().split(" ");
+        String method = parts[0];
+        String pathWithQuery = parts.length > 1 ? parts[1] : "/";
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+            int idx = line.indexOf(':');
+            if (idx > 0) {
+                headers.put(line.substring(0, idx).trim().toLowerCase(Locale.ROOT), line.substring(idx + 1).trim());
+            }
+        }
+        Map<String, String> query = new HashMap<>();
+        String[] split = pathWithQuery.split("\\?", 2);
+        if (split.length == 2) {
+            for (String pair : split[1].split("&")) {
+                int idx = pair.indexOf('=');
+                if (idx > 0) {
+                    query.put(URLDecoder.decode(pair.substring(0, idx), "UTF-8"), URLDecoder.decode(pair.substring(idx + 1), "UTF-8"));
+                }
+            }
+        }
+        String otp = param(query, "varOTP", "otp");
+        String to = param(query, "receiver", "to");
+        sink = "GET".equalsIgnoreCase(method) && pathWithQuery.startsWith("/send-otp")
+                ? otp + to + headers.getOrDefault("x-webhook-secret", "") + headers.getOrDefault("x-signature", "") : null;
+    }
+
+    private static String param(Map<String, String> q, String primary, String alt) {
+        for (Map.Entry<String, String> e : q.entrySet()) {
+            if (e.getKey().equalsIgnoreCase(primary) || e.getKey().equalsIgnoreCase(alt)) return e.getValue();
+        }
+        return null;
+    }
+
+    private static Result measure(Task task) throws Exception {
+        for (int i = 0; i < WARMUP; i++) task.run();
+        long bytesBefore = allocatedBytes();
+        long started = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) task.run();
+        long elapsed = System.nanoTime() - started;
+        long bytesAfter = allocatedBytes();
+        long bytes = bytesBefore < 0 ? -1 : (bytesAfter - bytesBefore) / ITERATIONS;
+        return new Result(elapsed / (double) ITERATIONS, bytes);
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private static final class Result {
+        final double nanos;
+        final long bytes;
+
+        Result(double nanos, long bytes) {
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class HttpRequestTest {
+    private static final String OTP_REQUEST = "GET /send-otp?varOTP=123456&Receiver=%2B923001234567 HTTP/1.1\r\n"
+            + "Host: gateway\r\n"
+            + "X-Webhook-Secret: s3cret \r\n"
+            + "x-signature:abc123\r\n"
+            + "\r\n";
+
+    @Test
+    public void parsesRequestLineTrackedHeadersAndQuery() throws Exception {
+        byte[] buf = bytes(OTP_REQUEST);
+        HttpRequest request = new HttpRequest();
+
+        assertEquals(buf.length, request.parse(buf, 0, buf.length));
+        assertTrue(request.isMethod("get"));
+        assertEquals("GET", request.getMethod());
+        assertTrue(request.pathEquals("/send-otp"));
+        assertTrue(request.pathStartsWith("/send"));
+        assertEquals("/send-otp", request.getPath());
+        assertEquals("s3cret", request.getHeader("X-Webhook-Secret"));
+        assertEquals("abc123", request.getHeader("X-Signature"));
+        assertEquals("", request.getHeader("Host"));
+        assertEquals("123456", request.getQueryParam("varOTP", "otp"));
+        assertEquals("+923001234567", request.getQueryParam("receiver", "to"));
+        assertNull(request.getQueryParam("template", null));
+        assertTrue(request.isKeepAlive());
+    }
+
+    @Test
+    public void returnsZeroUntilTheHeadIsComplete() throws Exception {
+        byte[] buf = bytes(OTP_REQUEST);
+        HttpRequest request = new HttpRequest();
+        for (int limit = 0; limit < buf.length; limit++) {
+            assertEquals(0, request.parse(buf, 0, limit));
+        }
+    }
+
+    @Test
+    public void parsesAtAnOffsetAndLeavesPipelinedBytes() throws Exception {
+        byte[] buf = bytes("xx" + OTP_REQUEST + "GET /next HTTP/1.1\r\n");
+        HttpRequest request = new HttpRequest();
+        assertEquals(OTP_REQUEST.length(), request.parse(buf, 2, buf.length));
+        assertTrue(request.pathEquals("/send-otp"));
+    }
+
+    @Test
+    public void keepAliveFollowsVersionAndConnectionHeader() throws Exception {
+        assertFalse(parse("GET / HTTP/1.1\r\nConnection: Close\r\n\r\n").isKeepAlive());
+        assertFalse(parse("GET / HTTP/1.0\r\n\r\n").isKeepAlive());
+        assertTrue(parse("GET / HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n").isKeepAlive());
+    }
+
+    @Test
+    public void decodesPlusAndPercentAndRejectsBadEscapes() throws Exception {
+        HttpRequest request = parse("GET /x?a=one+two%21&b=%zz&c=%4 HTTP/1.1\r\n\r\n");
+        assertEquals("one two!", request.getQueryParam("a", null));
+        assertNull(request.getQueryParam("b", null));
+        assertNull(request.getQueryParam("c", null));
+    }
+
+    @Test
+    public void readsContentLengthBodyFromStream() throws Exception {
+        byte[] raw = bytes("POST /send-otp/batch HTTP/1.1\r\nContent-Length: 5\r\n\r\nhello");
+        HttpRequest request = new HttpRequest();
+        List<HttpRequest.Phase> phases = new ArrayList<>();
+        assertTrue(request.readFrom(new ByteArrayInputStream(raw), phases::add));
+        assertArrayEquals(bytes("hello"), request.getBody());
+        assertEquals(Arrays.asList(HttpRequest.Phase.REQUEST_LINE, HttpRequest.Phase.HEADERS, HttpRequest.Phase.BODY), phases);
+        assertFalse(request.readFrom(new ByteArrayInputStream(new byte[0]), phases::add));
+    }
+
+    @Test
+    public void enforcesLineHeadAndBodyLimits() {
+        assertStatus(414, "GET /" + repeat('a', HttpRequest.MAX_REQUEST_LINE_BYTES) + " HTTP/1.1\r\n\r\n");
+        assertStatus(431, "GET / HTTP/1.1\r\nX-Long: " + repeat('a', HttpRequest.MAX_HEADER_LINE_BYTES) + "\r\n\r\n");
+        StringBuilder many = new StringBuilder("GET / HTTP/1.1\r\n");
+        for (int i = 0; i <= HttpRequest.MAX_HEADER_COUNT; i++) many.append("X-H").append(i).append(": v\r\n");
+        assertStatus(431, many.append("\r\n").toString());
+        assertStatus(413, "POST / HTTP/1.1\r\nContent-Length: " + (HttpRequest.MAX_BODY_BYTES + 1) + "\r\n\r\n");
+        assertStatus(400, "POST / HTTP/1.1\r\nContent-Length: 1x\r\n\r\n");
+        assertStatus(400, " / HTTP/1.1\r\n\r\n");
+    }
+
+    @Test
+    public void rejectsAnEndlessHeaderBeforeItCompletes() {
+        StringBuilder endless = new StringBuilder("GET / HTTP/1.1\r\n");
+        while (endless.length() <= HttpRequest.MAX_HEAD_BYTES) endless.append("X-Filler: 0123456789\r\n");
+        byte[] buf = bytes(endless.toString());
+        HttpRequest.RequestException e = assertThrows(HttpRequest.RequestException.class,
+                () -> new HttpRequest().parse(buf, 0, buf.length));
+        assertEquals(431, e.toResponse().getStatus());
+    }
+
+    private static void assertStatus(int status, String raw) {
+        HttpRequest.RequestException e = assertThrows(HttpRequest.RequestException.class, () -> parse(raw));
+        assertEquals(status, e.toResponse().getStatus());
+    }
+
+    private static HttpRequest parse(String raw) throws HttpRequest.RequestException {
+        byte[] buf = bytes(raw);
+        HttpRequest request = new HttpRequest();
+        request.parse(buf, 0, buf.length);
+        return request;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String repeat(char c, int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,64 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class HttpServerServiceTest {
+    @Test
+    public void workerPoolRefusesWorkBeyondItsThreadsAndQueue() throws Exception {
+        ThreadPoolExecutor pool = HttpServerService.createWorkerPool(new ConfigurationManager(new TestPreferences()
+                .set("lan_worker_threads", 2)
+                .set("lan_worker_queue", 3)));
+        CountDownLatch running = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < 5; i++) {
+                pool.execute(() -> {
+                    running.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            assertTrue(running.await(5, TimeUnit.SECONDS));
+            assertEquals(2, pool.getPoolSize());
+            assertEquals(3, pool.getQueue().size());
+            try {
+                pool.execute(() -> { });
+                fail("sixth task admitted");
+            } catch (RejectedExecutionException expected) {
+            }
+            String metrics = GatewayMetrics.get().render();
+            assertTrue(metrics.contains("lan_worker_active 2\n"));
+            assertTrue(metrics.contains("lan_worker_queue_depth 3\n"));
+        } finally {
+            release.countDown();
+            pool.shutdown();
+        }
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(5, pool.getCompletedTaskCount());
+    }
+
+    @Test
+    public void workerPoolNeverHasLessThanOneThreadOrSlot() {
+        ThreadPoolExecutor pool = HttpServerService.createWorkerPool(new ConfigurationManager(new TestPreferences()
+                .set("lan_worker_threads", 0)
+                .set("lan_worker_queue", -4)));
+        try {
+            assertEquals(1, pool.getMaximumPoolSize());
+            assertEquals(1, pool.getQueue().remainingCapacity());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
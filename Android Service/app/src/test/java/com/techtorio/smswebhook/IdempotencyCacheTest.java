@@ -0,0 +1,111 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class IdempotencyCacheTest {
+    private static final long TTL_MS = 15 * 60_000L;
+
+    @Test
+    public void concurrentDuplicatesCauseOneSend() throws Exception {
+        IdempotencyCache<String> cache = new IdempotencyCache<>(100, TTL_MS);
+        int threads = 16;
+        AtomicInteger sends = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        @SuppressWarnings("unchecked")
+        CompletableFuture<String>[] results = new CompletableFuture[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                CompletableFuture<String> pending = new CompletableFuture<>();
+                CompletableFuture<String> original = cache.claim("send:abc", pending, 1_000);
+                if (original == null) {
+                    sends.incrementAndGet();
+                    pending.complete("queued");
+                    results[id] = pending;
+                } else {
+                    results[id] = original;
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread w : workers) w.join();
+        assertEquals(1, sends.get());
+        for (CompletableFuture<String> r : results) assertEquals("queued", r.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void duplicateWhileInFlightWaitsForTheOriginal() {
+        IdempotencyCache<String> cache = new IdempotencyCache<>(100, TTL_MS);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        assertNull(cache.claim("k", first, 1_000));
+        CompletableFuture<String> seen = cache.claim("k", new CompletableFuture<>(), 1_001);
+        assertSame(first, seen);
+        first.complete("queued");
+        assertEquals("queued", seen.join());
+    }
+
+    @Test
+    public void releasedKeyRunsAgain() {
+        IdempotencyCache<String> cache = new IdempotencyCache<>(100, TTL_MS);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        assertNull(cache.claim("k", first, 1_000));
+        // Only the owner's future releases the key
+        cache.release("k", new CompletableFuture<>());
+        assertNotNull(cache.claim("k", new CompletableFuture<>(), 1_000));
+        cache.release("k", first);
+        assertNull(cache.claim("k", new CompletableFuture<>(), 1_000));
+    }
+
+    @Test
+    public void keysExpireAfterTheTtl() {
+        IdempotencyCache<String> cache = new IdempotencyCache<>(100, TTL_MS);
+        assertNull(cache.claim("k", new CompletableFuture<>(), 1_000));
+        assertNotNull(cache.claim("k", new CompletableFuture<>(), 1_000 + TTL_MS - 1));
+        assertNull(cache.claim("k", new CompletableFuture<>(), 1_000 + TTL_MS));
+    }
+
+    @Test
+    public void sizeIsCappedOldestCompletedFirst() {
+        IdempotencyCache<String> cache = new IdempotencyCache<>(3, TTL_MS);
+        for (int i = 0; i < 4; i++) {
+            assertNull(cache.claim("k" + i, CompletableFuture.completedFuture("queued"), 1_000 + i));
+        }
+        assertEquals(3, cache.size());
+        assertNull(cache.claim("k0", CompletableFuture.completedFuture("queued"), 2_000));
+        assertNotNull(cache.claim("k3", new CompletableFuture<>(), 2_000));
+    }
+
+    @Test
+    public void claimsInFlightAreNeverEvicted() {
+        IdempotencyCache<String> cache = new IdempotencyCache<>(3, TTL_MS);
+        CompletableFuture<String> inFlight = new CompletableFuture<>();
+        assertNull(cache.claim("busy", inFlight, 1_000));
+        assertNull(cache.claim("done1", CompletableFuture.completedFuture("queued"), 1_001));
+        assertNull(cache.claim("done2", CompletableFuture.completedFuture("queued"), 1_002));
+        assertNull(cache.claim("k", new CompletableFuture<>(), 1_003));
+        assertSame(inFlight, cache.claim("busy", new CompletableFuture<>(), 1_004));
+        assertNull(cache.claim("done1", new CompletableFuture<>(), 1_005));
+
+        // Nothing completed is left to evict, so the cap gives way rather than the in-flight claims
+        assertNull(cache.claim("k2", new CompletableFuture<>(), 1_006));
+        assertEquals(4, cache.size());
+        assertSame(inFlight, cache.claim("busy", new CompletableFuture<>(), 1_007));
+    }
+}
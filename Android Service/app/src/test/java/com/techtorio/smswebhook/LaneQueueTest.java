@@ -0,0 +1,164 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LaneQueueTest {
+    private int ids;
+
+    private OutboundMessage message(String to, Integer sim, OutboundMessage.Lane lane) {
+        return message(to, sim, lane, false);
+    }
+
+    private OutboundMessage message(String to, Integer sim, OutboundMessage.Lane lane, boolean otp) {
+        return new OutboundMessage("m" + ++ids, to, "body", sim, lane, otp, 1, 1_000L + ids, 0, 0);
+    }
+
+    private static LaneQueue queue(int otp, int transactional, int bulk, List<OutboundMessage> superseded) {
+        return new LaneQueue(100, lane -> lane == OutboundMessage.Lane.OTP ? otp
+                : lane == OutboundMessage.Lane.TRANSACTIONAL ? transactional : bulk,
+                (old, replacement) -> superseded.add(old));
+    }
+
+    @Test
+    public void pollSkipsMessagesWhoseSimIsBusy() {
+        LaneQueue q = queue(1, 1, 1, new ArrayList<>());
+        OutboundMessage onBusySim = message("+923001111111", 0, OutboundMessage.Lane.BULK);
+        OutboundMessage onFreeSim = message("+923002222222", 1, OutboundMessage.Lane.BULK);
+        q.offer(onBusySim, false);
+        q.offer(onFreeSim, false);
+        assertSame(onFreeSim, q.poll(m -> m.getSimSlot() == 1));
+        assertNull(q.poll(m -> m.getSimSlot() == 1));
+        assertEquals(1, q.size());
+        assertSame(onBusySim, q.poll(m -> true));
+        assertEquals(0, q.size());
+    }
+
+    @Test
+    public void emptyQueuePollsNull() {
+        assertNull(queue(1, 1, 1, new ArrayList<>()).poll(m -> true));
+    }
+
+    @Test
+    public void awaitChangeReturnsOnAddOrTimeout() throws Exception {
+        LaneQueue q = queue(1, 1, 1, new ArrayList<>());
+        long seen = q.version();
+        long started = System.nanoTime();
+        q.awaitChange(seen, 50);
+        assertTrue(System.nanoTime() - started >= 40_000_000L);
+
+        Thread adder = new Thread(() -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException ignored) {
+            }
+            q.offer(message("+923001111111", null, OutboundMessage.Lane.OTP), false);
+        });
+        adder.start();
+        q.awaitChange(seen, 0);
+        assertFalse(seen == q.version());
+        adder.join();
+    }
+
+    @Test
+    public void lanesShareTurnsByWeight() {
+        LaneQueue q = queue(8, 3, 1, new ArrayList<>());
+        for (int i = 0; i < 24; i++) {
+            q.offer(message("+9230000" + i, null, OutboundMessage.Lane.OTP), false);
+            q.offer(message("+9231000" + i, null, OutboundMessage.Lane.TRANSACTIONAL), false);
+            q.offer(message("+9232000" + i, null, OutboundMessage.Lane.BULK), false);
+        }
+        int[] taken = new int[3];
+        for (int i = 0; i < 24; i++) taken[q.poll(m -> true).getLane().ordinal()]++;
+        assertEquals(16, taken[0]);
+        assertEquals(6, taken[1]);
+        assertEquals(2, taken[2]);
+    }
+
+    @Test
+    public void zeroWeightLaneIsNotStarved() {
+        LaneQueue q = queue(5, 0, 0, new ArrayList<>());
+        for (int i = 0; i < 20; i++) {
+            q.offer(message("+9230000" + i, null, OutboundMessage.Lane.OTP), false);
+            q.offer(message("+9232000" + i, null, OutboundMessage.Lane.BULK), false);
+        }
+        int bulk = 0;
+        for (int i = 0; i < 12; i++) {
+            if (q.poll(m -> true).getLane() == OutboundMessage.Lane.BULK) bulk++;
+        }
+        assertEquals(2, bulk);
+    }
+
+    @Test
+    public void otpOvertakesBulkWaitingOnABusySim() {
+        LaneQueue q = queue(1, 1, 100, new ArrayList<>());
+        OutboundMessage bulk = message("+923001111111", 0, OutboundMessage.Lane.BULK);
+        q.offer(bulk, false);
+        // SIM 0 is pacing; the bulk message is not taken, so nothing holds the sender
+        assertNull(q.poll(m -> m.getSimSlot() == 1));
+        OutboundMessage otp = message("+923002222222", 1, OutboundMessage.Lane.OTP);
+        q.offer(otp, false);
+        assertSame(otp, q.poll(m -> m.getSimSlot() == 1));
+        assertSame(bulk, q.poll(m -> true));
+    }
+
+    @Test
+    public void newerOtpReplacesTheQueuedOne() {
+        List<OutboundMessage> superseded = new ArrayList<>();
+        LaneQueue q = queue(1, 1, 1, superseded);
+        OutboundMessage first = message("+923001111111", null, OutboundMessage.Lane.OTP, true);
+        OutboundMessage second = message("+923001111111", null, OutboundMessage.Lane.OTP, true);
+        q.offer(first, true);
+        q.offer(second, true);
+        assertEquals(1, q.size());
+        assertEquals(1, superseded.size());
+        assertSame(first, superseded.get(0));
+        assertSame(second, q.poll(m -> true));
+    }
+
+    @Test
+    public void textsNotMarkedAsOtpAreNeverReplaced() {
+        List<OutboundMessage> superseded = new ArrayList<>();
+        LaneQueue q = queue(1, 1, 1, superseded);
+        // Untagged batch and SignalR texts land on the OTP lane too
+        q.offer(message("+923001111111", null, OutboundMessage.Lane.OTP), true);
+        q.offer(message("+923001111111", null, OutboundMessage.Lane.OTP), true);
+        q.offer(message("+923001111111", null, OutboundMessage.Lane.OTP, true), true);
+        assertEquals(3, q.size());
+        assertTrue(superseded.isEmpty());
+    }
+
+    @Test
+    public void replacementOnAnotherLaneMovesToItsOwnLane() {
+        List<OutboundMessage> superseded = new ArrayList<>();
+        LaneQueue q = queue(1, 1, 1, superseded);
+        OutboundMessage bulk = message("+923001111111", null, OutboundMessage.Lane.BULK, true);
+        OutboundMessage otp = message("+923001111111", null, OutboundMessage.Lane.OTP, true);
+        q.offer(bulk, true);
+        q.offer(otp, true);
+        assertSame(bulk, superseded.get(0));
+        assertEquals(1, q.size());
+        assertEquals(0, q.depth(OutboundMessage.Lane.BULK));
+        assertEquals(1, q.depth(OutboundMessage.Lane.OTP));
+        assertSame(otp, q.poll(m -> true));
+        assertEquals(0, q.size());
+    }
+
+    @Test
+    public void refusedMessageIsNotStampedAsQueued() {
+        LaneQueue q = new LaneQueue(1, lane -> 1, (old, replacement) -> { });
+        assertTrue(q.offer(message("+923001111111", null, OutboundMessage.Lane.BULK), false));
+        OutboundMessage refused = message("+923002222222", null, OutboundMessage.Lane.BULK);
+        assertFalse(q.offer(refused, false));
+        assertEquals(0, refused.getQueuedAtNanos());
+        assertEquals(1, q.depth(OutboundMessage.Lane.BULK));
+    }
+}
@@ -0,0 +1,56 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Render cost of one OTP message: a compiled MessageTemplate against the
+ * chained String.replace() calls it replaced, for the legacy single-placeholder
+ * template and one with three placeholders. Prints ns per render.
+ */
+public class MessageTemplateBenchmarkTest {
+    private static final String SINGLE = "Your YaqeenPay verification code is {varOTP}. Do not share it with anyone.";
+    private static final String MULTI = "{brand}: your verification code is {varOTP}. It expires in {expiry} minutes. Do not share it.";
+    private static final int WARMUP = 200_000;
+    private static final int ITERATIONS = 1_000_000;
+
+    private static volatile String sink;
+
+    @Test
+    public void compiledTemplateAgainstReplace() {
+        Map<String, String> vars = new HashMap<>();
+        vars.put("brand", "YaqeenPay");
+        vars.put("expiry", "5");
+        MessageTemplate single = MessageTemplate.compile(SINGLE);
+        MessageTemplate multi = MessageTemplate.compile(MULTI);
+        String[] otps = new String[64];
+        for (int i = 0; i < otps.length; i++) otps[i] = String.format("%06d", i * 15_401);
+
+        assertEquals(SINGLE.replace("{varOTP}", otps[1]), single.render(otps[1]));
+        assertEquals(MULTI.replace("{varOTP}", otps[1]).replace("{brand}", "YaqeenPay").replace("{expiry}", "5"),
+                multi.render(otps[1], vars));
+
+        double compiledSingle = measure(i -> single.render(otps[i & 63]));
+        double replaceSingle = measure(i -> SINGLE.replace("{varOTP}", otps[i & 63]));
+        double compiledMulti = measure(i -> multi.render(otps[i & 63], vars));
+        double replaceMulti = measure(i -> MULTI.replace("{varOTP}", otps[i & 63])
+                .replace("{brand}", vars.get("brand")).replace("{expiry}", vars.get("expiry")));
+        System.out.printf("1 placeholder: compiled %.0f ns, replace %.0f ns%n", compiledSingle, replaceSingle);
+        System.out.printf("3 placeholders: compiled %.0f ns, replace %.0f ns%n", compiledMulti, replaceMulti);
+    }
+
+    private static double measure(Render render) {
+        for (int i = 0; i < WARMUP; i++) sink = render.render(i);
+        long started = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) sink = render.render(i);
+        return (System.nanoTime() - started) / (double) ITERATIONS;
+    }
+
+    private interface Render {
+        String render(int i);
+    }
+}
@@ -0,0 +1,86 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class MessageTemplateTest {
+    @Test
+    public void rendersOtpAndVariables() {
+        MessageTemplate t = MessageTemplate.compile("{brand}: your code is {varOTP}. It expires in {expiry} min.");
+        Map<String, String> vars = new HashMap<>();
+        vars.put("brand", "YaqeenPay");
+        vars.put("expiry", "5");
+        assertEquals("YaqeenPay: your code is 123456. It expires in 5 min.", t.render("123456", vars));
+    }
+
+    @Test
+    public void repeatedAndAdjacentPlaceholders() {
+        MessageTemplate t = MessageTemplate.compile("{varOTP}{varOTP} {varOTP}");
+        assertEquals("1212 12", t.render("12"));
+    }
+
+    @Test
+    public void unknownPlaceholdersAreKeptVerbatim() {
+        MessageTemplate t = MessageTemplate.compile("Code {varOTP} from {brand}");
+        assertEquals("Code 42 from {brand}", t.render("42"));
+        assertEquals("Code 42 from {brand}", t.render("42", Collections.<String, String>emptyMap()));
+    }
+
+    @Test
+    public void malformedBracesAreLiteral() {
+        MessageTemplate t = MessageTemplate.compile("{ varOTP } {} {a-b} {varOTP");
+        assertEquals("{ varOTP } {} {a-b} {varOTP", t.render("1"));
+        assertEquals("{x}", MessageTemplate.compile("{{varOTP}}").render("x"));
+    }
+
+    @Test
+    public void matchesStringReplaceForTheLegacyTemplate() {
+        String source = "Your YaqeenPay verification code is {varOTP}. Do not share it.";
+        MessageTemplate t = MessageTemplate.compile(source);
+        assertEquals(source.replace(MessageTemplate.OTP_PLACEHOLDER, "987654"), t.render("987654"));
+        assertEquals(source, t.getSource());
+    }
+
+    @Test
+    public void largeRenderDoesNotCorruptLaterRenders() {
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) big.append('x');
+        MessageTemplate t = MessageTemplate.compile("a{varOTP}b");
+        assertEquals(10_002, t.render(big.toString()).length());
+        assertEquals("a1b", t.render("1"));
+    }
+
+    @Test
+    public void registryFallsBackByLocale() {
+        Map<String, Map<String, String>> sources = new HashMap<>();
+        Map<String, String> login = new HashMap<>();
+        login.put("", "Login code {varOTP}");
+        login.put("ar", "رمز الدخول {varOTP}");
+        login.put("ur_PK", "Login code (ur-PK) {varOTP}");
+        sources.put("login", login);
+        TemplateRegistry registry = TemplateRegistry.of(sources, Collections.singletonMap("brand", "YP"), "Code {varOTP}");
+
+        assertEquals("رمز الدخول 1", registry.find("login", "ar-SA").render("1"));
+        assertEquals("Login code (ur-PK) 1", registry.find("login", "UR-pk").render("1"));
+        assertEquals("Login code 1", registry.find("login", "fr").render("1"));
+        assertEquals("Code 1", registry.find(null, "ar").render("1"));
+        assertSame(registry.getDefault(), registry.find("", null));
+        assertNull(registry.find("missing", null));
+        assertEquals("YP", registry.getVariables().get("brand"));
+    }
+
+    @Test
+    public void onlyTemplatesWithTheOtpPlaceholderCarryAnOtp() {
+        assertTrue(MessageTemplate.compile("Your code is {varOTP}").carriesOtp());
+        assertFalse(MessageTemplate.compile("Your order {order} has shipped").carriesOtp());
+    }
+}
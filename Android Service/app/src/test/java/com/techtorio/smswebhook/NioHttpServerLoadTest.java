@@ -0,0 +1,131 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hundreds of concurrent clients against the selector server and against the
+ * old design (accept loop, cached thread pool, one request per connection).
+ * Prints requests per second and server threads for both.
+ */
+public class NioHttpServerLoadTest {
+    private static final int CLIENTS = 200;
+    private static final int REQUESTS_PER_CLIENT = 20;
+    private static final HttpHandler OK = request -> HttpResponse.json(200, "{\"status\":\"ok\"}");
+
+    private NioHttpServer nio;
+    private ServerSocket legacySocket;
+    private ThreadPoolExecutor legacyPool;
+
+    @After
+    public void tearDown() throws IOException {
+        if (nio != null) nio.stop();
+        if (legacySocket != null) legacySocket.close();
+        if (legacyPool != null) legacyPool.shutdownNow();
+    }
+
+    @Test
+    public void selectorServerHandlesHundredsOfClientsOnFixedThreads() throws Exception {
+        nio = new NioHttpServer(0, 2, OK, new ServerLimits(15_000, 5_000, 10_000, 15_000, 1000, 0));
+        nio.start();
+        double rps = run(nio.getLocalPort(), true);
+        System.out.printf("selector server: %.0f req/s, %d threads for %d connections%n",
+                rps, nio.getThreadCount(), CLIENTS);
+        assertEquals(2, nio.getThreadCount());
+    }
+
+    @Test
+    public void legacyThreadPerConnectionBaseline() throws Exception {
+        legacySocket = new ServerSocket(0, 256, InetAddress.getLoopbackAddress());
+        legacyPool = (ThreadPoolExecutor) Executors.newCachedThreadPool();
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket socket = legacySocket.accept();
+                    legacyPool.execute(() -> serveOne(socket));
+                }
+            } catch (IOException ignored) {
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        double rps = run(legacySocket.getLocalPort(), false);
+        System.out.printf("thread per connection: %.0f req/s, peak %d threads%n", rps, legacyPool.getLargestPoolSize());
+        assertTrue(legacyPool.getLargestPoolSize() > 2);
+    }
+
+    private static void serveOne(Socket socket) {
+        try (Socket s = socket) {
+            HttpRequest request = new HttpRequest();
+            if (!request.readFrom(new BufferedInputStream(s.getInputStream()), phase -> { })) return;
+            s.getOutputStream().write(OK.handle(request).toBytes(false));
+        } catch (IOException | HttpRequest.RequestException ignored) {
+        }
+    }
+
+    /** Runs every client to completion and returns requests per second; fails on any non-200. */
+    private static double run(int port, boolean keepAlive) throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int c = 0; c < CLIENTS; c++) {
+            results.add(clients.submit(() -> {
+                start.await();
+                return keepAlive ? keepAliveClient(port) : connectionPerRequestClient(port);
+            }));
+        }
+        long started = System.nanoTime();
+        start.countDown();
+        int ok = 0;
+        for (Future<Integer> f : results) ok += f.get(60, TimeUnit.SECONDS);
+        double seconds = (System.nanoTime() - started) / 1e9;
+        clients.shutdownNow();
+        assertEquals(CLIENTS * REQUESTS_PER_CLIENT, ok);
+        return ok / seconds;
+    }
+
+    private static int keepAliveClient(int port) throws IOException {
+        int ok = 0;
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            s.setSoTimeout(30_000);
+            OutputStream out = s.getOutputStream();
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            for (int i = 0; i < REQUESTS_PER_CLIENT; i++) {
+                out.write(TestHttp.get("/ping", true));
+                if (TestHttp.readStatus(in) == 200) ok++;
+            }
+        }
+        return ok;
+    }
+
+    private static int connectionPerRequestClient(int port) throws IOException {
+        int ok = 0;
+        for (int i = 0; i < REQUESTS_PER_CLIENT; i++) {
+            try (Socket s = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                s.setSoTimeout(30_000);
+                s.getOutputStream().write(TestHttp.get("/ping", false));
+                if (TestHttp.readStatus(new BufferedInputStream(s.getInputStream())) == 200) ok++;
+            }
+        }
+        return ok;
+    }
+}
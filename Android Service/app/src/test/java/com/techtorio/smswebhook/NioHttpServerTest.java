@@ -0,0 +1,173 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class NioHttpServerTest {
+    private static final long IDLE_TIMEOUT_MS = 200;
+    // Far enough apart that an eviction at the wrong phase's deadline falls outside the window
+    private static final long REQUEST_LINE_TIMEOUT_MS = 500;
+    private static final long HEADERS_TIMEOUT_MS = 2_000;
+    private static final long BODY_TIMEOUT_MS = 3_500;
+    // Expiry is checked by a once-a-second sweep
+    private static final long SWEEP_SLACK_MS = 1_500;
+    private static final int STALLED_PER_PHASE = 100;
+
+    private NioHttpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new NioHttpServer(0, 1, request -> HttpResponse.json(200, "{\"path\":\"" + request.getPath() + "\"}"),
+                new ServerLimits(IDLE_TIMEOUT_MS, 5_000, 5_000, 5_000, 1000, 0));
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void answersEveryPipelinedRequestBeforeClosingOnHalfClose() throws IOException {
+        try (Socket s = connect()) {
+            ByteArrayOutputStream burst = new ByteArrayOutputStream();
+            for (int i = 0; i < 5; i++) burst.write(TestHttp.get("/r" + i, true));
+            s.getOutputStream().write(burst.toByteArray());
+            s.shutdownOutput();
+
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            for (int i = 0; i < 5; i++) assertEquals(200, TestHttp.readStatus(in));
+            assertEquals(-1, TestHttp.readStatus(in));
+        }
+    }
+
+    @Test
+    public void idleKeepAliveCloseIsNotCountedAsEviction() throws Exception {
+        long idleBefore = metric("lan_connections_idle_closed_total");
+        long evictedBefore = metric("lan_connections_evicted_total{phase=\"request_line\"}");
+        try (Socket s = connect()) {
+            s.getOutputStream().write(TestHttp.get("/once", true));
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            assertEquals(200, TestHttp.readStatus(in));
+            // The sweep runs once a second
+            assertEquals(-1, TestHttp.readStatus(in));
+        }
+        assertEquals(idleBefore + 1, metric("lan_connections_idle_closed_total"));
+        assertEquals(evictedBefore, metric("lan_connections_evicted_total{phase=\"request_line\"}"));
+    }
+
+    @Test
+    public void hundredsOfStalledSocketsAreEvictedAtTheirPhaseDeadlineOnFixedThreads() throws Exception {
+        NioHttpServer stalling = new NioHttpServer(0, 2, request -> HttpResponse.json(200, "{}"),
+                new ServerLimits(60_000, REQUEST_LINE_TIMEOUT_MS, HEADERS_TIMEOUT_MS, BODY_TIMEOUT_MS, 1000, 0));
+        stalling.start();
+        Selector selector = Selector.open();
+        try {
+            int threadsBefore = Thread.activeCount();
+            long requestLineBefore = metric("lan_connections_evicted_total{phase=\"request_line\"}");
+            long headersBefore = metric("lan_connections_evicted_total{phase=\"headers\"}");
+            long bodyBefore = metric("lan_connections_evicted_total{phase=\"body\"}");
+
+            // Silent, mid request line, mid headers and mid body
+            String[] stalls = {
+                    "",
+                    "GET /sta",
+                    "GET /stall HTTP/1.1\r\nHost: te",
+                    "POST /stall HTTP/1.1\r\nHost: test\r\nContent-Length: 100\r\n\r\n{\"phone\":",
+            };
+            long[] deadlines = { REQUEST_LINE_TIMEOUT_MS, REQUEST_LINE_TIMEOUT_MS, HEADERS_TIMEOUT_MS, BODY_TIMEOUT_MS };
+            List<Stalled> open = new ArrayList<>();
+            for (int i = 0; i < stalls.length * STALLED_PER_PHASE; i++) {
+                int kind = i % stalls.length;
+                long stalledAt = System.nanoTime();
+                SocketChannel ch = SocketChannel.open(
+                        new InetSocketAddress(InetAddress.getLoopbackAddress(), stalling.getLocalPort()));
+                ch.write(ByteBuffer.wrap(stalls[kind].getBytes(StandardCharsets.US_ASCII)));
+                Stalled s = new Stalled(deadlines[kind], stalledAt);
+                ch.configureBlocking(false);
+                ch.register(selector, SelectionKey.OP_READ, s);
+                open.add(s);
+            }
+            assertEquals(threadsBefore, Thread.activeCount());
+
+            ByteBuffer sink = ByteBuffer.allocate(1024);
+            long giveUp = System.nanoTime() + (BODY_TIMEOUT_MS + SWEEP_SLACK_MS * 2) * 1_000_000L;
+            int remaining = open.size();
+            while (remaining > 0 && System.nanoTime() < giveUp) {
+                selector.select(100);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    sink.clear();
+                    if (((SocketChannel) key.channel()).read(sink) < 0) {
+                        ((Stalled) key.attachment()).closedAt = System.nanoTime();
+                        key.cancel();
+                        key.channel().close();
+                        remaining--;
+                    }
+                }
+                assertEquals(threadsBefore, Thread.activeCount());
+            }
+
+            assertEquals(0, remaining);
+            for (Stalled s : open) {
+                long heldMs = (s.closedAt - s.stalledAt) / 1_000_000L;
+                assertTrue("held " + heldMs + " ms for a " + s.deadlineMs + " ms deadline",
+                        heldMs >= s.deadlineMs && heldMs <= s.deadlineMs + SWEEP_SLACK_MS);
+            }
+            assertEquals(requestLineBefore + 2 * STALLED_PER_PHASE,
+                    metric("lan_connections_evicted_total{phase=\"request_line\"}"));
+            assertEquals(headersBefore + STALLED_PER_PHASE, metric("lan_connections_evicted_total{phase=\"headers\"}"));
+            assertEquals(bodyBefore + STALLED_PER_PHASE, metric("lan_connections_evicted_total{phase=\"body\"}"));
+        } finally {
+            for (SelectionKey key : selector.keys()) key.channel().close();
+            selector.close();
+            stalling.stop();
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket s = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        s.setSoTimeout(5_000);
+        return s;
+    }
+
+    private static long metric(String series) {
+        for (String line : GatewayMetrics.get().render().split("\n")) {
+            if (line.startsWith(series + " ")) return Long.parseLong(line.substring(series.length() + 1).trim());
+        }
+        throw new AssertionError(series + " not exported");
+    }
+
+    private static final class Stalled {
+        final long deadlineMs;
+        final long stalledAt;
+        long closedAt;
+
+        Stalled(long deadlineMs, long stalledAt) {
+            this.deadlineMs = deadlineMs;
+            this.stalledAt = stalledAt;
+        }
+    }
+}
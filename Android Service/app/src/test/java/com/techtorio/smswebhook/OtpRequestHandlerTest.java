@@ -0,0 +1,367 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/** The LAN /send-otp, /send-otp/batch, /status and /metrics endpoints over a real server, queueing into a fake outbox. */
+public class OtpRequestHandlerTest {
+    private static final String SECRET = "X-Webhook-Secret: s3cret";
+
+    private final TestPreferences prefs = new TestPreferences()
+            .set("enable_lan_endpoint", true)
+            .set("secret_key", "s3cret")
+            .set("default_country_code", "+92")
+            .set("rate_limit_per_device", 10_000)
+            .set("otp_templates", "{\"login\":\"Login code {varOTP}\"}");
+    private final FakeOutbox outbox = new FakeOutbox();
+    private NioHttpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new NioHttpServer(0, 1, new OtpRequestHandler(prefs::snapshot, outbox),
+                new ServerLimits(5_000, 5_000, 5_000, 5_000, 1000, 0));
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        outbox.scheduler.shutdownNow();
+    }
+
+    @Test
+    public void sendOtpQueuesTheMessageAndReturnsItsId() throws Exception {
+        TestHttp.Response response = get("/send-otp?otp=1234&receiver=03001234567&template=login");
+        assertEquals(200, response.status);
+        JSONObject json = new JSONObject(response.body);
+        assertEquals("queued", json.getString("status"));
+        assertEquals(1, outbox.submitted.size());
+        OutboundMessage message = outbox.submitted.get(0);
+        assertEquals(json.getString("id"), message.getId());
+        assertEquals("+923001234567", message.getTo());
+        assertEquals("Login code 1234", message.getBody());
+        assertEquals(OutboundMessage.Lane.OTP, message.getLane());
+    }
+
+    @Test
+    public void sendOtpIsShedWithRetryAfterWhileTheOutboxIsFull() throws Exception {
+        outbox.fullLane = OutboundMessage.Lane.OTP;
+        TestHttp.Response shed = get("/send-otp?otp=1234&receiver=03001234567");
+        assertEquals(503, shed.status);
+        assertEquals("2", shed.header("Retry-After"));
+        assertTrue(shed.body.contains("overloaded"));
+        assertTrue(outbox.submitted.isEmpty());
+
+        // Other lanes still have room
+        assertEquals(200, get("/send-otp?otp=1234&receiver=03001234567&lane=bulk").status);
+        assertEquals(1, outbox.submitted.size());
+    }
+
+    @Test
+    public void statusOfAnUnknownIdIsNotFound() throws Exception {
+        TestHttp.Response response = get("/status/no-such-id?wait=0");
+        assertEquals(404, response.status);
+        assertTrue(response.body.contains("unknown_request"));
+    }
+
+    @Test
+    public void statusOfAFinishedMessageIsAnsweredAtOnce() throws Exception {
+        OutboundMessage message = queue("1234");
+        message.complete(new SmsOutcome(message.getId(), SmsOutcome.Status.FAILED, 4, 1, 0, null),
+                System.currentTimeMillis());
+        long started = System.nanoTime();
+        TestHttp.Response response = get("/status/" + message.getId() + "?wait=30");
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(200, response.status);
+        JSONObject json = new JSONObject(response.body);
+        assertEquals(message.getId(), json.getString("id"));
+        assertEquals("failed", json.getString("status"));
+        assertEquals("+923001234567", json.getString("receiver"));
+        assertEquals(4, json.getInt("result_code"));
+    }
+
+    @Test
+    public void statusLongPollAnswersWhenTheMessageCompletes() throws Exception {
+        OutboundMessage message = queue("1234");
+        try (Socket s = connect()) {
+            s.getOutputStream().write(TestHttp.get("/status/" + message.getId() + "?wait=30", SECRET));
+            BufferedInputStream in = new BufferedInputStream(s.getInputStream());
+            Thread.sleep(300);
+            assertEquals(0, in.available());
+            message.complete(new SmsOutcome(message.getId(), SmsOutcome.Status.SENT, -1, 1, 0, null),
+                    System.currentTimeMillis());
+            TestHttp.Response response = TestHttp.read(in);
+            assertEquals(200, response.status);
+            assertEquals("sent", new JSONObject(response.body).getString("status"));
+        }
+    }
+
+    @Test
+    public void statusLongPollTimesOutWithTheCurrentState() throws Exception {
+        OutboundMessage message = queue("1234");
+        long started = System.nanoTime();
+        TestHttp.Response response = get("/status/" + message.getId() + "?timeout=1");
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        assertTrue("waited " + waitedMs + " ms", waitedMs >= 900);
+        assertEquals(200, response.status);
+        JSONObject json = new JSONObject(response.body);
+        assertEquals("queued", json.getString("status"));
+        assertFalse(json.has("result_code"));
+    }
+
+    @Test
+    public void statusRejectsAMalformedWaitAndNeedsTheSecret() throws Exception {
+        OutboundMessage message = queue("1234");
+        TestHttp.Response malformed = get("/status/" + message.getId() + "?wait=soon");
+        assertEquals(400, malformed.status);
+        assertTrue(malformed.body.contains("invalid_parameter"));
+        try (Socket s = connect()) {
+            s.getOutputStream().write(TestHttp.get("/status/" + message.getId() + "?wait=0"));
+            assertEquals(401, TestHttp.readStatus(new BufferedInputStream(s.getInputStream())));
+        }
+    }
+
+    @Test
+    public void everyItemGetsItsOwnIdAndStatus() throws Exception {
+        TestHttp.Response response = batch("["
+                + "{\"otp\":\"1111\",\"receiver\":\"03001234567\"},"
+                + "{\"otp\":\"2222\",\"receiver\":\"+923007654321\",\"templateId\":\"login\"},"
+                + "{\"otp\":\"3333\",\"receiver\":\"923331112222\",\"lane\":\"bulk\"}]");
+        assertEquals(200, response.status);
+        JSONArray results = new JSONObject(response.body).getJSONArray("results");
+        assertEquals(3, results.length());
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            JSONObject result = results.getJSONObject(i);
+            assertEquals(i, result.getInt("index"));
+            assertEquals("queued", result.getString("status"));
+            ids.add(result.getString("id"));
+        }
+        assertEquals(3, ids.size());
+        assertEquals("03001234567", results.getJSONObject(0).getString("receiver"));
+
+        assertEquals(3, outbox.submitted.size());
+        assertEquals(results.getJSONObject(1).getString("id"), outbox.submitted.get(1).getId());
+        assertEquals("+923001234567", outbox.submitted.get(0).getTo());
+        assertEquals("Login code 2222", outbox.submitted.get(1).getBody());
+        assertEquals(OutboundMessage.Lane.BULK, outbox.submitted.get(2).getLane());
+    }
+
+    @Test
+    public void invalidItemsAreReportedAlongsideAcceptedOnes() throws Exception {
+        TestHttp.Response response = batch("["
+                + "{\"otp\":\"1111\",\"receiver\":\"03001234567\"},"
+                + "{\"receiver\":\"03001234568\"},"
+                + "{\"otp\":\"3333\",\"receiver\":\"03001234569\",\"templateId\":\"nope\"},"
+                + "{\"otp\":\"4444\",\"receiver\":\"03001234570\",\"lane\":\"urgent\"},"
+                + "{\"otp\":\"5555\",\"receiver\":\"03001234571\",\"expiresAt\":\"1000\"},"
+                + "42,"
+                + "{\"otp\":\"7777\",\"receiver\":\"03001234572\"}]");
+        assertEquals(200, response.status);
+        JSONArray results = new JSONObject(response.body).getJSONArray("results");
+        String[] expected = { "queued", "invalid_parameter", "unknown_template", "unknown_lane",
+                "already_expired", "invalid_parameter", "queued" };
+        assertEquals(expected.length, results.length());
+        for (int i = 0; i < expected.length; i++) {
+            JSONObject result = results.getJSONObject(i);
+            assertEquals(i, result.getInt("index"));
+            assertEquals("item " + i, expected[i], result.getString("status"));
+            assertEquals("item " + i, expected[i].equals("queued"), result.has("id"));
+        }
+        assertEquals(2, outbox.submitted.size());
+        assertEquals("+923001234572", outbox.submitted.get(1).getTo());
+    }
+
+    @Test
+    public void rateLimitedAndOverloadedItemsDoNotFailTheRest() throws Exception {
+        prefs.set("rate_limit_per_number", 1);
+        outbox.fullLane = OutboundMessage.Lane.BULK;
+        TestHttp.Response response = batch("["
+                + "{\"otp\":\"1111\",\"receiver\":\"03001234567\"},"
+                + "{\"otp\":\"2222\",\"receiver\":\"0300-1234567\"},"
+                + "{\"otp\":\"3333\",\"receiver\":\"03001234568\",\"lane\":\"bulk\"},"
+                + "{\"otp\":\"4444\",\"receiver\":\"03001234569\"}]");
+        assertEquals(200, response.status);
+        JSONArray results = new JSONObject(response.body).getJSONArray("results");
+        assertEquals("queued", results.getJSONObject(0).getString("status"));
+        assertEquals("rate_limited", results.getJSONObject(1).getString("status"));
+        assertEquals("overloaded", results.getJSONObject(2).getString("status"));
+        assertEquals("queued", results.getJSONObject(3).getString("status"));
+        assertEquals(2, outbox.submitted.size());
+    }
+
+    @Test
+    public void batchIsCappedAtFiveHundredItems() throws Exception {
+        TestHttp.Response full = batch(items(500));
+        assertEquals(200, full.status);
+        JSONArray results = new JSONObject(full.body).getJSONArray("results");
+        assertEquals(500, results.length());
+        assertEquals("queued", results.getJSONObject(499).getString("status"));
+        assertEquals(500, outbox.submitted.size());
+
+        outbox.submitted.clear();
+        TestHttp.Response over = batch(items(501));
+        assertEquals(400, over.status);
+        assertTrue(over.body.contains("invalid_batch_size"));
+        assertTrue(outbox.submitted.isEmpty());
+
+        TestHttp.Response empty = batch("[]");
+        assertEquals(400, empty.status);
+        assertTrue(empty.body.contains("invalid_batch_size"));
+    }
+
+    @Test
+    public void malformedBodyAndFullQueueAreRefusedWhole() throws Exception {
+        TestHttp.Response malformed = batch("{\"otp\":\"1111\"}");
+        assertEquals(400, malformed.status);
+        assertTrue(malformed.body.contains("invalid_request"));
+
+        outbox.full = true;
+        TestHttp.Response overloaded = batch(items(3));
+        assertEquals(503, overloaded.status);
+        assertTrue(outbox.submitted.isEmpty());
+    }
+
+    @Test
+    public void batchNeedsTheSecretAndPost() throws Exception {
+        try (Socket s = connect()) {
+            s.getOutputStream().write(TestHttp.post("/send-otp/batch", items(1)));
+            assertEquals(401, TestHttp.readStatus(new BufferedInputStream(s.getInputStream())));
+        }
+        try (Socket s = connect()) {
+            s.getOutputStream().write(TestHttp.get("/send-otp/batch", false));
+            assertEquals(405, TestHttp.readStatus(new BufferedInputStream(s.getInputStream())));
+        }
+        assertTrue(outbox.submitted.isEmpty());
+    }
+
+    private TestHttp.Response batch(String body) throws IOException {
+        try (Socket s = connect()) {
+            s.getOutputStream().write(TestHttp.post("/send-otp/batch", body, SECRET, "Content-Type: application/json"));
+            return TestHttp.read(new BufferedInputStream(s.getInputStream()));
+        }
+    }
+
+    @Test
+    public void metricsAreServedWithoutTheSecretInTextFormat() throws Exception {
+        try (Socket s = connect()) {
+            s.getOutputStream().write(TestHttp.get("/metrics"));
+            TestHttp.Response response = TestHttp.read(new BufferedInputStream(s.getInputStream()));
+            assertEquals(200, response.status);
+            assertEquals(GatewayMetrics.CONTENT_TYPE, response.header("Content-Type"));
+            assertTrue(response.body.contains("# TYPE otp_http_responses_total counter\n"));
+            assertTrue(response.body.contains("otp_shed_total{reason=\"worker_pool\"} "));
+        }
+    }
+
+    @Test
+    public void metricsAreForbiddenWhileTheLanEndpointIsOff() throws Exception {
+        prefs.set("enable_lan_endpoint", false);
+        TestHttp.Response response = get("/metrics");
+        assertEquals(403, response.status);
+        assertTrue(response.body.contains("forbidden"));
+    }
+
+    private TestHttp.Response get(String target) throws IOException {
+        try (Socket s = connect()) {
+            s.getOutputStream().write(TestHttp.get(target, SECRET));
+            return TestHttp.read(new BufferedInputStream(s.getInputStream()));
+        }
+    }
+
+    private OutboundMessage queue(String otp) throws Exception {
+        assertEquals(200, get("/send-otp?otp=" + otp + "&receiver=03001234567").status);
+        return outbox.submitted.get(outbox.submitted.size() - 1);
+    }
+
+    private static String items(int count) {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) body.append(',');
+            body.append("{\"otp\":\"").append(1000 + i).append("\",\"receiver\":\"0300")
+                    .append(String.format("%07d", i)).append("\"}");
+        }
+        return body.append(']').toString();
+    }
+
+    private Socket connect() throws IOException {
+        Socket s = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        s.setSoTimeout(10_000);
+        return s;
+    }
+
+    /**
+     * Accepts everything unless told a lane, or every lane, is full; journal
+     * writes succeed at once and waits end on completion or timeout.
+     */
+    private static final class FakeOutbox implements Outbox {
+        final List<OutboundMessage> submitted = new CopyOnWriteArrayList<>();
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        volatile boolean full;
+        volatile OutboundMessage.Lane fullLane;
+
+        @Override
+        public synchronized OutboundMessage submit(String to, String body, Integer simSlot, OutboundMessage.Lane lane,
+                                                   boolean otp, int parts, long notBefore, long expiresAt) {
+            if (!hasCapacity(lane)) return null;
+            OutboundMessage message = new OutboundMessage(UUID.randomUUID().toString(), to, body, simSlot, lane, otp,
+                    parts, System.currentTimeMillis(), notBefore, expiresAt);
+            message.persisted().complete(true);
+            submitted.add(message);
+            return message;
+        }
+
+        @Override
+        public boolean hasCapacity(OutboundMessage.Lane lane) {
+            return !full && lane != fullLane;
+        }
+
+        @Override
+        public boolean hasCapacity() {
+            return !full;
+        }
+
+        @Override
+        public OutboundMessage get(String id) {
+            for (OutboundMessage m : submitted) {
+                if (m.getId().equals(id)) return m;
+            }
+            return null;
+        }
+
+        @Override
+        public CompletableFuture<OutboundMessage> awaitCompletion(OutboundMessage message, long timeoutMs) {
+            CompletableFuture<OutboundMessage> result = new CompletableFuture<>();
+            message.completion().thenAccept(result::complete);
+            scheduler.schedule(() -> result.complete(message), timeoutMs, TimeUnit.MILLISECONDS);
+            return result;
+        }
+
+        @Override
+        public CompletableFuture<List<OutboundJournal.DeadLetter>> getDeadLetters(int limit) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PhoneNormalizerTest {
+    @Test
+    public void everyPakistaniSpellingBecomesTheSameE164Number() {
+        String expected = "+923001234567";
+        assertEquals(expected, PhoneNormalizer.normalizePhone("+92 300 1234567", "+92"));
+        assertEquals(expected, PhoneNormalizer.normalizePhone("0092-300-1234567", "+92"));
+        assertEquals(expected, PhoneNormalizer.normalizePhone("03001234567", "+92"));
+        assertEquals(expected, PhoneNormalizer.normalizePhone("923001234567", "+92"));
+        assertEquals(expected, PhoneNormalizer.normalizePhone("3001234567", "+92"));
+        assertEquals(expected, PhoneNormalizer.normalizePhone(" (0300) 123-4567 ", "92"));
+    }
+
+    @Test
+    public void explicitCountryCodesAreKept() {
+        assertEquals("+447911123456", PhoneNormalizer.normalizePhone("+44 7911 123456", "+92"));
+        assertEquals("+447911123456", PhoneNormalizer.normalizePhone("00447911123456", "+92"));
+    }
+
+    @Test
+    public void withoutADefaultCountryCodeDigitsAreTakenAsInternational() {
+        assertEquals("+923001234567", PhoneNormalizer.normalizePhone("923001234567", ""));
+        assertEquals("+923001234567", PhoneNormalizer.normalizePhone("00923001234567", null));
+    }
+
+    @Test
+    public void blankInputIsEmpty() {
+        assertEquals("", PhoneNormalizer.normalizePhone(null, "+92"));
+        assertEquals("", PhoneNormalizer.normalizePhone("  ", "+92"));
+        assertEquals("", PhoneNormalizer.normalizePhone("+", "+92"));
+    }
+}
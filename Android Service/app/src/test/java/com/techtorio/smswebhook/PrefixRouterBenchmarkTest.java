@@ -0,0 +1,69 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SIM route lookup for one E.164 number: the PrefixRouter digit trie against
+ * a linear scan over the routes keeping the longest startsWith() match, with
+ * 200 operator prefixes configured. Prints ns per lookup.
+ */
+public class PrefixRouterBenchmarkTest {
+    private static final int ROUTES = 200;
+    private static final int WARMUP = 500_000;
+    private static final int ITERATIONS = 2_000_000;
+
+    private static volatile int sink;
+
+    @Test
+    public void trieAgainstLinearScan() {
+        StringBuilder config = new StringBuilder();
+        List<String> prefixes = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        for (int i = 0; i < ROUTES; i++) {
+            String prefix = "+923" + String.format("%03d", i * 5);
+            prefixes.add(prefix);
+            slots.add(i & 1);
+            if (config.length() > 0) config.append(',');
+            config.append(prefix).append(':').append(i & 1);
+        }
+        PrefixRouter router = PrefixRouter.parse(config.toString(), "+92");
+        String[] numbers = new String[256];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = PhoneNormalizer.normalizePhone(String.format("03%03d%07d", (i * 37) % 1000, i * 7919 % 10_000_000), "+92");
+        }
+        for (String number : numbers) assertEquals(scan(prefixes, slots, number), router.lookup(number));
+
+        double trie = measure(i -> router.lookup(numbers[i & 255]));
+        double linear = measure(i -> scan(prefixes, slots, numbers[i & 255]));
+        System.out.printf("%d routes: trie %.0f ns, linear scan %.0f ns%n", ROUTES, trie, linear);
+    }
+
+    private static int scan(List<String> prefixes, List<Integer> slots, String number) {
+        int best = -1;
+        int bestLength = 0;
+        for (int i = 0; i < prefixes.size(); i++) {
+            String prefix = prefixes.get(i);
+            if (prefix.length() > bestLength && number.startsWith(prefix)) {
+                best = slots.get(i);
+                bestLength = prefix.length();
+            }
+        }
+        return best;
+    }
+
+    private static double measure(Lookup lookup) {
+        for (int i = 0; i < WARMUP; i++) sink = lookup.lookup(i);
+        long started = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) sink = lookup.lookup(i);
+        return (System.nanoTime() - started) / (double) ITERATIONS;
+    }
+
+    private interface Lookup {
+        int lookup(int i);
+    }
+}
@@ -0,0 +1,52 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PrefixRouterTest {
+    @Test
+    public void longestPrefixWins() {
+        PrefixRouter router = PrefixRouter.parse("+92:2,+92300:0,+923001:1", "+92");
+        assertEquals(Integer.valueOf(1), router.route("+923001234567"));
+        assertEquals(Integer.valueOf(0), router.route("+923009876543"));
+        assertEquals(Integer.valueOf(2), router.route("+923331234567"));
+        assertNull(router.route("+447911123456"));
+    }
+
+    @Test
+    public void routesWrittenNationallyMatchE164Numbers() {
+        PrefixRouter router = PrefixRouter.parse("0300:0, 00923 33:1, 92345:2", "+92");
+        assertEquals(Integer.valueOf(0), router.route("+923001234567"));
+        assertEquals(Integer.valueOf(1), router.route("+923331234567"));
+        assertEquals(Integer.valueOf(2), router.route("+923451234567"));
+    }
+
+    @Test
+    public void everySpellingOfANumberRoutesTheSameAfterNormalizing() {
+        PrefixRouter router = PrefixRouter.parse("+92300:0,+92333:1", "+92");
+        String[] spellings = { "+92 300 1234567", "00923001234567", "03001234567", "923001234567", "3001234567" };
+        for (String spelling : spellings) {
+            assertEquals(spelling, Integer.valueOf(0), router.route(PhoneNormalizer.normalizePhone(spelling, "+92")));
+        }
+    }
+
+    @Test
+    public void malformedEntriesAreSkipped() {
+        PrefixRouter router = PrefixRouter.parse("+92300:x,:1,+92333,+92345:-1,+92301:1", "+92");
+        assertNull(router.route("+923001234567"));
+        assertNull(router.route("+923331234567"));
+        assertEquals(Integer.valueOf(1), router.route("+923011234567"));
+    }
+
+    @Test
+    public void blankRoutesAreEmpty() {
+        assertSame(PrefixRouter.EMPTY, PrefixRouter.parse(" ", "+92"));
+        assertTrue(PrefixRouter.parse(null, "+92").isEmpty());
+        assertNull(PrefixRouter.EMPTY.route("+923001234567"));
+        assertNull(PrefixRouter.parse("+92300:0", "+92").route(null));
+    }
+}
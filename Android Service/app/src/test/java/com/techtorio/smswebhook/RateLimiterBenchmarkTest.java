@@ -0,0 +1,109 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Acquire throughput at 1, 2, 4 and 8 threads: RateLimiter against the
+ * synchronized HashMap&lt;String, Deque&lt;Long&gt;&gt; isRateLimited() it replaced.
+ * Each thread cycles over its own recipients, with both the per-number and the
+ * device limit enabled. Prints acquires per second; scaling depends on the cores
+ * the run gets.
+ */
+public class RateLimiterBenchmarkTest {
+    private static final long RUN_MS = 500;
+    private static final int NUMBERS_PER_THREAD = 1_000;
+    private static final int[] THREADS = {1, 2, 4, 8};
+    // Short enough that both limits grant and reject during a run
+    private static final int PER_NUMBER = 1_000;
+    private static final int PER_DEVICE = 100_000;
+    private static final long WINDOW_MS = 100;
+
+    @Test
+    public void acquireThroughputByThreadCount() throws Exception {
+        for (int threads : THREADS) {
+            RateLimiter limiter = new RateLimiter(PER_NUMBER, WINDOW_MS, PER_DEVICE, WINDOW_MS, 100_000);
+            Legacy legacy = new Legacy();
+            // Warm both up once before measuring
+            if (threads == THREADS[0]) {
+                run(threads, limiter::tryAcquire);
+                run(threads, legacy::isRateLimited);
+            }
+            double fast = run(threads, limiter::tryAcquire);
+            double old = run(threads, legacy::isRateLimited);
+            System.out.printf("%d threads: RateLimiter %.0f/s, synchronized map %.0f/s%n", threads, fast, old);
+            assertTrue(fast > 0);
+        }
+    }
+
+    private static double run(int threads, Acquire acquire) throws Exception {
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        long[] deadline = new long[1];
+        for (int t = 0; t < threads; t++) {
+            String[] numbers = new String[NUMBERS_PER_THREAD];
+            for (int i = 0; i < numbers.length; i++) numbers[i] = "+92" + t + "30" + i;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long n = 0;
+                int i = 0;
+                long now;
+                while ((now = System.currentTimeMillis()) < deadline[0]) {
+                    for (int k = 0; k < 256; k++) {
+                        acquire.tryAcquire(numbers[i], now);
+                        if (++i == numbers.length) i = 0;
+                    }
+                    n += 256;
+                }
+                ops.add(n);
+            });
+            workers[t].start();
+        }
+        deadline[0] = System.currentTimeMillis() + RUN_MS;
+        start.countDown();
+        for (Thread w : workers) w.join();
+        return ops.sum() * 1000.0 / RUN_MS;
+    }
+
+    private interface Acquire {
+        boolean tryAcquire(String number, long now);
+    }
+
+    /** The handler's previous limiter, with the same limits. */
+    private static final class Legacy {
+        private final Map<String, Deque<Long>> perNumberTimestamps = new HashMap<>();
+        private final Deque<Long> deviceTimestamps = new ArrayDeque<>();
+
+        synchronized boolean isRateLimited(String number, long now) {
+            Deque<Long> q = perNumberTimestamps.get(number);
+            if (q == null) {
+                q = new ArrayDeque<>();
+                perNumberTimestamps.put(number, q);
+            }
+            prune(q, now - WINDOW_MS);
+            if (q.size() >= PER_NUMBER) return true;
+            prune(deviceTimestamps, now - WINDOW_MS);
+            if (deviceTimestamps.size() >= PER_DEVICE) return true;
+            q.addLast(now);
+            deviceTimestamps.addLast(now);
+            return false;
+        }
+
+        private void prune(Deque<Long> q, long threshold) {
+            while (!q.isEmpty() && q.peekFirst() < threshold) q.removeFirst();
+        }
+    }
+}
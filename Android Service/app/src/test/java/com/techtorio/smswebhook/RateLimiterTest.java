@@ -0,0 +1,143 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RateLimiterTest {
+    private static final long MINUTE = 60_000L;
+
+    @Test
+    public void perNumberLimitSlidesWithTheWindow() {
+        RateLimiter limiter = new RateLimiter(3, MINUTE, 0, MINUTE, 1_000);
+        assertTrue(limiter.tryAcquire("+923001234567", 1_000));
+        assertTrue(limiter.tryAcquire("+923001234567", 2_000));
+        assertTrue(limiter.tryAcquire("+923001234567", 3_000));
+        assertFalse(limiter.tryAcquire("+923001234567", 4_000));
+        assertTrue(limiter.tryAcquire("+923009999999", 4_000));
+        // The send at 1s leaves the window just after 61s
+        assertFalse(limiter.tryAcquire("+923001234567", 61_000));
+        assertTrue(limiter.tryAcquire("+923001234567", 61_001));
+    }
+
+    @Test
+    public void deviceLimitCountsPartsAcrossNumbers() {
+        RateLimiter limiter = new RateLimiter(0, MINUTE, 5, MINUTE, 1_000);
+        assertTrue(limiter.tryAcquire("+923001111111", 3, 1_000));
+        assertFalse(limiter.tryAcquire("+923002222222", 3, 2_000));
+        assertTrue(limiter.tryAcquire("+923002222222", 2, 2_000));
+        assertFalse(limiter.tryAcquire("+923003333333", 1, 3_000));
+        assertFalse(limiter.tryAcquire("+923003333333", 6, 10 * MINUTE));
+        assertTrue(limiter.tryAcquire("+923003333333", 3, 1_000 + MINUTE + 1));
+    }
+
+    @Test
+    public void numberOverItsLimitDoesNotSpendTheDeviceBudget() {
+        RateLimiter limiter = new RateLimiter(1, MINUTE, 2, MINUTE, 1_000);
+        assertTrue(limiter.tryAcquire("+923001111111", 1_000));
+        for (int i = 0; i < 10; i++) assertFalse(limiter.tryAcquire("+923001111111", 1_000 + i));
+        assertTrue(limiter.tryAcquire("+923002222222", 2_000));
+        assertFalse(limiter.tryAcquire("+923003333333", 3_000));
+    }
+
+    @Test
+    public void trackedKeysStayBounded() {
+        RateLimiter limiter = new RateLimiter(5, MINUTE, 0, MINUTE, 160);
+        for (int i = 0; i < 10_000; i++) limiter.tryAcquire("+92300" + i, 1_000);
+        assertTrue(limiter.trackedKeys() <= 160);
+    }
+
+    @Test
+    public void idleNumbersAreSweptAsNewOnesArrive() {
+        RateLimiter limiter = new RateLimiter(5, MINUTE, 0, MINUTE, 16_000);
+        for (int i = 0; i < 1_000; i++) limiter.tryAcquire("+92300" + i, 1_000);
+        assertEquals(1_000, limiter.trackedKeys());
+        for (int i = 0; i < 1_000; i++) limiter.tryAcquire("+92311" + i, 1_000 + 2 * MINUTE);
+        assertEquals(1_000, limiter.trackedKeys());
+    }
+
+    @Test
+    public void configureAppliesNewLimits() {
+        RateLimiter limiter = new RateLimiter(1, MINUTE, 0, MINUTE, 1_000);
+        assertTrue(limiter.tryAcquire("+923001111111", 1_000));
+        assertFalse(limiter.tryAcquire("+923001111111", 2_000));
+        limiter.configure(3, MINUTE, 0, MINUTE);
+        assertTrue(limiter.tryAcquire("+923001111111", 3_000));
+        assertTrue(limiter.tryAcquire("+923001111111", 3_000));
+    }
+
+    @Test
+    public void refundedSendIsNotChargedToTheNumberOrTheDevice() {
+        RateLimiter limiter = new RateLimiter(2, MINUTE, 3, MINUTE, 1_000);
+        assertTrue(limiter.tryAcquire("+923001111111", 1_000));
+        RateLimiter.Permit rejected = limiter.acquire("+923001111111", 2, 2_000);
+        assertNotNull(rejected);
+        assertNull(limiter.acquire("+923001111111", 1, 3_000));
+        limiter.refund(rejected);
+        // Both the number's second send and the device's last two parts are free again
+        assertTrue(limiter.tryAcquire("+923001111111", 2, 3_000));
+        assertFalse(limiter.tryAcquire("+923001111111", 4_000));
+        assertFalse(limiter.tryAcquire("+923002222222", 4_000));
+    }
+
+    @Test
+    public void refundKeepsNewerSendsOfTheSameNumber() {
+        RateLimiter limiter = new RateLimiter(3, MINUTE, 0, MINUTE, 1_000);
+        RateLimiter.Permit first = limiter.acquire("+923001111111", 1, 1_000);
+        assertTrue(limiter.tryAcquire("+923001111111", 2_000));
+        assertTrue(limiter.tryAcquire("+923001111111", 3_000));
+        limiter.refund(first);
+        assertTrue(limiter.tryAcquire("+923001111111", 4_000));
+        assertFalse(limiter.tryAcquire("+923001111111", 5_000));
+        // The sends at 2s and 3s still count, so only the first of them leaving frees a place
+        assertFalse(limiter.tryAcquire("+923001111111", 2_000 + MINUTE));
+        assertTrue(limiter.tryAcquire("+923001111111", 2_001 + MINUTE));
+    }
+
+    @Test
+    public void refundBehindALaterDeviceClaimStillFreesItsPlace() {
+        RateLimiter limiter = new RateLimiter(0, MINUTE, 2, MINUTE, 1_000);
+        RateLimiter.Permit refunded = limiter.acquire("+923001111111", 1, 1_000);
+        assertTrue(limiter.tryAcquire("+923002222222", 2_000));
+        limiter.refund(refunded);
+        // The slot of the refunded send comes round next and no longer holds a stamp
+        assertTrue(limiter.tryAcquire("+923003333333", 3_000));
+        assertFalse(limiter.tryAcquire("+923004444444", 4_000));
+    }
+
+    @Test
+    public void concurrentAcquiresNeverExceedTheDeviceLimit() throws Exception {
+        int limit = 1_000;
+        int threads = 8;
+        RateLimiter limiter = new RateLimiter(2, MINUTE, limit, MINUTE, 100_000);
+        AtomicInteger granted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // A number shared by every thread must not take device slots once it is over its own limit
+                for (int i = 0; i < 2_000; i++) {
+                    String number = i % 4 == 0 ? "+923000000000" : "+92" + id + "-" + i;
+                    if (limiter.tryAcquire(number, 1_000)) granted.incrementAndGet();
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread w : workers) w.join();
+        assertEquals(limit, granted.get());
+    }
+}
@@ -0,0 +1,45 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.telephony.SmsManager;
+
+import org.junit.Test;
+
+public class RetryPolicyTest {
+    @Test
+    public void resultsFromBeforeTheMessageLeftThePhoneAreRetried() {
+        assertTrue(RetryPolicy.isRetryable(failed(SmsManager.RESULT_ERROR_NO_SERVICE)));
+        assertTrue(RetryPolicy.isRetryable(failed(SmsManager.RESULT_ERROR_RADIO_OFF)));
+        assertTrue(RetryPolicy.isRetryable(failed(SmsManager.RESULT_ERROR_LIMIT_EXCEEDED)));
+    }
+
+    @Test
+    public void resultsThatMayHaveBeenDeliveredAreFinal() {
+        // A generic failure can come after the carrier accepted the message
+        assertFalse(RetryPolicy.isRetryable(failed(SmsManager.RESULT_ERROR_GENERIC_FAILURE)));
+        assertFalse(RetryPolicy.isRetryable(failed(SmsManager.RESULT_ERROR_NULL_PDU)));
+        assertFalse(RetryPolicy.isRetryable(timedOut()));
+    }
+
+    @Test
+    public void backoffGrowsAndStaysWithinTheCeiling() {
+        for (int i = 0; i < 1_000; i++) {
+            long first = RetryPolicy.backoffMs(1);
+            assertTrue(first >= 1_000 && first <= 2_000);
+            long third = RetryPolicy.backoffMs(3);
+            assertTrue(third >= 4_000 && third <= 8_000);
+            long late = RetryPolicy.backoffMs(40);
+            assertTrue(late >= 30_000 && late <= 60_000);
+        }
+    }
+
+    private static SmsOutcome failed(int resultCode) {
+        return new SmsOutcome("m1", SmsOutcome.Status.FAILED, resultCode, 1, 0, null);
+    }
+
+    private static SmsOutcome timedOut() {
+        return new SmsOutcome("m1", SmsOutcome.Status.TIMED_OUT, 0, 1, 0, null);
+    }
+}
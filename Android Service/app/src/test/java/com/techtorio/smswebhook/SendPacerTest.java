@@ -0,0 +1,97 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+
+import android.telephony.SmsManager;
+
+import org.junit.Test;
+
+public class SendPacerTest {
+    // 60 parts per minute: one part per second
+    private final ConfigSnapshot cfg = new TestPreferences()
+            .set("sms_pacing_min_per_minute", 2)
+            .set("sms_pacing_max_per_minute", 60)
+            .snapshot();
+
+    @Test
+    public void carrierPushbackHalvesTheRateOncePerHold() {
+        SendPacer pacer = new SendPacer();
+        assertEquals(60, pacer.getRatePerMinute(cfg, 0), 0);
+        pacer.onResult(cfg, 0, failed(SmsManager.RESULT_ERROR_LIMIT_EXCEEDED), 10_000);
+        assertEquals(30, pacer.getRatePerMinute(cfg, 0), 0);
+        // The rest of the burst reports the same congestion inside the 5 s hold
+        pacer.onResult(cfg, 0, failed(SmsManager.RESULT_NETWORK_REJECT), 12_000);
+        pacer.onResult(cfg, 0, failed(SmsManager.RESULT_ERROR_GENERIC_FAILURE), 14_999);
+        assertEquals(30, pacer.getRatePerMinute(cfg, 0), 0);
+        pacer.onResult(cfg, 0, failed(SmsManager.RESULT_RIL_SMS_SEND_FAIL_RETRY), 15_000);
+        assertEquals(15, pacer.getRatePerMinute(cfg, 0), 0);
+        // 15 parts per minute: four seconds per part
+        assertEquals(0, pacer.reserve(cfg, 0, 1, 20_000));
+        assertEquals(4_000, pacer.millisUntilReady(cfg, 0, 20_000));
+    }
+
+    @Test
+    public void successesRecoverOnePartPerMinuteEachUpToTheCeiling() {
+        SendPacer pacer = new SendPacer();
+        pacer.onResult(cfg, 0, failed(SmsManager.RESULT_ERROR_LIMIT_EXCEEDED), 0);
+        for (int i = 1; i <= 10; i++) pacer.onResult(cfg, 0, sent(), i);
+        assertEquals(40, pacer.getRatePerMinute(cfg, 0), 0);
+        for (int i = 0; i < 100; i++) pacer.onResult(cfg, 0, sent(), 100 + i);
+        assertEquals(60, pacer.getRatePerMinute(cfg, 0), 0);
+    }
+
+    @Test
+    public void rateNeverFallsBelowTheFloor() {
+        SendPacer pacer = new SendPacer();
+        for (int i = 0; i < 10; i++) pacer.onResult(cfg, 0, failed(SmsManager.RESULT_SMS_SEND_RETRY_FAILED), i * 5_000L);
+        assertEquals(2, pacer.getRatePerMinute(cfg, 0), 0);
+    }
+
+    @Test
+    public void failuresThatSayNothingAboutTheCarrierLeaveTheRateAlone() {
+        SendPacer pacer = new SendPacer();
+        pacer.onResult(cfg, 0, failed(SmsManager.RESULT_ERROR_NO_SERVICE), 0);
+        pacer.onResult(cfg, 0, failed(SmsManager.RESULT_ERROR_RADIO_OFF), 10_000);
+        pacer.onResult(cfg, 0, failed(SmsManager.RESULT_ERROR_NULL_PDU), 20_000);
+        pacer.onResult(cfg, 0, new SmsOutcome("m1", SmsOutcome.Status.TIMED_OUT, 0, 1, 0, null), 30_000);
+        assertEquals(60, pacer.getRatePerMinute(cfg, 0), 0);
+    }
+
+    @Test
+    public void pushbackOnOneSimDoesNotSlowTheOther() {
+        SendPacer pacer = new SendPacer();
+        pacer.onResult(cfg, 0, failed(SmsManager.RESULT_ERROR_LIMIT_EXCEEDED), 0);
+        assertEquals(30, pacer.getRatePerMinute(cfg, 0), 0);
+        pacer.onResult(cfg, 1, sent(), 0);
+        assertEquals(60, pacer.getRatePerMinute(cfg, 1), 0);
+    }
+
+    @Test
+    public void releasedReservationFreesTheSlotAgain() {
+        SendPacer pacer = new SendPacer();
+        assertEquals(0, pacer.reserve(cfg, 0, 1, 0));
+        assertEquals(1_000, pacer.millisUntilReady(cfg, 0, 0));
+        pacer.release(cfg, 0, 1);
+        assertEquals(0, pacer.millisUntilReady(cfg, 0, 0));
+        assertEquals(0, pacer.reserve(cfg, 0, 2, 0));
+    }
+
+    @Test
+    public void releaseKeepsLaterReservationsInLine() {
+        SendPacer pacer = new SendPacer();
+        pacer.reserve(cfg, 1, 1, 0);
+        assertEquals(1_000, pacer.reserve(cfg, 1, 3, 0));
+        pacer.release(cfg, 1, 1);
+        assertEquals(3_000, pacer.millisUntilReady(cfg, 1, 0));
+        // Other SIMs were never touched
+        assertEquals(0, pacer.millisUntilReady(cfg, 0, 0));
+    }
+
+    private static SmsOutcome failed(int resultCode) {
+        return new SmsOutcome("m1", SmsOutcome.Status.FAILED, resultCode, 1, 0, null);
+    }
+
+    private static SmsOutcome sent() {
+        return new SmsOutcome("m1", SmsOutcome.Status.SENT, -1, 1, 0, null);
+    }
+}
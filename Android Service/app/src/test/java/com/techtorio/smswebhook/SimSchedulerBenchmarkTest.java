@@ -0,0 +1,98 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A burst of single-part SMS through a fake radio that keeps each SIM busy
+ * for its own send latency: the old sender that waited for every result on
+ * its one thread, against {@link SimScheduler#acquire} handing each message
+ * to whichever SIM is idle, with one SIM and with two. Prints messages per
+ * second for all three.
+ */
+public class SimSchedulerBenchmarkTest {
+    private static final int MESSAGES = 200;
+    private static final long[] LATENCY_MS = { 10, 12 };
+
+    private final ScheduledExecutorService radio = Executors.newSingleThreadScheduledExecutor();
+    private final ConfigSnapshot cfg = new TestPreferences().snapshot();
+
+    @After
+    public void tearDown() {
+        radio.shutdownNow();
+    }
+
+    @Test
+    public void twoSimsSendSideBySide() throws Exception {
+        double blocking = blocking(scheduler(2));
+        double one = nonBlocking(scheduler(1));
+        double two = nonBlocking(scheduler(2));
+        System.out.printf("waiting on each send, 2 SIMs: %.0f msg/s%n", blocking);
+        System.out.printf("scheduler, 1 SIM: %.0f msg/s%n", one);
+        System.out.printf("scheduler, 2 SIMs: %.0f msg/s (%.1fx)%n", two, two / one);
+        assertTrue(two > one * 1.5);
+    }
+
+    /** The pre-scheduler path: pick a SIM, then wait for its result before the next message. */
+    private double blocking(SimScheduler sims) throws Exception {
+        long started = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            SimScheduler.Sim sim = sims.acquire(cfg, 1, System.currentTimeMillis(), null, s -> true);
+            send(sim.getSlot()).get(10, TimeUnit.SECONDS);
+            sims.report(sim, true, System.currentTimeMillis());
+        }
+        return MESSAGES / ((System.nanoTime() - started) / 1e9);
+    }
+
+    /** What the dispatcher does: take any idle SIM, and only wait when none is. */
+    private double nonBlocking(SimScheduler sims) throws Exception {
+        boolean[] busy = new boolean[LATENCY_MS.length];
+        int[] done = new int[1];
+        long started = System.nanoTime();
+        synchronized (busy) {
+            for (int queued = MESSAGES; queued > 0; ) {
+                SimScheduler.Sim sim = sims.acquire(cfg, 1, System.currentTimeMillis(), null, s -> !busy[s]);
+                if (sim == null) {
+                    busy.wait();
+                    continue;
+                }
+                queued--;
+                busy[sim.getSlot()] = true;
+                send(sim.getSlot()).thenRun(() -> {
+                    sims.report(sim, true, System.currentTimeMillis());
+                    synchronized (busy) {
+                        busy[sim.getSlot()] = false;
+                        done[0]++;
+                        busy.notifyAll();
+                    }
+                });
+            }
+            while (done[0] < MESSAGES) busy.wait();
+        }
+        assertEquals(MESSAGES, done[0]);
+        return MESSAGES / ((System.nanoTime() - started) / 1e9);
+    }
+
+    /** The fake radio: the sent result for {@code slot} arrives after that SIM's latency. */
+    private CompletableFuture<Void> send(int slot) {
+        CompletableFuture<Void> sent = new CompletableFuture<>();
+        radio.schedule(() -> sent.complete(null), LATENCY_MS[slot], TimeUnit.MILLISECONDS);
+        return sent;
+    }
+
+    private static SimScheduler scheduler(int simCount) {
+        Map<Integer, Integer> bySlot = new HashMap<>();
+        for (int slot = 0; slot < simCount; slot++) bySlot.put(slot, 100 + slot);
+        return new SimScheduler(new TestPreferences(), bySlot);
+    }
+}
@@ -0,0 +1,148 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class SimSchedulerTest {
+    private final TestPreferences usage = new TestPreferences();
+
+    @Test
+    public void weightedRoundRobinInterleavesByWeight() {
+        SimScheduler sims = twoSims();
+        ConfigSnapshot cfg = new TestPreferences().set("sim_weights", "3,1").snapshot();
+        int[] picks = new int[2];
+        for (int round = 0; round < 5; round++) {
+            int[] inRound = new int[2];
+            for (int i = 0; i < 4; i++) inRound[sims.acquire(cfg, 1, 0, null, s -> true).getSlot()]++;
+            // Smooth: every window of four sends has the 3:1 split, not twelve in a row and then four
+            assertEquals(3, inRound[0]);
+            assertEquals(1, inRound[1]);
+            picks[0] += inRound[0];
+            picks[1] += inRound[1];
+        }
+        assertEquals(15, picks[0]);
+        assertEquals(5, picks[1]);
+    }
+
+    @Test
+    public void simThatIsNotReadyIsPassedOver() {
+        SimScheduler sims = twoSims();
+        ConfigSnapshot cfg = new TestPreferences().snapshot();
+        for (int i = 0; i < 4; i++) assertEquals(1, sims.acquire(cfg, 1, 0, null, s -> s == 1).getSlot());
+        assertNull(sims.acquire(cfg, 1, 0, null, s -> false));
+    }
+
+    @Test
+    public void routedSlotIsTakenWhileItHasRoom() {
+        SimScheduler sims = twoSims();
+        ConfigSnapshot cfg = new TestPreferences().set("sim_daily_cap", 2).snapshot();
+        assertEquals(1, sims.acquire(cfg, 1, 0, 1, s -> true).getSlot());
+        assertEquals(1, sims.acquire(cfg, 1, 0, 1, s -> true).getSlot());
+        // Slot 1 is at its cap, so balancing takes over
+        assertEquals(0, sims.acquire(cfg, 1, 0, 1, s -> true).getSlot());
+    }
+
+    @Test
+    public void dailyCapCountsPartsAndSurvivesARestart() {
+        ConfigSnapshot cfg = new TestPreferences().set("sim_daily_cap", 3).snapshot();
+        SimScheduler sims = oneSim();
+        assertNotNull(sims.acquire(cfg, 2, 0, null, s -> true));
+        assertNull(sims.acquire(cfg, 2, 0, null, s -> true));
+        assertNotNull(sims.acquire(cfg, 1, 0, null, s -> true));
+        assertNull(sims.acquire(cfg, 1, 0, null, s -> true));
+        assertEquals(-1, sims.millisUntilAvailable(cfg, 1, 0, s -> 0));
+
+        SimScheduler restarted = oneSim();
+        assertNull(restarted.acquire(cfg, 1, 0, null, s -> true));
+        assertEquals(-1, restarted.millisUntilAvailable(cfg, 1, 0, s -> 0));
+    }
+
+    @Test
+    public void ratePerMinuteRefillsOverTime() {
+        ConfigSnapshot cfg = new TestPreferences().set("sim_rate_per_minute", 2).snapshot();
+        SimScheduler sims = oneSim();
+        assertNotNull(sims.acquire(cfg, 1, 0, null, s -> true));
+        assertNotNull(sims.acquire(cfg, 1, 0, null, s -> true));
+        assertNull(sims.acquire(cfg, 1, 0, null, s -> true));
+        assertEquals(30_000, sims.millisUntilAvailable(cfg, 1, 0, s -> 0));
+        // The pacer's wait counts too
+        assertEquals(45_000, sims.millisUntilAvailable(cfg, 1, 0, s -> 45_000));
+        assertNull(sims.acquire(cfg, 1, 29_999, null, s -> true));
+        assertNotNull(sims.acquire(cfg, 1, 30_000, null, s -> true));
+    }
+
+    @Test
+    public void releaseGivesBackRateAndDailyCapacity() {
+        ConfigSnapshot cfg = new TestPreferences()
+                .set("sim_rate_per_minute", 1)
+                .set("sim_daily_cap", 1)
+                .snapshot();
+        SimScheduler sims = oneSim();
+        SimScheduler.Sim sim = sims.acquire(cfg, 1, 0, null, s -> true);
+        assertNull(sims.acquire(cfg, 1, 0, null, s -> true));
+        sims.release(cfg, sim, 1);
+        assertNotNull(sims.acquire(cfg, 1, 0, null, s -> true));
+    }
+
+    @Test
+    public void failingSimIsEjectedWithACooldownThatDoubles() {
+        SimScheduler sims = twoSims();
+        ConfigSnapshot cfg = new TestPreferences().snapshot();
+        SimScheduler.Sim bad = slot(sims, cfg, 0, 0);
+        sims.report(bad, false, 0);
+        sims.report(bad, false, 0);
+        // Two failures in a row are not enough
+        assertEquals(0, slot(sims, cfg, 0, 0).getSlot());
+        sims.report(bad, false, 1_000);
+        for (int i = 0; i < 4; i++) assertEquals(1, sims.acquire(cfg, 1, 30_999, null, s -> true).getSlot());
+        assertEquals(0, slot(sims, cfg, 0, 31_000).getSlot());
+
+        // Still failing after its rest: the next one is twice as long
+        sims.report(bad, false, 40_000);
+        for (int i = 0; i < 4; i++) assertEquals(1, sims.acquire(cfg, 1, 99_999, null, s -> true).getSlot());
+        assertEquals(0, slot(sims, cfg, 0, 100_000).getSlot());
+
+        // A success resets both the count and the cooldown
+        sims.report(bad, true, 100_000);
+        for (int i = 0; i < 3; i++) sims.report(bad, false, 200_000);
+        assertEquals(0, slot(sims, cfg, 0, 230_000).getSlot());
+    }
+
+    @Test
+    public void trafficStillFlowsWhileEverySimIsCoolingDown() {
+        SimScheduler sims = oneSim();
+        ConfigSnapshot cfg = new TestPreferences().snapshot();
+        SimScheduler.Sim sim = sims.acquire(cfg, 1, 0, null, s -> true);
+        for (int i = 0; i < 3; i++) sims.report(sim, false, 0);
+        assertNotNull(sims.acquire(cfg, 1, 1_000, null, s -> true));
+    }
+
+    /** Acquires until slot {@code wanted} comes up, so round-robin order does not matter. */
+    private static SimScheduler.Sim slot(SimScheduler sims, ConfigSnapshot cfg, int wanted, long now) {
+        SimScheduler.Sim sim = null;
+        for (int i = 0; i < 2; i++) {
+            sim = sims.acquire(cfg, 1, now, null, s -> true);
+            if (sim.getSlot() == wanted) return sim;
+        }
+        return sim;
+    }
+
+    private SimScheduler oneSim() {
+        Map<Integer, Integer> bySlot = new HashMap<>();
+        bySlot.put(0, 11);
+        return new SimScheduler(usage, bySlot);
+    }
+
+    private SimScheduler twoSims() {
+        Map<Integer, Integer> bySlot = new HashMap<>();
+        bySlot.put(0, 11);
+        bySlot.put(1, 12);
+        return new SimScheduler(usage, bySlot);
+    }
+}
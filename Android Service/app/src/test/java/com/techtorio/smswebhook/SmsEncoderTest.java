@@ -0,0 +1,87 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SmsEncoderTest {
+    private static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) sb.append(c);
+        return sb.toString();
+    }
+
+    @Test
+    public void plainOtpIsOneGsm7Segment() {
+        SmsEncoder.Encoded e = SmsEncoder.analyze("Your YaqeenPay code is 123456. Do not share it.");
+        assertTrue(e.isGsm7());
+        assertEquals(47, e.getUnits());
+        assertEquals(1, e.getSegments());
+        assertFalse(e.isTransliterated());
+    }
+
+    @Test
+    public void gsm7SegmentBoundaries() {
+        assertEquals(1, SmsEncoder.analyze(repeat('a', 160)).getSegments());
+        assertEquals(2, SmsEncoder.analyze(repeat('a', 161)).getSegments());
+        assertEquals(2, SmsEncoder.analyze(repeat('a', 306)).getSegments());
+        assertEquals(3, SmsEncoder.analyze(repeat('a', 307)).getSegments());
+    }
+
+    @Test
+    public void extensionCharactersCostTwoSeptetsAndAreNotSplit() {
+        SmsEncoder.Encoded e = SmsEncoder.analyze("Pay 5€ [now]");
+        assertTrue(e.isGsm7());
+        assertEquals(15, e.getUnits());
+        assertEquals(1, SmsEncoder.analyze(repeat('€', 80)).getSegments());
+        assertEquals(2, SmsEncoder.analyze(repeat('€', 81)).getSegments());
+        // 152 septets then an escape pair: the pair moves whole into the second part
+        assertEquals(2, SmsEncoder.analyze(repeat('a', 152) + "€" + repeat('a', 7)).getSegments());
+        assertEquals(3, SmsEncoder.analyze(repeat('a', 152) + "€" + repeat('a', 152)).getSegments());
+    }
+
+    @Test
+    public void oneNonGsmCharacterSwitchesToUcs2() {
+        SmsEncoder.Encoded e = SmsEncoder.analyze("Your code is 123456 ✔");
+        assertFalse(e.isGsm7());
+        assertEquals(21, e.getUnits());
+        assertEquals(1, SmsEncoder.analyze(repeat('ب', 70)).getSegments());
+        assertEquals(2, SmsEncoder.analyze(repeat('ب', 71)).getSegments());
+        assertEquals(2, SmsEncoder.analyze(repeat('ب', 134)).getSegments());
+        assertEquals(3, SmsEncoder.analyze(repeat('ب', 135)).getSegments());
+    }
+
+    @Test
+    public void surrogatePairsStayInOnePart() {
+        String emoji = "😀";
+        // 66 units then an emoji: it would straddle the 67-unit boundary, so it starts part two
+        String text = repeat('ب', 66) + emoji + repeat('ب', 10);
+        assertEquals(2, SmsEncoder.analyze(text).getSegments());
+        assertEquals(78, SmsEncoder.analyze(text).getUnits());
+    }
+
+    @Test
+    public void transliterationKeepsMessagesInGsm7() {
+        SmsEncoder.Encoded e = SmsEncoder.encode("“Your” code—it’s 123456… cafê", true);
+        assertTrue(e.isGsm7());
+        assertTrue(e.isTransliterated());
+        assertEquals("\"Your\" code-it's 123456... cafe", e.getText());
+    }
+
+    @Test
+    public void transliterationIsDroppedWhenItCannotReachGsm7() {
+        String text = "“Code” رمز 123456";
+        SmsEncoder.Encoded e = SmsEncoder.encode(text, true);
+        assertFalse(e.isGsm7());
+        assertFalse(e.isTransliterated());
+        assertEquals(text, e.getText());
+    }
+
+    @Test
+    public void septetCountRejectsNonGsm() {
+        assertEquals(-1, SmsEncoder.gsm7Septets("a✓"));
+        assertEquals(3, SmsEncoder.gsm7Septets("a{"));
+    }
+}
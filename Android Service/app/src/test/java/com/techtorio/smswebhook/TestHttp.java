@@ -0,0 +1,100 @@
+package com.techtorio.smswebhook;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/** Minimal HTTP/1.1 client side for the LAN server tests. */
+final class TestHttp {
+    private TestHttp() { }
+
+    static byte[] get(String path, boolean keepAlive) {
+        return ("GET " + path + " HTTP/1.1\r\nHost: test\r\n"
+                + (keepAlive ? "" : "Connection: close\r\n") + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static byte[] get(String path, String... headers) {
+        StringBuilder head = new StringBuilder("GET " + path + " HTTP/1.1\r\nHost: test\r\n");
+        for (String header : headers) head.append(header).append("\r\n");
+        return head.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static byte[] post(String path, String body, String... headers) {
+        StringBuilder head = new StringBuilder("POST " + path + " HTTP/1.1\r\nHost: test\r\n");
+        for (String header : headers) head.append(header).append("\r\n");
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        head.append("Content-Length: ").append(content.length).append("\r\n\r\n");
+        byte[] start = head.toString().getBytes(StandardCharsets.US_ASCII);
+        byte[] request = new byte[start.length + content.length];
+        System.arraycopy(start, 0, request, 0, start.length);
+        System.arraycopy(content, 0, request, start.length, content.length);
+        return request;
+    }
+
+    /** Reads one response and returns its status code, or -1 on a clean end of stream. */
+    static int readStatus(InputStream in) throws IOException {
+        Response response = read(in);
+        return response == null ? -1 : response.status;
+    }
+
+    /** Reads one response, or returns null on a clean end of stream. */
+    static Response read(InputStream in) throws IOException {
+        String head = readHead(in);
+        if (head == null) return null;
+        int contentLength = 0;
+        for (String line : head.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                contentLength = Integer.parseInt(line.substring(colon + 1).trim());
+            }
+        }
+        byte[] body = new byte[contentLength];
+        for (int i = 0; i < contentLength; i++) {
+            int b = in.read();
+            if (b < 0) throw new EOFException("body cut short");
+            body[i] = (byte) b;
+        }
+        return new Response(Integer.parseInt(head.substring(9, 12)), head, new String(body, StandardCharsets.UTF_8));
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int b = in.read();
+            if (b < 0) {
+                if (head.size() == 0) return null;
+                throw new EOFException("head cut short");
+            }
+            head.write(b);
+            matched = (b == '\r' && (matched == 0 || matched == 2)) || (b == '\n' && (matched == 1 || matched == 3))
+                    ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        return new String(head.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    static final class Response {
+        final int status;
+        final String body;
+        private final String head;
+
+        Response(int status, String head, String body) {
+            this.status = status;
+            this.head = head;
+            this.body = body;
+        }
+
+        /** Value of the first {@code name} header, or null. */
+        String header(String name) {
+            for (String line : head.split("\r\n")) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(name)) {
+                    return line.substring(colon + 1).trim();
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.techtorio.smswebhook;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/** In-memory {@link SharedPreferences} for tests that need a {@link ConfigSnapshot}; edits apply at once. */
+final class TestPreferences implements SharedPreferences {
+    private final Map<String, Object> values = new HashMap<>();
+
+    TestPreferences set(String key, Object value) {
+        synchronized (values) {
+            values.put(key, value);
+        }
+        return this;
+    }
+
+    ConfigSnapshot snapshot() {
+        return ConfigSnapshot.of(this);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(String key, T defValue) {
+        synchronized (values) {
+            Object value = values.get(key);
+            return value != null ? (T) value : defValue;
+        }
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        synchronized (values) {
+            return new HashMap<>(values);
+        }
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        return get(key, defValue);
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        return get(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return get(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return get(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return get(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return get(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        synchronized (values) {
+            return values.containsKey(key);
+        }
+    }
+
+    @Override
+    public Editor edit() {
+        return new Editor() {
+            @Override
+            public Editor putString(String key, String value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putStringSet(String key, Set<String> values) {
+                return put(key, values != null ? new HashSet<>(values) : null);
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor remove(String key) {
+                synchronized (values) {
+                    values.remove(key);
+                }
+                return this;
+            }
+
+            @Override
+            public Editor clear() {
+                synchronized (values) {
+                    values.clear();
+                }
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                return true;
+            }
+
+            @Override
+            public void apply() {
+            }
+
+            private Editor put(String key, Object value) {
+                set(key, value);
+                return this;
+            }
+        };
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+    }
+}
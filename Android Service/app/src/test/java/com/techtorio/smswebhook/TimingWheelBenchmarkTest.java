@@ -0,0 +1,64 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of arming and then cancelling 100k OTP expiries: the TimingWheel
+ * against a ScheduledThreadPoolExecutor with remove-on-cancel, whose delay
+ * queue is a binary heap. Prints ns per schedule and per cancel.
+ */
+public class TimingWheelBenchmarkTest {
+    private static final int ENTRIES = 100_000;
+    private static final int ROUNDS = 5;
+    private static final long HORIZON_MS = 10 * 60_000L;
+
+    @Test
+    public void scheduleAndCancelAgainstScheduledExecutor() {
+        TimingWheel wheel = new TimingWheel("bench-wheel", 100, 512);
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+        Runnable task = () -> { };
+        long[] wheelNs = new long[2];
+        long[] executorNs = new long[2];
+        try {
+            for (int round = 0; round <= ROUNDS; round++) {
+                // Round 0 warms up and is not counted
+                long[] w = round == 0 ? new long[2] : wheelNs;
+                long[] e = round == 0 ? new long[2] : executorNs;
+
+                TimingWheel.Timeout[] timeouts = new TimingWheel.Timeout[ENTRIES];
+                long now = System.currentTimeMillis();
+                long started = System.nanoTime();
+                for (int i = 0; i < ENTRIES; i++) timeouts[i] = wheel.schedule(task, now + 60_000L + i * HORIZON_MS / ENTRIES);
+                w[0] += System.nanoTime() - started;
+                assertEquals(ENTRIES, wheel.size());
+                started = System.nanoTime();
+                for (TimingWheel.Timeout t : timeouts) t.cancel();
+                w[1] += System.nanoTime() - started;
+                assertEquals(0, wheel.size());
+
+                ScheduledFuture<?>[] futures = new ScheduledFuture<?>[ENTRIES];
+                started = System.nanoTime();
+                for (int i = 0; i < ENTRIES; i++) {
+                    futures[i] = executor.schedule(task, 60_000L + i * HORIZON_MS / ENTRIES, TimeUnit.MILLISECONDS);
+                }
+                e[0] += System.nanoTime() - started;
+                started = System.nanoTime();
+                for (ScheduledFuture<?> f : futures) f.cancel(false);
+                e[1] += System.nanoTime() - started;
+                assertEquals(0, executor.getQueue().size());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        double ops = (double) ENTRIES * ROUNDS;
+        System.out.printf("schedule: wheel %.0f ns, scheduled executor %.0f ns%n", wheelNs[0] / ops, executorNs[0] / ops);
+        System.out.printf("cancel: wheel %.0f ns, scheduled executor %.0f ns%n", wheelNs[1] / ops, executorNs[1] / ops);
+    }
+}
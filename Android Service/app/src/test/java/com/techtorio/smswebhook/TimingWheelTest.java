@@ -0,0 +1,105 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TimingWheelTest {
+    private static final int ENTRIES = 100_000;
+
+    @Test
+    public void taskRunsNoEarlierThanItsDeadline() throws Exception {
+        TimingWheel wheel = new TimingWheel("test-wheel", 10, 64);
+        CountDownLatch ran = new CountDownLatch(1);
+        AtomicLong ranAt = new AtomicLong();
+        long deadline = System.currentTimeMillis() + 100;
+        wheel.schedule(() -> {
+            ranAt.set(System.currentTimeMillis());
+            ran.countDown();
+        }, deadline);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertTrue(ranAt.get() >= deadline);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void pastDeadlineRunsOnTheNextTick() throws Exception {
+        TimingWheel wheel = new TimingWheel("test-wheel", 10, 64);
+        CountDownLatch ran = new CountDownLatch(1);
+        wheel.schedule(ran::countDown, System.currentTimeMillis() - 60_000L);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void deadlineBeyondOneRevolutionWaitsItsRounds() throws Exception {
+        // 4 buckets of 5 ms: one revolution is 20 ms, the deadline several away
+        TimingWheel wheel = new TimingWheel("test-wheel", 5, 4);
+        CountDownLatch ran = new CountDownLatch(1);
+        AtomicLong ranAt = new AtomicLong();
+        long deadline = System.currentTimeMillis() + 90;
+        wheel.schedule(() -> {
+            ranAt.set(System.currentTimeMillis());
+            ran.countDown();
+        }, deadline);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertTrue(ranAt.get() >= deadline);
+    }
+
+    @Test
+    public void cancelledTaskNeverRuns() throws Exception {
+        TimingWheel wheel = new TimingWheel("test-wheel", 5, 16);
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch later = new CountDownLatch(1);
+        long now = System.currentTimeMillis();
+        TimingWheel.Timeout cancelled = wheel.schedule(runs::incrementAndGet, now + 20);
+        wheel.schedule(later::countDown, now + 60);
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void cancelAfterRunningReturnsFalse() throws Exception {
+        TimingWheel wheel = new TimingWheel("test-wheel", 5, 16);
+        CountDownLatch ran = new CountDownLatch(1);
+        TimingWheel.Timeout t = wheel.schedule(ran::countDown, System.currentTimeMillis());
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertFalse(t.cancel());
+    }
+
+    @Test
+    public void holdsAndCancelsOneHundredThousandEntries() {
+        TimingWheel wheel = new TimingWheel("test-wheel", 100, 512);
+        long deadline = System.currentTimeMillis() + 60 * 60_000L;
+        List<TimingWheel.Timeout> timeouts = new ArrayList<>(ENTRIES);
+        for (int i = 0; i < ENTRIES; i++) {
+            // Spread over an hour, so most entries sit many rounds out
+            timeouts.add(wheel.schedule(() -> { }, deadline - i * 36L));
+        }
+        assertEquals(ENTRIES, wheel.size());
+        for (int i = 0; i < ENTRIES; i += 2) assertTrue(timeouts.get(i).cancel());
+        assertEquals(ENTRIES / 2, wheel.size());
+        for (int i = 1; i < ENTRIES; i += 2) assertTrue(timeouts.get(i).cancel());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void oneHundredThousandDueEntriesAllRun() throws Exception {
+        TimingWheel wheel = new TimingWheel("test-wheel", 10, 512);
+        CountDownLatch ran = new CountDownLatch(ENTRIES);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < ENTRIES; i++) wheel.schedule(ran::countDown, now + 20 + i % 200);
+        assertTrue(ran.await(10, TimeUnit.SECONDS));
+        assertEquals(0, wheel.size());
+    }
+}
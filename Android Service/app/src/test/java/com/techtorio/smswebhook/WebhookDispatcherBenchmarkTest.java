@@ -0,0 +1,136 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A burst of bank SMS posted to a local webhook that takes a few milliseconds
+ * per request: the old AsyncTask path (one post at a time on the serial
+ * executor, fresh connection, disconnect() afterwards) against
+ * {@link WebhookDispatcher#post} on the default four workers with keep-alive.
+ * Prints posts per second and TCP connections opened for both.
+ */
+public class WebhookDispatcherBenchmarkTest {
+    private static final int POSTS = 200;
+    private static final int WORKERS = 4;
+    private static final long WEBHOOK_LATENCY_MS = 5;
+
+    static {
+        // Otherwise the JDK test server's separate header and body writes meet the client's delayed ACK
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private HttpServer server;
+    private ExecutorService serverPool;
+    private String url;
+    private final Set<Integer> clientPorts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        serverPool = Executors.newFixedThreadPool(16);
+        server.setExecutor(serverPool);
+        server.createContext("/hook", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            try (InputStream in = exchange.getRequestBody()) {
+                while (in.read() != -1) { }
+            }
+            try {
+                Thread.sleep(WEBHOOK_LATENCY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] reply = "{\"ok\":true}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, reply.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(reply);
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/hook";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverPool.shutdownNow();
+    }
+
+    @Test
+    public void pooledKeepAliveAgainstSerialAsyncTask() throws Exception {
+        clientPorts.clear();
+        long started = System.nanoTime();
+        for (int i = 0; i < POSTS; i++) assertEquals(200, legacyPost(url, "s", "sms " + i));
+        double legacyRate = POSTS / ((System.nanoTime() - started) / 1e9);
+        int legacyConnections = clientPorts.size();
+
+        clientPorts.clear();
+        ExecutorService workers = Executors.newFixedThreadPool(WORKERS);
+        try {
+            started = System.nanoTime();
+            List<Future<WebhookDispatcher.Result>> results = new ArrayList<>();
+            for (int i = 0; i < POSTS; i++) {
+                String sms = "sms " + i;
+                results.add(workers.submit(() -> WebhookDispatcher.post(url, "s", sms)));
+            }
+            for (Future<WebhookDispatcher.Result> r : results) assertTrue(r.get(30, TimeUnit.SECONDS).success);
+        } finally {
+            workers.shutdownNow();
+        }
+        double pooledRate = POSTS / ((System.nanoTime() - started) / 1e9);
+        int pooledConnections = clientPorts.size();
+
+        System.out.printf("serial AsyncTask: %.0f posts/s, %d connections%n", legacyRate, legacyConnections);
+        System.out.printf("dispatcher, %d workers: %.0f posts/s, %d connections%n", WORKERS, pooledRate, pooledConnections);
+        assertTrue(pooledConnections <= WORKERS);
+    }
+
+    /** The request PostWebhookTask made: new connection, body read line by line, then disconnect(). */
+    private static int legacyPost(String webhookUrl, String secretKey, String smsBody) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(webhookUrl).openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+            connection.setRequestProperty("X-Webhook-Secret", secretKey);
+            // The JVM pools the socket before disconnect() runs; Android's client closes it, as this does
+            connection.setRequestProperty("Connection", "close");
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(10_000);
+            connection.setReadTimeout(10_000);
+            try (OutputStream os = connection.getOutputStream()) {
+                os.write(("{\"sms\":\"" + smsBody + "\"}").getBytes(StandardCharsets.UTF_8));
+            }
+            int code = connection.getResponseCode();
+            try (InputStream in = connection.getInputStream()) {
+                while (in.read() != -1) { }
+            }
+            return code;
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
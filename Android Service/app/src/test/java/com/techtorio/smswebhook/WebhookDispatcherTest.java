@@ -0,0 +1,104 @@
+package com.techtorio.smswebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WebhookDispatcherTest {
+    static {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private HttpServer server;
+    private String url;
+    private final Set<Integer> clientPorts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private final List<String> secrets = new CopyOnWriteArrayList<>();
+    private final AtomicInteger status = new AtomicInteger(200);
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/hook", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            secrets.add(exchange.getRequestHeaders().getFirst("X-Webhook-Secret"));
+            bodies.add(read(exchange.getRequestBody()));
+            byte[] reply = "{\"ok\":true}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status.get(), reply.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(reply);
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/hook";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void postsTheSmsAsJsonWithTheSecret() {
+        WebhookDispatcher.Result result = WebhookDispatcher.post(url, "s3cret", "Code \"123\"\nfrom bank");
+        assertTrue(result.success);
+        assertEquals(200, result.code);
+        assertTrue(result.text.contains("{\"ok\":true}"));
+        assertEquals("{\"sms\":\"Code \\\"123\\\"\\nfrom bank\"}", bodies.get(0));
+        assertEquals("s3cret", secrets.get(0));
+    }
+
+    @Test
+    public void consecutivePostsReuseOneConnection() {
+        for (int i = 0; i < 20; i++) assertTrue(WebhookDispatcher.post(url, "s", "sms " + i).success);
+        assertEquals(20, bodies.size());
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void errorStatusIsAFailureThatKeepsTheConnection() {
+        status.set(500);
+        WebhookDispatcher.Result failed = WebhookDispatcher.post(url, "s", "sms");
+        assertFalse(failed.success);
+        assertEquals(500, failed.code);
+        status.set(200);
+        assertTrue(WebhookDispatcher.post(url, "s", "sms").success);
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void unreachableHostIsAFailure() {
+        server.stop(0);
+        WebhookDispatcher.Result result = WebhookDispatcher.post(url, "s", "sms");
+        assertFalse(result.success);
+        assertEquals(-1, result.code);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = in.read(buf)) != -1) out.write(buf, 0, n);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}